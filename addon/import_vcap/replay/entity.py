@@ -1,6 +1,7 @@
 from email.mime import base
 from enum import auto
 from io import BytesIO
+import base64
 import math
 import time
 import itertools
@@ -12,6 +13,7 @@ from bpy.types import Mesh, Collection, Context, Material, Object, PoseBone, Edi
 from mathutils import Euler, Matrix, Quaternion, Vector
 
 from ..vcap.import_obj import load as load_obj
+from ..vcap import vmesh
 from .. import data
 import xml.etree.ElementTree as ET
 import bpy  
@@ -35,6 +37,13 @@ class AnimChannel:
         self.datapath = datapath
         self.keyframes = {}
 
+def _read_mesh_tag(mesh_tag: ET.Element) -> str:
+    """Get the OBJ text of a mesh tag, decoding it if it uses a binary encoding."""
+    encoding = mesh_tag.get('encoding', 'obj')
+    if encoding == 'obj':
+        return mesh_tag.text
+    return vmesh.open_mesh(base64.b64decode(mesh_tag.text), encoding).read().decode('utf-8')
+
 def _simple_load_obj(context: Context, file_contents: str, unique_materials: dict[str, Material]):
     obj = BytesIO(bytes(file_contents, 'utf-8'))
     return load_obj(context, obj, use_split_objects=False, use_split_groups=False, use_groups_as_vgroups=True, unique_materials=unique_materials)
@@ -95,7 +104,7 @@ def load_entity(file: IO[str], context: Context, collection: Collection, materia
         armature_obj, bone_def, override_channels = parse_armature(model, context, collection, name=f'{name}.bones')
 
         if mesh_tag is not None:
-            meshes, mats, vertex_groups = _simple_load_obj(context, mesh_tag.text, materials)
+            meshes, mats, vertex_groups = _simple_load_obj(context, _read_mesh_tag(mesh_tag), materials)
             
             for obj in meshes:
                 new_object = bpy.data.objects.new(f'{name}.mesh', obj)
@@ -532,7 +541,7 @@ def parse_multipart(model: ET.Element,
         # Not all model parts have meshes.
         mesh_tag = element.find('mesh')
         if (mesh_tag is not None) and (mesh_tag.text is not None):
-            n_meshes, mats, vertex_groups = _simple_load_obj(context, mesh_tag.text, materials)
+            n_meshes, mats, vertex_groups = _simple_load_obj(context, _read_mesh_tag(mesh_tag), materials)
             for mesh in n_meshes:
                 meshes[mesh] = id
         
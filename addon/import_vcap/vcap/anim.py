@@ -1,10 +1,12 @@
-from typing import Any
+from typing import Any, Optional
 
 from bpy.types import Object
 
 
 class TesselatedFrame:
     time: float = 0
+    end_time: Optional[float] = None
+    """The time at which a later intracoded frame replaces this frame entirely, if any."""
     objects: dict[Any, Object]
 
     def __init__(self) -> None:
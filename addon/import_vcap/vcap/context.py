@@ -24,6 +24,10 @@ class VCAPContext:
     materials: dict[str, Material] = {}
     material_groups: dict[str, NodeTree] = {}
     models: dict[str, Mesh] = {}
+    palette: list[str]
+    """The global model palette from meta.json, or an empty list if the file
+    doesn't use one.
+    """
 
     textures: dict[str, Image]
 
@@ -46,6 +50,7 @@ class VCAPContext:
         self.materials = {}
         self.material_groups = {}
         self.textures = {}
+        self.palette = []
 
         self.collection = collection
 
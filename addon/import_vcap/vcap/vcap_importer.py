@@ -17,10 +17,10 @@ from numpy import ndarray
 from .. import amulet_nbt, data
 from ..amulet_nbt import (TAG_Byte_Array, TAG_Compound, TAG_Int_Array,
                           TAG_List, TAG_String)
-from . import import_mesh, materials, util
+from . import import_mesh, materials, util, vmesh
 from .anim import TesselatedFrame
 from .context import VCAPContext, VCAPSettings
-from .world import VcapFrame, load_frame
+from .world import VcapFrame, load_frame, resolve_section_refs
 
 def load(file: Union[str, IO[bytes]],
          collection: Collection,
@@ -48,6 +48,12 @@ def load(file: Union[str, IO[bytes]],
             obj.select_set(False)
 
         vcontext = VCAPContext(archive, collection, context, name)
+
+        # Meta
+        if 'meta.json' in archive.namelist():
+            with archive.open('meta.json') as meta_file:
+                meta = json.load(meta_file)
+            vcontext.palette = meta.get('palette', [])
         
         # Materials
         for entry in archive.filelist:
@@ -97,16 +103,19 @@ def load(file: Union[str, IO[bytes]],
 def loadMeshes(archive: ZipFile, context: VCAPContext):
     for file in archive.filelist:
         if file.filename.startswith('mesh/'):
-            model_id = os.path.splitext(os.path.basename(file.filename))[0]
+            model_id, ext = os.path.splitext(os.path.basename(file.filename))
+            # The extension identifies the mesh encoding.
+            encoding = ext[1:] if ext else 'obj'
 
-            loaded_file = context.archive.open(file)
-            context.models[model_id] = import_mesh.load(context, model_id, loaded_file)
-            loaded_file.close()
+            with context.archive.open(file) as loaded_file:
+                mesh_file = vmesh.open_mesh(loaded_file.read(), encoding)
+            context.models[model_id] = import_mesh.load(context, model_id, mesh_file)
 
 def readWorld(world_dat: IO[bytes], vcontext: VCAPContext, settings: VCAPSettings, progress_function: Callable[[float], None] = None):
     nbt: amulet_nbt.NBTFile = amulet_nbt.load(world_dat.read(), compressed=False)
     print("Loading world...")
     nbt_frames: TAG_List = nbt.get('frames')
+    resolve_section_refs(nbt_frames)
     frames: list[VcapFrame] = []
     offset = Vector(data.vcap_offset_mc(vcontext.context.scene))
     offset.freeze()
@@ -116,6 +125,7 @@ def readWorld(world_dat: IO[bytes], vcontext: VCAPContext, settings: VCAPSetting
     overrides: dict[Any, set[Vector]] = dict()
     blame: dict[Any, TesselatedFrame] = dict()
     loaded_frames: list[TesselatedFrame] = []
+    next_keyframe: TesselatedFrame = None
 
     for i in reversed(range(0, len(frames))): # Go backward because overrides affect past frames.
 
@@ -139,15 +149,24 @@ def readWorld(world_dat: IO[bytes], vcontext: VCAPContext, settings: VCAPSetting
                 obj.data.materials.append(mat)
 
         final_frame.time = frame.time
-        override_id = f'frame{i}'
-        my_override = frame.get_declared_override()
-        
-        # Can't have two overrides of one block.
-        for override in overrides.values():
-            override.difference_update(my_override)
-        
-        overrides[override_id] = my_override
-        blame[override_id] = final_frame
+        if next_keyframe is not None:
+            final_frame.end_time = next_keyframe.time
+
+        if frame.is_keyframe:
+            # A keyframe replaces the entire world, so frames before it don't need
+            # to split off blocks that are overridden after it.
+            overrides.clear()
+            next_keyframe = final_frame
+        else:
+            override_id = f'frame{i}'
+            my_override = frame.get_declared_override()
+            
+            # Can't have two overrides of one block.
+            for override in overrides.values():
+                override.difference_update(my_override)
+            
+            overrides[override_id] = my_override
+            blame[override_id] = final_frame
 
         loaded_frames.append(final_frame)
 
@@ -171,8 +190,12 @@ def readWorld(world_dat: IO[bytes], vcontext: VCAPContext, settings: VCAPSetting
             if frame.time != 0:
                 add_keyframe(obj, False, 0)
             add_keyframe(obj, True, seconds_to_frames(frame.time))
-            if (id in blame):
-                add_keyframe(obj, False, seconds_to_frames(blame[id].time))
+
+            end_time = frame.end_time
+            if (id in blame) and (end_time is None or blame[id].time < end_time):
+                end_time = blame[id].time
+            if end_time is not None:
+                add_keyframe(obj, False, seconds_to_frames(end_time))
 
             for kf in obj.animation_data.action.fcurves[0].keyframe_points:
                 kf.interpolation = 'CONSTANT'        
@@ -0,0 +1,148 @@
+"""Reader for the binary mesh encoding (`vmesh`).
+
+Meshes are converted into OBJ text so they can go through the same importer
+as text meshes. See doc/vcap.md for the layout.
+"""
+import struct
+from array import array
+from io import BytesIO
+import sys
+
+MAGIC = b'VMSH'
+VERSION = 1
+
+FLAG_TEX_COORDS = 1
+FLAG_NORMALS = 2
+
+NONE_16 = 0xFFFF
+NONE_32 = -1
+
+_HEADER = struct.Struct('<4sHHIIIIIHH')
+
+def _read_array(typecode: str, data: bytes, offset: int, count: int):
+    arr = array(typecode)
+    end = offset + count * arr.itemsize
+    if end > len(data):
+        raise ValueError("Truncated binary mesh.")
+    arr.frombytes(data[offset:end])
+    if sys.byteorder != 'little':
+        arr.byteswap()
+    return arr, end
+
+def _read_string(data: bytes, offset: int):
+    (length,) = struct.unpack_from('<H', data, offset)
+    offset += 2
+    return data[offset:offset + length].decode('utf-8'), offset + length
+
+def to_obj(data: bytes) -> bytes:
+    """Convert a binary mesh into OBJ text.
+
+    Args:
+        data (bytes): The binary mesh.
+
+    Raises:
+        ValueError: If the data is not a valid binary mesh.
+
+    Returns:
+        bytes: UTF-8 OBJ text.
+    """
+    if len(data) < _HEADER.size:
+        raise ValueError("Truncated binary mesh.")
+    (magic, version, flags, num_verts, num_tex_coords, num_normals,
+        num_faces, num_indices, num_group_sets, num_materials) = _HEADER.unpack_from(data, 0)
+    if magic != MAGIC:
+        raise ValueError("Not a binary mesh.")
+    if version != VERSION:
+        raise ValueError(f"Unsupported binary mesh version: {version}")
+    offset = _HEADER.size
+
+    group_sets: list[list[str]] = []
+    for i in range(num_group_sets):
+        (count,) = struct.unpack_from('<H', data, offset)
+        offset += 2
+        names = []
+        for n in range(count):
+            name, offset = _read_string(data, offset)
+            names.append(name)
+        group_sets.append(names)
+
+    materials: list[str] = []
+    for i in range(num_materials):
+        name, offset = _read_string(data, offset)
+        materials.append(name)
+
+    positions, offset = _read_array('f', data, offset, num_verts * 3)
+    tex_coords, offset = _read_array('f', data, offset, num_tex_coords * 2)
+    normals, offset = _read_array('f', data, offset, num_normals * 3)
+
+    face_sizes, offset = _read_array('B', data, offset, num_faces)
+    face_groups, offset = _read_array('H', data, offset, num_faces)
+    face_materials, offset = _read_array('H', data, offset, num_faces)
+
+    v_indices, offset = _read_array('i', data, offset, num_indices)
+    vt_indices = None
+    vn_indices = None
+    if flags & FLAG_TEX_COORDS:
+        vt_indices, offset = _read_array('i', data, offset, num_indices)
+    if flags & FLAG_NORMALS:
+        vn_indices, offset = _read_array('i', data, offset, num_indices)
+
+    out: list[str] = []
+    for i in range(num_verts):
+        out.append(f'v {positions[i*3]} {positions[i*3+1]} {positions[i*3+2]}\n')
+    for i in range(num_tex_coords):
+        out.append(f'vt {tex_coords[i*2]} {tex_coords[i*2+1]}\n')
+    for i in range(num_normals):
+        out.append(f'vn {normals[i*3]} {normals[i*3+1]} {normals[i*3+2]}\n')
+
+    group = NONE_16
+    material = NONE_16
+    index = 0
+    for i in range(num_faces):
+        if face_groups[i] != group:
+            group = face_groups[i]
+            if group != NONE_16:
+                out.append('g ' + ' '.join(group_sets[group]) + '\n')
+        if face_materials[i] != material:
+            material = face_materials[i]
+            if material != NONE_16:
+                out.append(f'usemtl {materials[material]}\n')
+
+        size = face_sizes[i]
+        has_vt = vt_indices is not None and vt_indices[index] != NONE_32
+        has_vn = vn_indices is not None and vn_indices[index] != NONE_32
+
+        corners = []
+        for n in range(index, index + size):
+            corner = str(v_indices[n] + 1)
+            if has_vt or has_vn:
+                corner += '/'
+                if has_vt:
+                    corner += str(vt_indices[n] + 1)
+                if has_vn:
+                    corner += '/' + str(vn_indices[n] + 1)
+            corners.append(corner)
+        out.append('f ' + ' '.join(corners) + '\n')
+        index += size
+
+    return ''.join(out).encode('utf-8')
+
+def open_mesh(data: bytes, encoding: str) -> BytesIO:
+    """Open a mesh of any encoding as an OBJ stream.
+
+    Args:
+        data (bytes): Raw mesh data.
+        encoding (str): Mesh encoding ID, such as `obj` or `vmesh`.
+
+    Raises:
+        ValueError: If the encoding is unknown.
+
+    Returns:
+        BytesIO: OBJ text stream.
+    """
+    if encoding == 'obj':
+        return BytesIO(data)
+    elif encoding == 'vmesh':
+        return BytesIO(to_obj(data))
+    else:
+        raise ValueError(f"Unknown mesh encoding: {encoding}")
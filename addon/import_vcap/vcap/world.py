@@ -1,6 +1,7 @@
 from abc import abstractmethod, abstractproperty
-from typing import Any, Callable
+from typing import Any, Callable, Iterator, Optional, Union
 
+import numpy
 from numpy import ndarray
 import bmesh
 from bmesh.types import BMesh
@@ -8,7 +9,7 @@ import bpy
 from bpy.types import Mesh, TimelineMarkers
 from .context import VCAPContext, VCAPSettings
 from mathutils import Matrix, Vector
-from ..amulet_nbt import TAG_Compound, TAG_List, TAG_Int_Array, TAG_Byte_Array, TAG_String
+from ..amulet_nbt import TAG_Compound, TAG_List, TAG_Int_Array, TAG_Long_Array, TAG_Byte_Array, TAG_String
 from . import util
 from .. import data
 
@@ -44,6 +45,8 @@ class VcapFrame:
         raise RuntimeError("Can't call methods on base class")
 
     time: float
+    is_keyframe: bool = False
+    """Whether this frame contains the entire world, replacing all prior frames."""
     overrides: dict[Any, set[Vector]]
     """A set of block overrides and their IDs. An override is a set of
     voxels that, due to the fact that they're subsequently replaced, need
@@ -69,28 +72,55 @@ class PFrame(VcapFrame):
         self.overrides = dict()
         self.vcap_offset = vcap_offset
 
-    def get_meshes(self, vcontext: VCAPContext, settings: VCAPSettings, progress_function=None):
+    def _iter_blocks(self) -> Iterator[tuple[Vector, int, Optional[list[float]]]]:
+        """Iterate over the blocks updated in this frame, in either the compound
+        or the packed layout.
+
+        Yields:
+            tuple[Vector, int, list[float] | None]: The block's position, its palette index, and its color if present.
+        """
+        if 'positions' in self.__nbt__:
+            positions: TAG_Int_Array = self.__nbt__['positions']
+            states: TAG_Int_Array = self.__nbt__['states']
+            colors = self.__nbt__['colors'].value if 'colors' in self.__nbt__ else None
+            pos_array = positions.value
+            state_array = states.value
+            for i in range(0, len(state_array)):
+                position = Vector((pos_array.item(i * 3), pos_array.item(i * 3 + 1), pos_array.item(i * 3 + 2)))
+                color = None
+                if colors is not None:
+                    packed = colors.item(i)
+                    color = [(packed >> 16 & 255) / 255, (packed >> 8 & 255) / 255, (packed & 255) / 255, 1]
+                yield position, state_array.item(i), color
+            return
+
         blocks: TAG_List = self.__nbt__['blocks']
-        palette: TAG_List = self.__nbt__['palette']
+        block: TAG_Compound
+        for block in blocks:
+            pos: TAG_List = block['pos']
+            position = Vector((pos[0].value, pos[1].value, pos[2].value))
+            color = None
+            if 'color' in block:
+                color_tag: TAG_List = block['color']
+                r = _make_unsigned(color_tag[0].value) / 255
+                g = _make_unsigned(color_tag[1].value) / 255
+                b = _make_unsigned(color_tag[2].value) / 255
+                color = [r, g, b, 1]
+            yield position, block['state'].value, color
+
+    def get_meshes(self, vcontext: VCAPContext, settings: VCAPSettings, progress_function=None):
+        palette = _read_palette(self.__nbt__['palette'], vcontext)
 
         meshes: dict[any, BMesh] = {}
         meshes['base'] = bmesh.new()
         for id in self.overrides:
             meshes[id] = bmesh.new()
 
-        block: TAG_Compound
-        for block in blocks:
-            state: int = block['state'].value
-            pos: TAG_List = block['pos']
-            x = pos[0].value
-            y = pos[1].value
-            z = pos[2].value
-            position: Vector = Vector((x, y, z))
+        for position, state, block_color in self._iter_blocks():
             position += self.vcap_offset
             position.freeze()
 
-            model_id: TAG_String = palette[state]
-            block_mesh = vcontext.models[model_id.value]
+            block_mesh = vcontext.models[palette[state]]
             if len(block_mesh.vertices) == 0:
                 continue
 
@@ -100,12 +130,8 @@ class PFrame(VcapFrame):
                     mesh_index = id
                     break
 
-            if settings.use_vertex_colors and 'color' in block:
-                color_tag: TAG_List = block['color']
-                r = _make_unsigned(color_tag[0].value) / 255
-                g = _make_unsigned(color_tag[1].value) / 255
-                b = _make_unsigned(color_tag[2].value) / 255
-                color = [r, g, b, 1]
+            if settings.use_vertex_colors and block_color is not None:
+                color = block_color
             else:
                 color = [1, 1, 1, 1]
 
@@ -124,14 +150,7 @@ class PFrame(VcapFrame):
 
     def get_declared_override(self) -> set[tuple[int, int, int]]:
         overrides = set()
-        blocks: TAG_List = self.__nbt__['blocks']
-        block: TAG_Compound
-        for block in blocks:
-            pos: TAG_List = block['pos']
-            x = pos[0].value
-            y = pos[1].value
-            z = pos[2].value
-            position = Vector((x, y, z))
+        for position, state, color in self._iter_blocks():
             position += self.vcap_offset
             position.freeze()
             overrides.add(position)
@@ -142,6 +161,7 @@ class PFrame(VcapFrame):
 class IFrame(VcapFrame):
     __nbt__: TAG_Compound
     index: int
+    is_keyframe = True
     vcap_offset = Vector()
 
     def __init__(self, nbt: TAG_Compound, index: int = 0, vcap_offset = Vector([0, 0, 0])) -> None:
@@ -164,6 +184,14 @@ class IFrame(VcapFrame):
         for id in self.overrides:
             meshes[id] = bmesh.new()
 
+        # Merged section meshes and downsampled cells can't be split, so
+        # sections with overridden blocks fall back to their per-block models.
+        override_sections: set[tuple[int, int, int]] = set()
+        for vals in self.overrides.values():
+            for pos in vals:
+                local = pos - self.vcap_offset
+                override_sections.add((int(local.x) // 16, int(local.y) // 16, int(local.z) // 16))
+
         section: TAG_Compound
         num_sections = len(sections)
         for i in range(0, num_sections):
@@ -173,23 +201,39 @@ class IFrame(VcapFrame):
                 if(progress_function): progress_function(i / num_sections)
             
             section = sections[i]
-            palette: TAG_List = section['palette']
+            palette = _read_palette(section['palette'], vcontext)
             offset = (section['x'].value, section['y'].value, section['z'].value)
-            blocks: TAG_Int_Array = section['blocks']
-            bblocks = blocks.value
+            bblocks = _read_blocks(section, len(palette))
             use_colors = False
-            if settings.use_vertex_colors and ('colors' in section) and ('colorPalette' in section):
+            if settings.use_vertex_colors and ('colorPalette' in section) and len(section['colorPalette'].value) > 0:
                 color_palette_tag: TAG_Byte_Array = section['colorPalette']
                 color_palette = color_palette_tag.value
-                colors_tag: TAG_Byte_Array = section['colors']
-                colors = colors_tag.value
+                # Sections with a single color leave out the colors array.
+                colors = section['colors'].value if 'colors' in section else numpy.zeros(4096, numpy.int8)
                 use_colors = True
 
-            for y in range(0, 16):
-                for z in range(0, 16):
-                    for x in range(0, 16):
+            merged = None
+            if 'mesh' in section and offset not in override_sections:
+                merged_tag: TAG_Byte_Array = section['merged']
+                merged = merged_tag.value
+                section_mesh = vcontext.models[section['mesh'].value]
+                section_pos = Vector((offset[0] * 16, offset[1] * 16, offset[2] * 16)) + self.vcap_offset
+                util.add_mesh(meshes['base'], section_mesh, Matrix.Translation(section_pos), color=[1, 1, 1, 1])
+
+            # Downsampled sections repeat each cell's model across the cell, so
+            # only place it once, scaled to the cell's size. If a later frame
+            # overrides part of the section, every block is placed on its own
+            # so the overridden ones can be left out.
+            cell_size = 1 << section['lod'].value if 'lod' in section and offset not in override_sections else 1
+            cell_scale = Matrix.Scale(cell_size, 4)
+
+            for y in range(0, 16, cell_size):
+                for z in range(0, 16, cell_size):
+                    for x in range(0, 16, cell_size):
+                        if merged is not None and merged.item((y * 16 + z) * 16 + x):
+                            continue
                         index = bblocks.item((y * 16 + z) * 16 + x)
-                        model_id: str = palette[index].value
+                        model_id: str = palette[index]
                         block_mesh = vcontext.models[model_id]
                         if len(block_mesh.vertices) == 0:
                             continue
@@ -212,7 +256,7 @@ class IFrame(VcapFrame):
                                 mesh_index = id
                                 break
 
-                        util.add_mesh(meshes[mesh_index], block_mesh, Matrix.Translation(world_pos), color=color)
+                        util.add_mesh(meshes[mesh_index], block_mesh, Matrix.Translation(world_pos) @ cell_scale, color=color)
     
         final_meshes: dict[Any, Mesh] = {}
         for id in meshes:
@@ -227,6 +271,58 @@ class IFrame(VcapFrame):
     def get_declared_override(self) -> set[Vector]:
         return set()
 
+def resolve_section_refs(frames: TAG_List):
+    """Replace intracoded frame sections that reference an earlier frame with
+    the section they reference, in place.
+    """
+    # Sections of each referenced frame, by position.
+    targets: dict[int, dict[tuple[int, int, int], TAG_Compound]] = {}
+
+    for frame in frames:
+        if frame['type'].value != 0 or 'sections' not in frame:
+            continue
+        sections: TAG_List = frame['sections']
+        for i in range(0, len(sections)):
+            section = sections[i]
+            if 'ref' not in section:
+                continue
+            ref = section['ref'].value
+            if ref not in targets:
+                targets[ref] = {(target['x'].value, target['y'].value, target['z'].value): target
+                                for target in frames[ref]['sections']}
+            pos = (section['x'].value, section['y'].value, section['z'].value)
+            if pos not in targets[ref]:
+                raise RuntimeError(f"Section {pos} references a frame that doesn't contain it.")
+            sections[i] = targets[ref][pos]
+
+def _read_palette(palette: Union[TAG_List, TAG_Int_Array], vcontext: VCAPContext) -> list[str]:
+    """Read a section or frame palette, which is either a list of model IDs or
+    a list of indices into the global palette.
+    """
+    if isinstance(palette, TAG_Int_Array):
+        return [vcontext.palette[index] for index in palette.value.tolist()]
+    return [entry.value for entry in palette]
+
+def _read_blocks(section: TAG_Compound, palette_size: int) -> ndarray:
+    """Read the palette indices of a section, in either the int array or the
+    bit-packed layout.
+    """
+    # Sections with a single palette entry leave out the blocks array.
+    if 'blocks' not in section:
+        return numpy.zeros(4096, numpy.int32)
+
+    blocks = section['blocks']
+    if not isinstance(blocks, TAG_Long_Array):
+        return blocks.value
+
+    bits = max(1, (palette_size - 1).bit_length())
+    per_long = 64 // bits
+    longs = blocks.value.view(numpy.uint64)
+    indices = numpy.arange(4096)
+    shifts = ((indices % per_long) * bits).astype(numpy.uint64)
+    mask = numpy.uint64((1 << bits) - 1)
+    return ((longs[indices // per_long] >> shifts) & mask).astype(numpy.int32)
+
 def _read_unsigned(array: ndarray, index: int, bit_depth: int = 8):
     item = array.item(index)
     if (item < 0):
@@ -0,0 +1,196 @@
+package org.scaffoldeditor.worldexport;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockBox;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.BlockView;
+import net.minecraft.world.World;
+
+/**
+ * <p>
+ * Dispatches client block updates to listeners that only care about a
+ * specific world and region. Listeners are indexed by world and by square
+ * regions of {@link #REGION_SIZE} chunks, so each update only reaches the
+ * listeners that could be interested in it.
+ * </p>
+ * <p>
+ * The index is copy-on-write: registering or removing a listener rebuilds it
+ * under a lock, while dispatching only reads a volatile reference. Block
+ * updates on the client thread never wait on registrations from other
+ * threads.
+ * </p>
+ */
+public class BlockUpdateDispatcher implements ClientBlockPlaceCallback {
+
+    /**
+     * Log2 of the region size, in chunks.
+     */
+    public static final int REGION_SHIFT = 5;
+
+    /**
+     * The width of an index region, in chunks.
+     */
+    public static final int REGION_SIZE = 1 << REGION_SHIFT;
+
+    /**
+     * Listeners whose bounds span more regions than this are treated as
+     * listening to the whole world, with a bounds check on each update.
+     */
+    public static final int MAX_INDEXED_REGIONS = 256;
+
+    private static final Listener[] NO_LISTENERS = new Listener[0];
+
+    /**
+     * Key for listeners that want updates from every world.
+     */
+    private static final Object ANY_WORLD = new Object();
+
+    private static record Listener(ClientBlockPlaceCallback callback, @Nullable BlockBox bounds) {
+        boolean accepts(BlockPos pos) {
+            if (bounds == null) return true;
+            int x = pos.getX() >> 4;
+            int y = pos.getY() >> 4;
+            int z = pos.getZ() >> 4;
+            return x >= bounds.getMinX() && x <= bounds.getMaxX()
+                    && y >= bounds.getMinY() && y <= bounds.getMaxY()
+                    && z >= bounds.getMinZ() && z <= bounds.getMaxZ();
+        }
+    }
+
+    /**
+     * An immutable index of the listeners for one world.
+     * @param global  Listeners that aren't indexed by region.
+     * @param regions Listeners by region key.
+     */
+    private static record WorldIndex(Listener[] global, Long2ObjectMap<Listener[]> regions) {}
+
+    private final Map<Object, List<Listener>> listeners = new IdentityHashMap<>();
+    private volatile Map<Object, WorldIndex> index = new IdentityHashMap<>();
+
+    /**
+     * Register a listener for all block updates.
+     * @param listener The listener.
+     */
+    public void register(ClientBlockPlaceCallback listener) {
+        register(null, null, listener);
+    }
+
+    /**
+     * Register a listener for block updates in a specific world and region.
+     *
+     * @param world    The world to listen to, or <code>null</code> for every
+     *                 world. Compared by identity.
+     * @param bounds   The region to listen to, in chunk section coordinates, or
+     *                 <code>null</code> for the whole world.
+     * @param listener The listener.
+     */
+    public synchronized void register(@Nullable BlockView world, @Nullable BlockBox bounds,
+            ClientBlockPlaceCallback listener) {
+        Object key = world != null ? world : ANY_WORLD;
+        listeners.computeIfAbsent(key, k -> new ArrayList<>()).add(new Listener(listener, bounds));
+        rebuildIndex();
+    }
+
+    /**
+     * Remove every registration of a listener.
+     * @param listener The listener.
+     * @return If the listener was registered.
+     */
+    public synchronized boolean unregister(ClientBlockPlaceCallback listener) {
+        boolean removed = false;
+        for (List<Listener> list : listeners.values()) {
+            removed |= list.removeIf(l -> l.callback() == listener);
+        }
+        if (removed) {
+            listeners.values().removeIf(List::isEmpty);
+            rebuildIndex();
+        }
+        return removed;
+    }
+
+    private void rebuildIndex() {
+        Map<Object, WorldIndex> newIndex = new IdentityHashMap<>(listeners.size());
+        for (Map.Entry<Object, List<Listener>> entry : listeners.entrySet()) {
+            newIndex.put(entry.getKey(), buildWorldIndex(entry.getValue()));
+        }
+        index = newIndex;
+    }
+
+    private static WorldIndex buildWorldIndex(List<Listener> listeners) {
+        List<Listener> global = new ArrayList<>();
+        Long2ObjectMap<List<Listener>> regions = new Long2ObjectOpenHashMap<>();
+
+        for (Listener listener : listeners) {
+            BlockBox bounds = listener.bounds();
+            if (bounds == null) {
+                global.add(listener);
+                continue;
+            }
+
+            long minX = bounds.getMinX() >> REGION_SHIFT;
+            long maxX = bounds.getMaxX() >> REGION_SHIFT;
+            long minZ = bounds.getMinZ() >> REGION_SHIFT;
+            long maxZ = bounds.getMaxZ() >> REGION_SHIFT;
+            if ((maxX - minX + 1) * (maxZ - minZ + 1) > MAX_INDEXED_REGIONS) {
+                global.add(listener);
+                continue;
+            }
+
+            for (int x = (int) minX; x <= maxX; x++) {
+                for (int z = (int) minZ; z <= maxZ; z++) {
+                    long key = ChunkPos.toLong(x, z);
+                    List<Listener> region = regions.get(key);
+                    if (region == null) {
+                        region = new ArrayList<>();
+                        regions.put(key, region);
+                    }
+                    region.add(listener);
+                }
+            }
+        }
+
+        Long2ObjectMap<Listener[]> regionArrays = new Long2ObjectOpenHashMap<>(regions.size());
+        for (Long2ObjectMap.Entry<List<Listener>> entry : regions.long2ObjectEntrySet()) {
+            regionArrays.put(entry.getLongKey(), entry.getValue().toArray(Listener[]::new));
+        }
+        return new WorldIndex(global.isEmpty() ? NO_LISTENERS : global.toArray(Listener[]::new), regionArrays);
+    }
+
+    private static long regionKey(BlockPos pos) {
+        return ChunkPos.toLong(pos.getX() >> (4 + REGION_SHIFT), pos.getZ() >> (4 + REGION_SHIFT));
+    }
+
+    @Override
+    public void place(BlockPos pos, @Nullable BlockState oldState, BlockState state, World world) {
+        Map<Object, WorldIndex> index = this.index;
+        if (index.isEmpty()) return;
+
+        dispatch(index.get(ANY_WORLD), pos, oldState, state, world);
+        dispatch(index.get(world), pos, oldState, state, world);
+    }
+
+    private static void dispatch(@Nullable WorldIndex worldIndex, BlockPos pos, @Nullable BlockState oldState,
+            BlockState state, World world) {
+        if (worldIndex == null) return;
+
+        for (Listener listener : worldIndex.global()) {
+            if (listener.accepts(pos)) listener.callback().place(pos, oldState, state, world);
+        }
+
+        Listener[] regional = worldIndex.regions().get(regionKey(pos));
+        if (regional == null) return;
+        for (Listener listener : regional) {
+            if (listener.accepts(pos)) listener.callback().place(pos, oldState, state, world);
+        }
+    }
+}
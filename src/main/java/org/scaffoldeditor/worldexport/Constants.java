@@ -3,5 +3,5 @@ package org.scaffoldeditor.worldexport;
 public final class Constants {
     private Constants() {};
 
-    public static final String REPLAY_FORMAT_VERSION = "0.3.0";
+    public static final String REPLAY_FORMAT_VERSION = "0.4.0";
 }
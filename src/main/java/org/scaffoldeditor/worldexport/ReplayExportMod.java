@@ -1,8 +1,5 @@
 package org.scaffoldeditor.worldexport;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.scaffoldeditor.worldexport.replay.model_adapters.ReplayModels;
@@ -11,6 +8,7 @@ import org.scaffoldeditor.worldexport.replaymod.ReplayModHooks;
 import org.scaffoldeditor.worldexport.replaymod.camera_animations.CameraAnimationModule;
 import org.scaffoldeditor.worldexport.replaymod.render.CameraEntityRenderer;
 import org.scaffoldeditor.worldexport.replaymod.render.CameraPathRenderer;
+import org.scaffoldeditor.worldexport.vcap.model.BlockMeshCache;
 import org.scaffoldeditor.worldexport.world_snapshot.WorldSnapshotManager;
 
 import com.replaymod.simplepathing.ReplayModSimplePathing;
@@ -20,6 +18,8 @@ import net.fabricmc.fabric.api.client.rendering.v1.EntityModelLayerRegistry;
 import net.fabricmc.fabric.api.client.rendering.v1.EntityRendererRegistry;
 import net.fabricmc.fabric.api.client.rendering.v1.WorldRenderEvents;
 import net.fabricmc.fabric.api.object.builder.v1.entity.FabricEntityTypeBuilder;
+import net.fabricmc.fabric.api.resource.ResourceManagerHelper;
+import net.fabricmc.fabric.api.resource.SimpleSynchronousResourceReloadListener;
 import net.fabricmc.loader.api.FabricLoader;
 import net.fabricmc.loader.api.Version;
 import net.minecraft.client.MinecraftClient;
@@ -30,6 +30,8 @@ import net.minecraft.entity.EntityType;
 import net.minecraft.entity.SpawnGroup;
 import net.minecraft.registry.Registries;
 import net.minecraft.registry.Registry;
+import net.minecraft.resource.ResourceManager;
+import net.minecraft.resource.ResourceType;
 import net.minecraft.util.Identifier;
 import net.minecraft.util.hit.EntityHitResult;
 import net.minecraft.util.hit.HitResult;
@@ -53,7 +55,7 @@ public class ReplayExportMod implements ClientModInitializer {
 
     private final MinecraftClient client = MinecraftClient.getInstance();
 
-    private Set<ClientBlockPlaceCallback> blockUpdateListeners = new HashSet<>();
+    private final BlockUpdateDispatcher blockUpdateDispatcher = new BlockUpdateDispatcher();
     private final CameraAnimationModule cameraAnimationsModule = new CameraAnimationModule();
     private CameraPathRenderer cameraPathRenderer;
 
@@ -66,11 +68,20 @@ public class ReplayExportMod implements ClientModInitializer {
     }
 
     public void onBlockUpdated(ClientBlockPlaceCallback listener) {
-        blockUpdateListeners.add(listener);
+        blockUpdateDispatcher.register(listener);
     }
 
     public boolean removeOnBlockUpdated(ClientBlockPlaceCallback listener) {
-        return blockUpdateListeners.remove(listener);
+        return blockUpdateDispatcher.unregister(listener);
+    }
+
+    /**
+     * Get the dispatcher for client block updates. Prefer registering with a
+     * world and bounds over {@link #onBlockUpdated} when possible.
+     * @return The block update dispatcher.
+     */
+    public BlockUpdateDispatcher getBlockUpdateDispatcher() {
+        return blockUpdateDispatcher;
     }
 
     public WorldSnapshotManager getWorldSnapshotManager() {
@@ -85,13 +96,26 @@ public class ReplayExportMod implements ClientModInitializer {
         }
 
 
-        ClientBlockPlaceCallback.EVENT.register((pos, oldState, state, world) -> {
-            blockUpdateListeners.forEach(listener -> listener.place(pos, oldState, state, world));
-        });
+        ClientBlockPlaceCallback.EVENT.register(blockUpdateDispatcher);
 
-        worldSnapshotManager = new WorldSnapshotManager();
+        worldSnapshotManager = new WorldSnapshotManager(blockUpdateDispatcher);
 
         ReplayModels.registerDefaults();
+
+        BlockMeshCache.getInstance().setDiskRoot(
+                FabricLoader.getInstance().getGameDir().resolve("worldexport").resolve("mesh_cache"));
+        ResourceManagerHelper.get(ResourceType.CLIENT_RESOURCES).registerReloadListener(
+                new SimpleSynchronousResourceReloadListener() {
+                    @Override
+                    public Identifier getFabricId() {
+                        return new Identifier("worldexport", "block_mesh_cache");
+                    }
+
+                    @Override
+                    public void reload(ResourceManager manager) {
+                        BlockMeshCache.getInstance().onResourcesReloaded(manager);
+                    }
+                });
         EntityRendererRegistry.register(ANIMATED_CAMERA, CameraEntityRenderer::new);
 
         ReplayModHooks.onReplayModInit(replayMod -> {
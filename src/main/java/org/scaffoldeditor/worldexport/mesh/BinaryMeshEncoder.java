@@ -0,0 +1,365 @@
+package org.scaffoldeditor.worldexport.mesh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.javagl.obj.FloatTuple;
+import de.javagl.obj.Obj;
+import de.javagl.obj.ObjFace;
+import de.javagl.obj.Objs;
+import de.javagl.obj.ReadableObj;
+
+/**
+ * <p>
+ * Writes meshes in a little-endian binary format with typed buffers for
+ * positions, texture coordinates, normals and face indices. See
+ * <code>doc/vcap.md</code> for the layout.
+ * </p>
+ * <p>
+ * Group and material names are stored in a string table, and each face
+ * references the group set and material that was active when it was added, so
+ * face layers survive the round trip.
+ * </p>
+ */
+public class BinaryMeshEncoder implements MeshEncoder {
+
+    public static final byte[] MAGIC = { 'V', 'M', 'S', 'H' };
+    public static final int VERSION = 1;
+
+    public static final int FLAG_TEX_COORDS = 1;
+    public static final int FLAG_NORMALS = 2;
+
+    /**
+     * Written in place of a group set or material index when the face has none.
+     */
+    public static final int NONE_16 = 0xFFFF;
+
+    /**
+     * Written in place of a texcoord or normal index when the face has none.
+     */
+    public static final int NONE_32 = -1;
+
+    private static final int HEADER_SIZE = 4 + 2 + 2 + 4 * 5 + 2 * 2;
+
+    @Override
+    public String getId() {
+        return "vmesh";
+    }
+
+    @Override
+    public String getFileExtension() {
+        return "vmesh";
+    }
+
+    @Override
+    public boolean isBinary() {
+        return true;
+    }
+
+    @Override
+    public void encode(ReadableObj mesh, OutputStream out) throws IOException {
+        out.write(encode(mesh));
+    }
+
+    /**
+     * Encode a mesh into a byte array.
+     * @param mesh The mesh.
+     * @return The encoded mesh.
+     */
+    public byte[] encode(ReadableObj mesh) {
+        int numVertices = mesh.getNumVertices();
+        int numTexCoords = mesh.getNumTexCoords();
+        int numNormals = mesh.getNumNormals();
+        int numFaces = mesh.getNumFaces();
+
+        // Resolve which groups and material each face belongs to.
+        List<Set<String>> groupSets = new ArrayList<>();
+        Map<Set<String>, Integer> groupSetIndices = new HashMap<>();
+        List<String> materials = new ArrayList<>();
+        Map<String, Integer> materialIndices = new HashMap<>();
+
+        char[] faceGroupSets = new char[numFaces];
+        char[] faceMaterials = new char[numFaces];
+        int numIndices = 0;
+        int flags = 0;
+
+        int groupSet = NONE_16;
+        int material = NONE_16;
+        for (int i = 0; i < numFaces; i++) {
+            ObjFace face = mesh.getFace(i);
+
+            Set<String> groupNames = mesh.getActivatedGroupNames(face);
+            if (groupNames != null) {
+                groupSet = groupSetIndices.computeIfAbsent(groupNames, names -> {
+                    groupSets.add(names);
+                    return groupSets.size() - 1;
+                });
+            }
+            String materialName = mesh.getActivatedMaterialGroupName(face);
+            if (materialName != null) {
+                material = materialIndices.computeIfAbsent(materialName, name -> {
+                    materials.add(name);
+                    return materials.size() - 1;
+                });
+            }
+
+            if (face.getNumVertices() > 0xFF) {
+                throw new IllegalArgumentException("Faces may not have more than 255 vertices.");
+            }
+
+            faceGroupSets[i] = (char) groupSet;
+            faceMaterials[i] = (char) material;
+            numIndices += face.getNumVertices();
+
+            if (face.containsTexCoordIndices()) flags |= FLAG_TEX_COORDS;
+            if (face.containsNormalIndices()) flags |= FLAG_NORMALS;
+        }
+
+        if (groupSets.size() >= NONE_16 || materials.size() >= NONE_16) {
+            throw new IllegalArgumentException("Mesh has too many groups or materials to encode.");
+        }
+
+        // String table
+        List<byte[]> groupNameBytes = new ArrayList<>();
+        int stringsSize = 0;
+        for (Set<String> names : groupSets) {
+            stringsSize += 2;
+            for (String name : names) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                groupNameBytes.add(bytes);
+                stringsSize += 2 + bytes.length;
+            }
+        }
+        List<byte[]> materialBytes = new ArrayList<>(materials.size());
+        for (String name : materials) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            materialBytes.add(bytes);
+            stringsSize += 2 + bytes.length;
+        }
+
+        int numIndexBuffers = 1 + ((flags & FLAG_TEX_COORDS) != 0 ? 1 : 0) + ((flags & FLAG_NORMALS) != 0 ? 1 : 0);
+        int size = HEADER_SIZE + stringsSize
+                + (numVertices * 3 + numTexCoords * 2 + numNormals * 3) * 4
+                + numFaces * (1 + 2 + 2)
+                + numIndices * 4 * numIndexBuffers;
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+
+        // Header
+        buffer.put(MAGIC);
+        buffer.putShort((short) VERSION);
+        buffer.putShort((short) flags);
+        buffer.putInt(numVertices);
+        buffer.putInt(numTexCoords);
+        buffer.putInt(numNormals);
+        buffer.putInt(numFaces);
+        buffer.putInt(numIndices);
+        buffer.putShort((short) groupSets.size());
+        buffer.putShort((short) materials.size());
+
+        // Strings
+        int nameIndex = 0;
+        for (Set<String> names : groupSets) {
+            buffer.putShort((short) names.size());
+            for (int i = 0; i < names.size(); i++) {
+                putString(buffer, groupNameBytes.get(nameIndex++));
+            }
+        }
+        for (byte[] name : materialBytes) {
+            putString(buffer, name);
+        }
+
+        // Vertex data
+        for (int i = 0; i < numVertices; i++) {
+            putTuple(buffer, mesh.getVertex(i), 3);
+        }
+        for (int i = 0; i < numTexCoords; i++) {
+            putTuple(buffer, mesh.getTexCoord(i), 2);
+        }
+        for (int i = 0; i < numNormals; i++) {
+            putTuple(buffer, mesh.getNormal(i), 3);
+        }
+
+        // Faces
+        for (int i = 0; i < numFaces; i++) {
+            buffer.put((byte) mesh.getFace(i).getNumVertices());
+        }
+        for (char index : faceGroupSets) {
+            buffer.putChar(index);
+        }
+        for (char index : faceMaterials) {
+            buffer.putChar(index);
+        }
+
+        for (int i = 0; i < numFaces; i++) {
+            ObjFace face = mesh.getFace(i);
+            for (int v = 0; v < face.getNumVertices(); v++) {
+                buffer.putInt(face.getVertexIndex(v));
+            }
+        }
+        if ((flags & FLAG_TEX_COORDS) != 0) {
+            for (int i = 0; i < numFaces; i++) {
+                ObjFace face = mesh.getFace(i);
+                boolean hasTexCoords = face.containsTexCoordIndices();
+                for (int v = 0; v < face.getNumVertices(); v++) {
+                    buffer.putInt(hasTexCoords ? face.getTexCoordIndex(v) : NONE_32);
+                }
+            }
+        }
+        if ((flags & FLAG_NORMALS) != 0) {
+            for (int i = 0; i < numFaces; i++) {
+                ObjFace face = mesh.getFace(i);
+                boolean hasNormals = face.containsNormalIndices();
+                for (int v = 0; v < face.getNumVertices(); v++) {
+                    buffer.putInt(hasNormals ? face.getNormalIndex(v) : NONE_32);
+                }
+            }
+        }
+
+        return buffer.array();
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static void putTuple(ByteBuffer buffer, FloatTuple tuple, int dimensions) {
+        for (int i = 0; i < dimensions; i++) {
+            buffer.putFloat(i < tuple.getDimensions() ? tuple.get(i) : 0);
+        }
+    }
+
+    @Override
+    public Obj decode(InputStream in) throws IOException {
+        return decode(in.readAllBytes());
+    }
+
+    /**
+     * Decode a mesh from a byte array.
+     * @param data The encoded mesh.
+     * @return The decoded mesh.
+     * @throws IOException If the data is malformed.
+     */
+    public Obj decode(byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            return decode(buffer);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated or malformed binary mesh.", e);
+        }
+    }
+
+    private Obj decode(ByteBuffer buffer) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a binary mesh.");
+        }
+        int version = buffer.getChar();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary mesh version: " + version);
+        }
+        int flags = buffer.getChar();
+        int numVertices = buffer.getInt();
+        int numTexCoords = buffer.getInt();
+        int numNormals = buffer.getInt();
+        int numFaces = buffer.getInt();
+        int numIndices = buffer.getInt();
+        int numGroupSets = buffer.getChar();
+        int numMaterials = buffer.getChar();
+
+        List<Set<String>> groupSets = new ArrayList<>(numGroupSets);
+        for (int i = 0; i < numGroupSets; i++) {
+            int count = buffer.getChar();
+            Set<String> names = new LinkedHashSet<>();
+            for (int n = 0; n < count; n++) {
+                names.add(getString(buffer));
+            }
+            groupSets.add(names);
+        }
+        List<String> materials = new ArrayList<>(numMaterials);
+        for (int i = 0; i < numMaterials; i++) {
+            materials.add(getString(buffer));
+        }
+
+        Obj obj = Objs.create();
+        for (int i = 0; i < numVertices; i++) {
+            obj.addVertex(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+        }
+        for (int i = 0; i < numTexCoords; i++) {
+            obj.addTexCoord(buffer.getFloat(), buffer.getFloat());
+        }
+        for (int i = 0; i < numNormals; i++) {
+            obj.addNormal(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+        }
+
+        int[] faceSizes = new int[numFaces];
+        for (int i = 0; i < numFaces; i++) {
+            faceSizes[i] = Byte.toUnsignedInt(buffer.get());
+        }
+        int[] faceGroupSets = new int[numFaces];
+        for (int i = 0; i < numFaces; i++) {
+            faceGroupSets[i] = buffer.getChar();
+        }
+        int[] faceMaterials = new int[numFaces];
+        for (int i = 0; i < numFaces; i++) {
+            faceMaterials[i] = buffer.getChar();
+        }
+
+        int vertexStart = buffer.position();
+        int texCoordStart = vertexStart + numIndices * 4;
+        int normalStart = texCoordStart + ((flags & FLAG_TEX_COORDS) != 0 ? numIndices * 4 : 0);
+
+        int index = 0;
+        int groupSet = NONE_16;
+        int material = NONE_16;
+        for (int i = 0; i < numFaces; i++) {
+            int len = faceSizes[i];
+            int[] v = new int[len];
+            int[] vt = (flags & FLAG_TEX_COORDS) != 0 ? new int[len] : null;
+            int[] vn = (flags & FLAG_NORMALS) != 0 ? new int[len] : null;
+
+            for (int n = 0; n < len; n++) {
+                v[n] = buffer.getInt(vertexStart + (index + n) * 4);
+                if (vt != null) vt[n] = buffer.getInt(texCoordStart + (index + n) * 4);
+                if (vn != null) vn[n] = buffer.getInt(normalStart + (index + n) * 4);
+            }
+            index += len;
+
+            if (vt != null && vt[0] == NONE_32) vt = null;
+            if (vn != null && vn[0] == NONE_32) vn = null;
+
+            if (faceGroupSets[i] != groupSet) {
+                groupSet = faceGroupSets[i];
+                if (groupSet != NONE_16) obj.setActiveGroupNames(groupSets.get(groupSet));
+            }
+            if (faceMaterials[i] != material) {
+                material = faceMaterials[i];
+                if (material != NONE_16) obj.setActiveMaterialGroupName(materials.get(material));
+            }
+
+            obj.addFace(v, vt, vn);
+        }
+
+        return obj;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getChar()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,51 @@
+package org.scaffoldeditor.worldexport.mesh;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import de.javagl.obj.Obj;
+import de.javagl.obj.ReadableObj;
+
+/**
+ * Converts meshes to and from a file format. Encoders are looked up by ID in
+ * {@link MeshEncoders}, and the ID is recorded in exported files so importers
+ * know how to read their meshes.
+ */
+public interface MeshEncoder {
+
+    /**
+     * Get the identifier of this encoding as written to exported files.
+     * @return Encoding ID.
+     */
+    public String getId();
+
+    /**
+     * Get the file extension used by meshes in this encoding.
+     * @return File extension, without the leading period.
+     */
+    public String getFileExtension();
+
+    /**
+     * Whether this encoding produces binary data. Binary meshes that are
+     * embedded in text documents must be encoded further, e.g. with base64.
+     * @return If this is a binary encoding.
+     */
+    public boolean isBinary();
+
+    /**
+     * Encode a mesh.
+     * @param mesh The mesh.
+     * @param out  Output stream to write to. Not closed by this method.
+     * @throws IOException If an IO exception occurs.
+     */
+    public void encode(ReadableObj mesh, OutputStream out) throws IOException;
+
+    /**
+     * Decode a mesh that was written by this encoder.
+     * @param in Input stream to read from. Not closed by this method.
+     * @return The decoded mesh.
+     * @throws IOException If an IO exception occurs or the data is malformed.
+     */
+    public Obj decode(InputStream in) throws IOException;
+}
@@ -0,0 +1,66 @@
+package org.scaffoldeditor.worldexport.mesh;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * The registry of available mesh encoders.
+ */
+public final class MeshEncoders {
+    private MeshEncoders() {}
+
+    private static final Map<String, MeshEncoder> REGISTRY = new HashMap<>();
+
+    /**
+     * Text OBJ with 6 decimal places of precision.
+     */
+    public static final ObjMeshEncoder OBJ = register(new ObjMeshEncoder(6));
+
+    /**
+     * Little-endian binary meshes.
+     */
+    public static final BinaryMeshEncoder BINARY = register(new BinaryMeshEncoder());
+
+    /**
+     * Register a mesh encoder, replacing any existing encoder with the same ID.
+     * @param <T>     Encoder type.
+     * @param encoder The encoder.
+     * @return <code>encoder</code>
+     */
+    public static synchronized <T extends MeshEncoder> T register(T encoder) {
+        REGISTRY.put(encoder.getId(), encoder);
+        return encoder;
+    }
+
+    /**
+     * Get a mesh encoder by its ID.
+     * @param id Encoding ID.
+     * @return The encoder, or <code>null</code> if none is registered.
+     */
+    @Nullable
+    public static synchronized MeshEncoder get(String id) {
+        return REGISTRY.get(id);
+    }
+
+    /**
+     * Get a mesh encoder by its ID, falling back to {@link #OBJ} if it isn't
+     * registered.
+     * @param id Encoding ID. May be <code>null</code>.
+     * @return The encoder.
+     */
+    public static MeshEncoder getOrDefault(@Nullable String id) {
+        MeshEncoder encoder = id != null ? get(id) : null;
+        return encoder != null ? encoder : OBJ;
+    }
+
+    /**
+     * Get all registered mesh encoders.
+     * @return An unmodifiable copy of the registry.
+     */
+    public static synchronized Map<String, MeshEncoder> getAll() {
+        return Collections.unmodifiableMap(new HashMap<>(REGISTRY));
+    }
+}
@@ -0,0 +1,213 @@
+package org.scaffoldeditor.worldexport.mesh;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+
+import de.javagl.obj.FloatTuple;
+import de.javagl.obj.Obj;
+import de.javagl.obj.ObjFace;
+import de.javagl.obj.ObjReader;
+import de.javagl.obj.ReadableObj;
+
+/**
+ * Writes meshes as Wavefront OBJ text. Produces the same structure as
+ * {@link de.javagl.obj.ObjWriter}, but formats floats to a fixed number of
+ * decimal places and buffers output in large chunks.
+ */
+public class ObjMeshEncoder implements MeshEncoder {
+
+    private static final int MAX_PRECISION = 9;
+    private static final int FLUSH_THRESHOLD = 8192;
+
+    private final int precision;
+    private final long scale;
+
+    /**
+     * Create an OBJ encoder.
+     * @param precision The number of decimal places to write. Trailing zeros are
+     *                  omitted. If negative, floats are written with full
+     *                  precision.
+     */
+    public ObjMeshEncoder(int precision) {
+        if (precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("Precision may not be more than " + MAX_PRECISION);
+        }
+        this.precision = precision;
+        this.scale = pow10(Math.max(precision, 0));
+    }
+
+    /**
+     * Get the number of decimal places this encoder writes.
+     * @return Precision, or <code>-1</code> for full precision.
+     */
+    public int getPrecision() {
+        return precision < 0 ? -1 : precision;
+    }
+
+    @Override
+    public String getId() {
+        return "obj";
+    }
+
+    @Override
+    public String getFileExtension() {
+        return "obj";
+    }
+
+    @Override
+    public boolean isBinary() {
+        return false;
+    }
+
+    @Override
+    public void encode(ReadableObj mesh, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), FLUSH_THRESHOLD * 2);
+        encode(mesh, writer);
+        writer.flush();
+    }
+
+    /**
+     * Encode a mesh as text.
+     * @param mesh   The mesh.
+     * @param writer Writer to write to. Not flushed or closed by this method.
+     * @throws IOException If an IO exception occurs.
+     */
+    public void encode(ReadableObj mesh, Writer writer) throws IOException {
+        StringBuilder sb = new StringBuilder(FLUSH_THRESHOLD + 256);
+
+        List<String> mtlFileNames = mesh.getMtlFileNames();
+        if (!mtlFileNames.isEmpty()) {
+            sb.append("mtllib");
+            for (String name : mtlFileNames) {
+                sb.append(' ').append(name);
+            }
+            sb.append('\n');
+        }
+
+        for (int i = 0; i < mesh.getNumVertices(); i++) {
+            appendTuple(sb.append('v'), mesh.getVertex(i));
+            if (sb.length() > FLUSH_THRESHOLD) flush(sb, writer);
+        }
+
+        for (int i = 0; i < mesh.getNumTexCoords(); i++) {
+            appendTuple(sb.append("vt"), mesh.getTexCoord(i));
+            if (sb.length() > FLUSH_THRESHOLD) flush(sb, writer);
+        }
+
+        for (int i = 0; i < mesh.getNumNormals(); i++) {
+            appendTuple(sb.append("vn"), mesh.getNormal(i));
+            if (sb.length() > FLUSH_THRESHOLD) flush(sb, writer);
+        }
+
+        for (int i = 0; i < mesh.getNumFaces(); i++) {
+            ObjFace face = mesh.getFace(i);
+
+            Set<String> groupNames = mesh.getActivatedGroupNames(face);
+            if (groupNames != null) {
+                sb.append('g');
+                for (String name : groupNames) {
+                    sb.append(' ').append(name);
+                }
+                sb.append('\n');
+            }
+
+            String materialName = mesh.getActivatedMaterialGroupName(face);
+            if (materialName != null) {
+                sb.append("usemtl ").append(materialName).append('\n');
+            }
+
+            appendFace(sb, face);
+            if (sb.length() > FLUSH_THRESHOLD) flush(sb, writer);
+        }
+
+        flush(sb, writer);
+    }
+
+    private static void flush(StringBuilder sb, Writer writer) throws IOException {
+        writer.append(sb);
+        sb.setLength(0);
+    }
+
+    private void appendTuple(StringBuilder sb, FloatTuple tuple) {
+        for (int i = 0; i < tuple.getDimensions(); i++) {
+            sb.append(' ');
+            appendFloat(sb, tuple.get(i));
+        }
+        sb.append('\n');
+    }
+
+    private static void appendFace(StringBuilder sb, ObjFace face) {
+        boolean texCoords = face.containsTexCoordIndices();
+        boolean normals = face.containsNormalIndices();
+
+        sb.append('f');
+        for (int i = 0; i < face.getNumVertices(); i++) {
+            sb.append(' ').append(face.getVertexIndex(i) + 1);
+            if (texCoords || normals) {
+                sb.append('/');
+                if (texCoords) sb.append(face.getTexCoordIndex(i) + 1);
+                if (normals) sb.append('/').append(face.getNormalIndex(i) + 1);
+            }
+        }
+        sb.append('\n');
+    }
+
+    /**
+     * Append a float, rounded to this encoder's precision.
+     * @param sb    String builder to append to.
+     * @param value Value to append.
+     */
+    void appendFloat(StringBuilder sb, float value) {
+        if (precision < 0 || !Float.isFinite(value) || Math.abs(value) >= Long.MAX_VALUE / scale) {
+            sb.append(value);
+            return;
+        }
+
+        long scaled = Math.round((double) value * scale);
+        if (scaled == 0) {
+            sb.append('0');
+            return;
+        }
+        if (scaled < 0) {
+            sb.append('-');
+            scaled = -scaled;
+        }
+
+        sb.append(scaled / scale);
+        long fraction = scaled % scale;
+        if (fraction == 0) return;
+
+        int digits = precision;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            digits--;
+        }
+
+        sb.append('.');
+        // Leading zeros
+        for (long place = pow10(digits - 1); place > fraction; place /= 10) {
+            sb.append('0');
+        }
+        sb.append(fraction);
+    }
+
+    private static long pow10(int exponent) {
+        long value = 1;
+        for (int i = 0; i < exponent; i++) {
+            value *= 10;
+        }
+        return value;
+    }
+
+    @Override
+    public Obj decode(InputStream in) throws IOException {
+        return ObjReader.read(in);
+    }
+}
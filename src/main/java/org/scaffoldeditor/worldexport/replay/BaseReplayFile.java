@@ -22,6 +22,8 @@ import org.scaffoldeditor.worldexport.mat.TextureSerializer;
 import org.scaffoldeditor.worldexport.Constants;
 import org.scaffoldeditor.worldexport.mat.Field;
 import org.scaffoldeditor.worldexport.mat.Field.FieldType;
+import org.scaffoldeditor.worldexport.mesh.MeshEncoder;
+import org.scaffoldeditor.worldexport.mesh.MeshEncoders;
 import org.scaffoldeditor.worldexport.replaymod.util.ExportPhase;
 import org.scaffoldeditor.worldexport.util.ZipEntryOutputStream;
 
@@ -87,10 +89,11 @@ public abstract class BaseReplayFile<T extends BaseReplayEntity> {
         out.closeEntry();        
 
         phaseConsumer.accept(ExportPhase.ENTITIES);
+        MeshEncoder meshEncoder = MeshEncoders.getOrDefault(meta.meshEncoding);
         for (T ent : getEntities()) {
             preserializeEntity(ent);
             out.putNextEntry(new ZipEntry("entities/"+ent.getName()+".xml"));
-            ReplayIO.serializeEntity(ent, new OutputStreamWriter(out));
+            ReplayIO.serializeEntity(ent, new OutputStreamWriter(out), meshEncoder);
             out.closeEntry();
         }
 
@@ -10,6 +10,8 @@ import java.util.Map;
 import org.joml.Quaterniond;
 import org.joml.Quaterniondc;
 import org.scaffoldeditor.worldexport.mat.MaterialConsumer;
+import org.scaffoldeditor.worldexport.mesh.MeshEncoder;
+import org.scaffoldeditor.worldexport.mesh.MeshEncoders;
 import org.scaffoldeditor.worldexport.replay.model_adapters.ReplayModelAdapter;
 import org.scaffoldeditor.worldexport.replay.model_adapters.ReplayModelAdapter.ModelNotFoundException;
 import org.scaffoldeditor.worldexport.replay.models.OverrideChannel;
@@ -190,6 +192,17 @@ public class ReplayEntity<T extends Entity> implements BaseReplayEntity {
      * @return The root <entity> tag of the XML.
      */
     public static Element writeToXML(BaseReplayEntity entity, Document doc) {
+        return writeToXML(entity, doc, MeshEncoders.OBJ);
+    }
+
+    /**
+     * Save a replay entity out to XML.
+     * @param entity      Entity to save.
+     * @param doc         XML document.
+     * @param meshEncoder The encoder to write the entity's meshes with.
+     * @return The root <entity> tag of the XML.
+     */
+    public static Element writeToXML(BaseReplayEntity entity, Document doc, MeshEncoder meshEncoder) {
         Element node = doc.createElement("entity");
         node.setAttribute("name", entity.getName());
         if (entity.getMinecraftID() != null) {
@@ -198,7 +211,7 @@ public class ReplayEntity<T extends Entity> implements BaseReplayEntity {
 
         ReplayModel<?> model = entity.getModel();
 
-        Element modelNode = model.serialize(doc);
+        Element modelNode = model.serialize(doc, meshEncoder);
         node.appendChild(modelNode);
 
         Element animNode = doc.createElement("anim");
@@ -11,6 +11,8 @@ import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
+import org.scaffoldeditor.worldexport.mesh.MeshEncoder;
+import org.scaffoldeditor.worldexport.mesh.MeshEncoders;
 import org.w3c.dom.Document;
 
 public final class ReplayIO {
@@ -22,6 +24,16 @@ public final class ReplayIO {
      * @param target Writer to write the XML into.
      */
     public static void serializeEntity(BaseReplayEntity entity, Writer target) {
+        serializeEntity(entity, target, MeshEncoders.OBJ);
+    }
+
+    /**
+     * Serialize a replay entity into XML.
+     * @param entity      Entity to serialize.
+     * @param target      Writer to write the XML into.
+     * @param meshEncoder The encoder to write the entity's meshes with.
+     */
+    public static void serializeEntity(BaseReplayEntity entity, Writer target, MeshEncoder meshEncoder) {
         DocumentBuilderFactory dFactory = DocumentBuilderFactory.newInstance();
         DocumentBuilder dBuilder;
         try {
@@ -31,7 +43,7 @@ public final class ReplayIO {
         }
 
         Document doc = dBuilder.newDocument();
-        doc.appendChild(ReplayEntity.writeToXML(entity, doc));
+        doc.appendChild(ReplayEntity.writeToXML(entity, doc, meshEncoder));
 
         try {
             TransformerFactory tFactory = TransformerFactory.newInstance();
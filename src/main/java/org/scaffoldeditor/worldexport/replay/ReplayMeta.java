@@ -24,12 +24,19 @@ public class ReplayMeta {
         this.version = other.version;
         this.encoder = other.encoder;
         this.offset = new Vector3i(other.offset);
+        this.meshEncoding = other.meshEncoding;
     }
 
     public String version = Constants.REPLAY_FORMAT_VERSION;
     public String encoder = "Igriums Replay Exporter " + ReplayExportMod.getInstance().getModVersion();
     public Vector3ic offset = new Vector3i();
 
+    /**
+     * The encoding of the meshes in entity files.
+     * @see org.scaffoldeditor.worldexport.mesh.MeshEncoder
+     */
+    public String meshEncoding = "obj";
+
     public static String toJson(ReplayMeta meta) {
         return GSON.toJson(meta);
     }
@@ -1,8 +1,5 @@
 package org.scaffoldeditor.worldexport.replay.models;
 
-import java.io.IOException;
-import java.io.StringWriter;
-import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -10,12 +7,13 @@ import org.joml.Quaterniond;
 import org.joml.Quaterniondc;
 import org.joml.Vector3d;
 import org.joml.Vector3dc;
+import org.scaffoldeditor.worldexport.mesh.MeshEncoder;
+import org.scaffoldeditor.worldexport.mesh.MeshEncoders;
 import org.scaffoldeditor.worldexport.util.TreeIterator;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 import de.javagl.obj.Obj;
-import de.javagl.obj.ObjWriter;
 import de.javagl.obj.Objs;
 
 /**
@@ -62,21 +60,17 @@ public class ArmatureReplayModel implements ReplayModel<Bone> {
     }
 
     public Element serialize(Document dom) {
+        return serialize(dom, MeshEncoders.OBJ);
+    }
+
+    @Override
+    public Element serialize(Document dom, MeshEncoder meshEncoder) {
         Element element = dom.createElement("model");
         element.setAttribute("rig-type", "armature");
         for (Bone bone : this.bones) {
             element.appendChild(serializeBone(bone, dom));
         }
-        Writer writer = new StringWriter();
-        try {
-            ObjWriter.write(this.mesh, writer);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-
-        Element meshNode = dom.createElement("mesh");
-        meshNode.appendChild(dom.createTextNode(writer.toString()));
-        element.appendChild(meshNode);
+        element.appendChild(ReplayModelPart.serializeMesh(dom, this.mesh, meshEncoder));
         for (OverrideChannel channel : overrideChannels) {
             element.appendChild(channel.serialize(dom));
         }
@@ -5,6 +5,8 @@ import java.util.List;
 
 import javax.management.modelmbean.XMLParseException;
 
+import org.scaffoldeditor.worldexport.mesh.MeshEncoder;
+import org.scaffoldeditor.worldexport.mesh.MeshEncoders;
 import org.scaffoldeditor.worldexport.util.TreeIterator;
 import org.scaffoldeditor.worldexport.util.XMLUtils;
 import org.scaffoldeditor.worldexport.util.XMLUtils.JavaNodeList;
@@ -44,10 +46,15 @@ public class MultipartReplayModel implements ReplayModel<ReplayModelPart> {
 
     @Override
     public Element serialize(Document dom) {
+        return serialize(dom, MeshEncoders.OBJ);
+    }
+
+    @Override
+    public Element serialize(Document dom, MeshEncoder meshEncoder) {
         Element element = dom.createElement("model");
         element.setAttribute("rig-type", "multipart");
         for (ReplayModelPart bone : bones) {
-            element.appendChild(bone.serialize(dom));
+            element.appendChild(bone.serialize(dom, meshEncoder));
         }
         for (OverrideChannel channel : overrideChannels) {
             element.appendChild(channel.serialize(dom));
@@ -3,6 +3,7 @@ package org.scaffoldeditor.worldexport.replay.models;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.scaffoldeditor.worldexport.mesh.MeshEncoder;
 import org.scaffoldeditor.worldexport.replay.models.OverrideChannel.OverrideChannelFrame;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -82,6 +83,17 @@ public interface ReplayModel<T> {
      */
     public Element serialize(Document dom);
 
+    /**
+     * Save this model into XML.
+     * @param dom         Document to write into.
+     * @param meshEncoder The encoder to write the model's meshes with. Models
+     *                    that don't support alternate encodings may ignore this.
+     * @return The <code>&lt;model&gt;</code> element of the entity file.
+     */
+    public default Element serialize(Document dom, MeshEncoder meshEncoder) {
+        return serialize(dom);
+    }
+
     /**
      * Determine whether this model type allows the toggling of visibility of bones.
      * @return Can visibility be keyframed?
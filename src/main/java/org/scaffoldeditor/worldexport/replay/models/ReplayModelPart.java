@@ -1,16 +1,23 @@
 package org.scaffoldeditor.worldexport.replay.models;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
-import java.io.Writer;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Iterator;
 import java.util.List;
 
 import javax.management.modelmbean.XMLParseException;
 
 import org.apache.logging.log4j.LogManager;
+import org.scaffoldeditor.worldexport.mesh.MeshEncoder;
+import org.scaffoldeditor.worldexport.mesh.MeshEncoders;
+import org.scaffoldeditor.worldexport.mesh.ObjMeshEncoder;
 import org.scaffoldeditor.worldexport.util.TreeNode;
 import org.scaffoldeditor.worldexport.util.XMLUtils;
 import org.w3c.dom.Document;
@@ -18,8 +25,8 @@ import org.w3c.dom.Element;
 
 import de.javagl.obj.Obj;
 import de.javagl.obj.ObjReader;
-import de.javagl.obj.ObjWriter;
 import de.javagl.obj.Objs;
+import de.javagl.obj.ReadableObj;
 
 public class ReplayModelPart implements TreeNode<ReplayModelPart> {
     public final List<ReplayModelPart> children = new ArrayList<>();
@@ -57,22 +64,15 @@ public class ReplayModelPart implements TreeNode<ReplayModelPart> {
     }
 
     public Element serialize(Document dom) {
-        Element element = dom.createElement("part");
-
-        // Write mesh
-        Writer writer = new StringWriter();
-        try {
-            ObjWriter.write(mesh, writer);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return serialize(dom, MeshEncoders.OBJ);
+    }
 
-        Element meshNode = dom.createElement("mesh");
-        meshNode.appendChild(dom.createTextNode(writer.toString()));
-        element.appendChild(meshNode);
+    public Element serialize(Document dom, MeshEncoder meshEncoder) {
+        Element element = dom.createElement("part");
+        element.appendChild(serializeMesh(dom, mesh, meshEncoder));
 
         for (ReplayModelPart child : children) {
-            element.appendChild(child.serialize(dom));
+            element.appendChild(child.serialize(dom, meshEncoder));
         }
 
         element.setAttribute("name", getName());
@@ -85,6 +85,61 @@ public class ReplayModelPart implements TreeNode<ReplayModelPart> {
         return name;
     }
 
+    /**
+     * Write a mesh into a <code>&lt;mesh&gt;</code> element. Binary encodings are
+     * stored as base64.
+     * @param dom     Document to write into.
+     * @param mesh    The mesh.
+     * @param encoder The encoder to use.
+     * @return The mesh element.
+     */
+    static Element serializeMesh(Document dom, ReadableObj mesh, MeshEncoder encoder) {
+        String text;
+        try {
+            if (encoder instanceof ObjMeshEncoder objEncoder) {
+                StringWriter writer = new StringWriter();
+                objEncoder.encode(mesh, writer);
+                text = writer.toString();
+            } else {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                encoder.encode(mesh, buffer);
+                text = encoder.isBinary()
+                        ? Base64.getEncoder().encodeToString(buffer.toByteArray())
+                        : buffer.toString(StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        Element meshNode = dom.createElement("mesh");
+        meshNode.setAttribute("encoding", encoder.getId());
+        meshNode.appendChild(dom.createTextNode(text));
+        return meshNode;
+    }
+
+    /**
+     * Read a mesh from a <code>&lt;mesh&gt;</code> element.
+     * @param meshNode The mesh element.
+     * @return The mesh.
+     * @throws IOException If the mesh is malformed or its encoding is unknown.
+     */
+    static Obj parseMesh(Element meshNode) throws IOException {
+        String encoding = meshNode.getAttribute("encoding");
+        String text = meshNode.getTextContent();
+        if (encoding.isEmpty() || encoding.equals(MeshEncoders.OBJ.getId())) {
+            return ObjReader.read(new StringReader(text));
+        }
+
+        MeshEncoder encoder = MeshEncoders.get(encoding);
+        if (encoder == null) {
+            throw new IOException("Unknown mesh encoding: " + encoding);
+        }
+        byte[] data = encoder.isBinary()
+                ? Base64.getMimeDecoder().decode(text)
+                : text.getBytes(StandardCharsets.UTF_8);
+        return encoder.decode(new ByteArrayInputStream(data));
+    }
+
     public static ReplayModelPart parse(Element xml) throws XMLParseException {
         String name = xml.getAttribute("name");
         if (name.length() == 0) {
@@ -93,11 +148,10 @@ public class ReplayModelPart implements TreeNode<ReplayModelPart> {
         ReplayModelPart part = new ReplayModelPart(name);
         List<Element> mesh = XMLUtils.getChildrenByTagName(xml, "mesh");
         if (mesh.size() == 1) {
-            String objString = mesh.get(0).getTextContent();
             try {
-                part.mesh = ObjReader.read(new StringReader(objString));
+                part.mesh = parseMesh(mesh.get(0));
             } catch (IOException e) {
-                throw new XMLParseException(e, "Improperly formatted OBJ in part "+name);
+                throw new XMLParseException(e, "Improperly formatted mesh in part "+name);
             }
         } else {
             LogManager.getLogger().error("Model part {} has {} meshes!", name, mesh.size());
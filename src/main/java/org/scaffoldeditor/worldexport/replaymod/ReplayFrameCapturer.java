@@ -29,18 +29,26 @@ import org.apache.logging.log4j.LogManager;
 import org.joml.Vector3i;
 import org.scaffoldeditor.worldexport.ClientBlockPlaceCallback;
 import org.scaffoldeditor.worldexport.ReplayExportMod;
+import org.scaffoldeditor.worldexport.mesh.MeshEncoder;
+import org.scaffoldeditor.worldexport.mesh.MeshEncoders;
 import org.scaffoldeditor.worldexport.replay.ReplayEntity;
 import org.scaffoldeditor.worldexport.replay.ReplayFile;
 import org.scaffoldeditor.worldexport.replay.model_adapters.ReplayModelAdapter.ModelNotFoundException;
 import org.scaffoldeditor.worldexport.replaymod.export.ReplayExportSettings;
 import org.scaffoldeditor.worldexport.vcap.IFrame;
 import org.scaffoldeditor.worldexport.vcap.BlockExporter.CaptureCallback;
+import org.scaffoldeditor.worldexport.world_snapshot.BlockUpdateLog;
+import org.scaffoldeditor.worldexport.world_snapshot.ChunkView;
+import org.scaffoldeditor.worldexport.world_snapshot.LoggedWorldView;
+import org.scaffoldeditor.worldexport.world_snapshot.WorldSnapshotManager;
 
+import net.minecraft.block.Block;
 import net.minecraft.block.BlockState;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.entity.Entity;
 import net.minecraft.entity.EntityType;
 import net.minecraft.util.Util;
+import net.minecraft.util.math.BlockBox;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
 
@@ -53,12 +61,34 @@ public class ReplayFrameCapturer implements FrameCapturer<BitmapFrame> {
     protected ReplayExportSettings settings;
     protected ReplayFile exporter;
 
-    protected Map<BlockPos, BlockState> blockUpdateCache = new HashMap<>();
+    /**
+     * Block updates since setup. P-frames are built from this on the world
+     * capture service rather than during the frame loop.
+     */
+    protected BlockUpdateLog blockUpdateLog = new BlockUpdateLog();
     protected Map<Entity, ReplayEntity<?>> entityCache = new HashMap<>();
     protected Set<Entity> skippedEnts = new HashSet<>();
 
     protected CompletableFuture<IFrame> initialWorldCapture;
 
+    /**
+     * Completes once every queued P-frame has been built.
+     */
+    protected CompletableFuture<Void> pendingPFrames;
+
+    /**
+     * The world as of the last frame that P-frames have been built for. Only
+     * accessed from the world capture service.
+     */
+    private volatile LoggedWorldView loggedWorld;
+    /**
+     * The thread behind {@link #worldCaptureService}.
+     */
+    @Nullable
+    private volatile Thread captureThread;
+    private int logCursor;
+    private int queuedLogSize;
+
     private float tickDelta = 0;
     private MinecraftClient client = MinecraftClient.getInstance();
 
@@ -78,7 +108,7 @@ public class ReplayFrameCapturer implements FrameCapturer<BitmapFrame> {
 
         @Override
         public void place(BlockPos pos, @Nullable BlockState oldState, BlockState state, World world) {
-            blockUpdateCache.put(pos, state);
+            blockUpdateLog.add(pos.asLong(), Block.getRawIdFromState(state), framesDone);
         }
         
     };
@@ -101,6 +131,7 @@ public class ReplayFrameCapturer implements FrameCapturer<BitmapFrame> {
             worldCaptureService = Executors.newSingleThreadExecutor(r -> {
                 Thread thread = new Thread(r, "Replay Exporter");
                 // thread.setPriority(Thread.MAX_PRIORITY);
+                captureThread = thread;
                 return thread;
             });
         }
@@ -124,13 +155,34 @@ public class ReplayFrameCapturer implements FrameCapturer<BitmapFrame> {
             exporter.meta.offset = new Vector3i(-centerBlock.getX(), -centerBlock.getY(), -centerBlock.getZ());
         }
         
+        MeshEncoder meshEncoder = MeshEncoders.getOrDefault(settings.getMeshEncoding());
+        exporter.meta.meshEncoding = meshEncoder.getId();
+
         exporter.setFps(fps);
         exporter.getWorldExporter()
                 .getSettings()
-                .setFluidMode(settings.getFluidMode());
+                .setFluidMode(settings.getFluidMode())
+                .setKeyframeInterval(settings.getKeyframeInterval())
+                .setKeyframeThreshold(settings.getKeyframeThreshold())
+                .setMeshEncoder(meshEncoder)
+                .setLodCenter(new BlockPos(-exporter.meta.offset.x(), -exporter.meta.offset.y(),
+                        -exporter.meta.offset.z()))
+                .setLodRings(settings.getLodRings());
+
+        // Taken at the same moment as the initial capture, so the log picks up where it leaves off.
+        blockUpdateLog = new BlockUpdateLog();
+        logCursor = 0;
+        queuedLogSize = 0;
+        // The snapshot lives for the whole export, so chunks may unload and reload under it.
+        loggedWorld = new LoggedWorldView(WorldSnapshotManager.getInstance()
+                .snapshot(new ChunkView.Wrapper(client.world, false), settings.getBounds()));
 
         initialWorldCapture = exporter.getWorldExporter().captureIFrameAsync(0, Util.getMainWorkerExecutor(), callback);
-        ReplayExportMod.getInstance().onBlockUpdated(blockUpdateListener);
+        pendingPFrames = initialWorldCapture.thenAccept(frame -> {});
+        // P-frames check the neighbors of each update, which may be just outside the bounds.
+        BlockBox bounds = settings.getBounds();
+        ReplayExportMod.getInstance().getBlockUpdateDispatcher().register(null,
+                bounds != null ? WorldSnapshotManager.pad(bounds) : null, blockUpdateListener);
         return initialWorldCapture;
     }
 
@@ -147,12 +199,7 @@ public class ReplayFrameCapturer implements FrameCapturer<BitmapFrame> {
             setup(null);
         }
 
-        double time = framesDone / (double) fps;
-        if (blockUpdateCache.size() > 0) {
-            exporter.getWorldExporter().capturePFrame(time, blockUpdateCache.keySet(), client.world);
-            blockUpdateCache.clear();
-        }
-
+        queuePFrames();
         client.world.getEntities().forEach(this::captureEntity);
 
         // Bogus frame to satisfy encoder.
@@ -169,16 +216,65 @@ public class ReplayFrameCapturer implements FrameCapturer<BitmapFrame> {
         }
         renderInfo.updateForNextFrame();
 
-        double time = framesDone / (double) fps;
-        if (!blockUpdateCache.isEmpty()) {
-            exporter.getWorldExporter().capturePFrame(time, blockUpdateCache.keySet(), client.world);
-            blockUpdateCache.clear();
-        }
+        queuePFrames();
         // TODO: Don't export camera.
         client.world.getEntities().forEach(this::captureEntity);
         framesDone++;
     }
 
+    /**
+     * Get the number of frames that block updates are merged across.
+     */
+    protected int getCoalesceFrames() {
+        return Math.max(1, settings.getCoalesceFrames());
+    }
+
+    /**
+     * Queue P-frames to be built from the block updates logged so far. Must be
+     * called before the frame counter advances. Updates are only queued at the
+     * end of a coalescing window, so each window is built in one go.
+     */
+    protected void queuePFrames() {
+        if ((framesDone + 1) % getCoalesceFrames() != 0) return;
+        flushPFrames();
+    }
+
+    /**
+     * Queue P-frames to be built from every block update logged so far,
+     * regardless of the coalescing window.
+     */
+    protected void flushPFrames() {
+        int end = blockUpdateLog.size();
+        if (end == queuedLogSize) return;
+        queuedLogSize = end;
+        pendingPFrames = pendingPFrames.thenRunAsync(() -> buildPFrames(end), worldCaptureService);
+    }
+
+    /**
+     * Replay the block update log up to a given entry, building a P-frame for
+     * each coalescing window in it. Updates within a window are merged per
+     * position, and the frame is stamped with the last frame that had an
+     * update.
+     * 
+     * @param end Index of the first entry not to replay.
+     */
+    private void buildPFrames(int end) {
+        LoggedWorldView loggedWorld = this.loggedWorld;
+        if (loggedWorld == null) return;
+        int window = getCoalesceFrames();
+        while (logCursor < end) {
+            int group = blockUpdateLog.getFrame(logCursor) / window;
+            int lastFrame = 0;
+            Set<BlockPos> updated = new HashSet<>();
+            while (logCursor < end && blockUpdateLog.getFrame(logCursor) / window == group) {
+                lastFrame = blockUpdateLog.getFrame(logCursor);
+                updated.add(loggedWorld.apply(blockUpdateLog.getPos(logCursor), blockUpdateLog.getStateId(logCursor)));
+                logCursor++;
+            }
+            exporter.getWorldExporter().capturePFrame(lastFrame / (double) fps, updated, loggedWorld);
+        }
+    }
+
     protected void captureEntity(Entity ent) {
         if (skippedEnts.contains(ent) || ent instanceof CameraEntity) {
             return;
@@ -215,6 +311,12 @@ public class ReplayFrameCapturer implements FrameCapturer<BitmapFrame> {
         ReplayExportMod.getInstance().removeOnBlockUpdated(blockUpdateListener);
         worldCaptureService.shutdown();
         worldCaptureService = null;
+
+        LoggedWorldView loggedWorld = this.loggedWorld;
+        if (loggedWorld != null) {
+            WorldSnapshotManager.getInstance().release(loggedWorld.getSnapshot());
+            this.loggedWorld = null;
+        }
     }
 
     /**
@@ -227,8 +329,17 @@ public class ReplayFrameCapturer implements FrameCapturer<BitmapFrame> {
 
         LogManager.getLogger().info("Saving replay file to "+target);
 
-        // Wait for initial world capture to finish.
+        // Wait for initial world capture and any queued P-frames to finish.
         initialWorldCapture.join();
+        if (Thread.currentThread() == captureThread) {
+            // Stages queued behind this one can't run until it returns, so
+            // replay the rest of the log here. They'll find nothing left to do.
+            queuedLogSize = blockUpdateLog.size();
+            buildPFrames(queuedLogSize);
+        } else {
+            flushPFrames();
+            pendingPFrames.join();
+        }
         
         FileOutputStream out = new FileOutputStream(target);
         exporter.save(out, phaseConsumer);
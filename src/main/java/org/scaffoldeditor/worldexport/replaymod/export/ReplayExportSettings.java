@@ -39,6 +39,16 @@ public final class ReplayExportSettings {
     @JsonAdapter(FileSerializer.class)
     private File outputFile = new File("output.replay");
 
+    private double keyframeInterval = 0;
+
+    private double keyframeThreshold = 0;
+
+    private int coalesceFrames = 1;
+
+    private String meshEncoding = "obj";
+
+    private int[] lodRings = new int[0];
+
     public BlockBox getBounds() {
         return bounds;
     }
@@ -66,6 +76,77 @@ public final class ReplayExportSettings {
         return this;
     }
 
+    /**
+     * Get the maximum time between intracoded world frames.
+     * @return Keyframe interval in seconds. <code>0</code> if disabled.
+     */
+    public double getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    public ReplayExportSettings setKeyframeInterval(double keyframeInterval) {
+        this.keyframeInterval = keyframeInterval;
+        return this;
+    }
+
+    /**
+     * Get the fraction of the world that may change before a new intracoded
+     * world frame is captured.
+     * @return Keyframe threshold. <code>0</code> if disabled.
+     */
+    public double getKeyframeThreshold() {
+        return keyframeThreshold;
+    }
+
+    public ReplayExportSettings setKeyframeThreshold(double keyframeThreshold) {
+        this.keyframeThreshold = keyframeThreshold;
+        return this;
+    }
+
+    /**
+     * Get the number of frames that block updates are merged across. Each
+     * window of this many frames produces at most one predicted world frame.
+     * @return Window size in frames. <code>1</code> captures every frame.
+     */
+    public int getCoalesceFrames() {
+        return coalesceFrames;
+    }
+
+    public ReplayExportSettings setCoalesceFrames(int coalesceFrames) {
+        this.coalesceFrames = coalesceFrames;
+        return this;
+    }
+
+    /**
+     * Get the encoding used for meshes in the exported file.
+     * @return Mesh encoding ID.
+     * @see org.scaffoldeditor.worldexport.mesh.MeshEncoders
+     */
+    public String getMeshEncoding() {
+        return meshEncoding;
+    }
+
+    public ReplayExportSettings setMeshEncoding(String meshEncoding) {
+        this.meshEncoding = meshEncoding;
+        return this;
+    }
+
+    /**
+     * Get the distances from the export center at which sections drop to a
+     * lower level of detail.
+     * @return Ring radii in blocks. Empty if every section is exported at full
+     *         detail.
+     * @see org.scaffoldeditor.worldexport.vcap.VcapSettings#setLodRings(int...)
+     */
+    public int[] getLodRings() {
+        return lodRings;
+    }
+
+    public ReplayExportSettings setLodRings(int... lodRings) {
+        this.lodRings = lodRings;
+        return this;
+    }
+
     private static class FileSerializer extends TypeAdapter<File> {
 
         @Override
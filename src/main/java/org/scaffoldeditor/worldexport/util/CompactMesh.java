@@ -0,0 +1,427 @@
+package org.scaffoldeditor.worldexport.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import de.javagl.obj.FloatTuple;
+import de.javagl.obj.FloatTuples;
+import de.javagl.obj.ObjFace;
+import de.javagl.obj.ObjGroup;
+import de.javagl.obj.ReadableObj;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+/**
+ * <p>
+ * A mesh that stores its data in primitive arrays rather than as individual
+ * objects. Implements {@link ReadableObj} so it can be used anywhere an OBJ can
+ * be read, such as {@link de.javagl.obj.ObjWriter}. The objects returned by the
+ * <code>ReadableObj</code> methods are created on demand, so callers that care
+ * about allocation should use the primitive accessors instead.
+ * </p>
+ * <p>
+ * The writing methods mirror those of {@link de.javagl.obj.WritableObj},
+ * including the way group and material activations are recorded. Not
+ * thread-safe.
+ * </p>
+ */
+public class CompactMesh implements ReadableObj {
+    private static final String DEFAULT_GROUP = "default";
+
+    private final FloatArrayList vertices = new FloatArrayList();
+    private final FloatArrayList texCoords = new FloatArrayList();
+    private final FloatArrayList normals = new FloatArrayList();
+
+    /**
+     * The index within the index lists where each face starts. Contains one
+     * extra entry marking the end of the last face.
+     */
+    private final IntArrayList faceOffsets = IntArrayList.wrap(new int[] { 0 });
+    private final IntArrayList vertexIndices = new IntArrayList();
+    /**
+     * Texcoord indices of each face vertex, or <code>-1</code> if the face has
+     * none.
+     */
+    private final IntArrayList texCoordIndices = new IntArrayList();
+    /**
+     * Normal indices of each face vertex, or <code>-1</code> if the face has
+     * none.
+     */
+    private final IntArrayList normalIndices = new IntArrayList();
+
+    /**
+     * Index into <code>groupSets</code> of the groups each face belongs to, or
+     * <code>-1</code> for the implicit default group.
+     */
+    private final IntArrayList faceGroupSets = new IntArrayList();
+    private final List<Set<String>> groupSets = new ArrayList<>();
+    private final Map<Set<String>, Integer> groupSetIndices = new HashMap<>();
+    private int activeGroupSet = -1;
+
+    /**
+     * Index into <code>materialNames</code> of each face's material group, or
+     * <code>-1</code> if it has none.
+     */
+    private final IntArrayList faceMaterials = new IntArrayList();
+    private final List<String> materialNames = new ArrayList<>();
+    private int activeMaterial = -1;
+
+    private List<String> mtlFileNames = Collections.emptyList();
+
+    // Built on demand.
+    @Nullable
+    private Map<String, CompactGroup> groups;
+    @Nullable
+    private Map<String, CompactGroup> materialGroups;
+
+    /* WRITING */
+
+    public void addVertex(float x, float y, float z) {
+        vertices.add(x);
+        vertices.add(y);
+        vertices.add(z);
+    }
+
+    public void addVertex(FloatTuple vertex) {
+        addVertex(vertex.getX(), vertex.getY(), vertex.getZ());
+    }
+
+    public void addTexCoord(float u, float v) {
+        texCoords.add(u);
+        texCoords.add(v);
+    }
+
+    public void addNormal(float x, float y, float z) {
+        normals.add(x);
+        normals.add(y);
+        normals.add(z);
+    }
+
+    /**
+     * Set the groups that subsequently-added faces belong to.
+     * @param groupNames Group names. If empty, the default group is used.
+     */
+    public void setActiveGroupNames(Collection<? extends String> groupNames) {
+        if (activeGroupSet >= 0) {
+            Set<String> active = groupSets.get(activeGroupSet);
+            if (active.size() == groupNames.size() && active.containsAll(groupNames)) return;
+        }
+
+        Set<String> names = groupNames.isEmpty()
+                ? Collections.singleton(DEFAULT_GROUP)
+                : Collections.unmodifiableSet(new LinkedHashSet<>(groupNames));
+
+        Integer index = groupSetIndices.get(names);
+        if (index == null) {
+            index = groupSets.size();
+            groupSets.add(names);
+            groupSetIndices.put(names, index);
+        }
+        activeGroupSet = index;
+    }
+
+    /**
+     * Set a single group that subsequently-added faces belong to.
+     * @param groupName Group name.
+     */
+    public void setActiveGroupName(String groupName) {
+        setActiveGroupNames(Collections.singleton(groupName));
+    }
+
+    /**
+     * Set the material group that subsequently-added faces belong to.
+     * @param name Material group name.
+     */
+    public void setActiveMaterialGroupName(String name) {
+        if (activeMaterial >= 0 && materialNames.get(activeMaterial).equals(name)) return;
+
+        int index = materialNames.indexOf(name);
+        if (index < 0) {
+            index = materialNames.size();
+            materialNames.add(name);
+        }
+        activeMaterial = index;
+    }
+
+    public void setMtlFileNames(Collection<? extends String> mtlFileNames) {
+        this.mtlFileNames = List.copyOf(mtlFileNames);
+    }
+
+    /**
+     * Add a face to the mesh. The index arrays are not retained, so they may be
+     * reused by the caller.
+     *
+     * @param v  The vertex indices.
+     * @param vt The texcoord indices. May be <code>null</code>.
+     * @param vn The normal indices. May be <code>null</code>.
+     */
+    public void addFace(int[] v, @Nullable int[] vt, @Nullable int[] vn) {
+        addFace(v, vt, vn, v.length);
+    }
+
+    /**
+     * Add a face to the mesh. The index arrays are not retained, so they may be
+     * reused by the caller.
+     *
+     * @param v      The vertex indices.
+     * @param vt     The texcoord indices. May be <code>null</code>.
+     * @param vn     The normal indices. May be <code>null</code>.
+     * @param length The number of vertices in the face.
+     */
+    public void addFace(int[] v, @Nullable int[] vt, @Nullable int[] vn, int length) {
+        for (int i = 0; i < length; i++) {
+            vertexIndices.add(v[i]);
+            texCoordIndices.add(vt != null ? vt[i] : -1);
+            normalIndices.add(vn != null ? vn[i] : -1);
+        }
+        faceOffsets.add(vertexIndices.size());
+        faceGroupSets.add(activeGroupSet);
+        faceMaterials.add(activeMaterial);
+
+        groups = null;
+        materialGroups = null;
+    }
+
+    /* PRIMITIVE ACCESS */
+
+    /**
+     * Get a single component of a vertex.
+     * @param index Vertex index.
+     * @param axis  <code>0</code> for X, <code>1</code> for Y, <code>2</code> for Z.
+     * @return The component.
+     */
+    public float getVertexComponent(int index, int axis) {
+        return vertices.getFloat(index * 3 + axis);
+    }
+
+    /**
+     * Copy this mesh's vertex positions into a new array of XYZ triplets.
+     * @return The vertex positions.
+     */
+    public float[] copyVertices() {
+        return vertices.toFloatArray();
+    }
+
+    /* READING */
+
+    @Override
+    public int getNumVertices() {
+        return vertices.size() / 3;
+    }
+
+    @Override
+    public FloatTuple getVertex(int index) {
+        int i = index * 3;
+        return FloatTuples.create(vertices.getFloat(i), vertices.getFloat(i + 1), vertices.getFloat(i + 2));
+    }
+
+    @Override
+    public int getNumTexCoords() {
+        return texCoords.size() / 2;
+    }
+
+    @Override
+    public FloatTuple getTexCoord(int index) {
+        int i = index * 2;
+        return FloatTuples.create(texCoords.getFloat(i), texCoords.getFloat(i + 1));
+    }
+
+    @Override
+    public int getNumNormals() {
+        return normals.size() / 3;
+    }
+
+    @Override
+    public FloatTuple getNormal(int index) {
+        int i = index * 3;
+        return FloatTuples.create(normals.getFloat(i), normals.getFloat(i + 1), normals.getFloat(i + 2));
+    }
+
+    @Override
+    public int getNumFaces() {
+        return faceGroupSets.size();
+    }
+
+    @Override
+    public ObjFace getFace(int index) {
+        if (index < 0 || index >= getNumFaces()) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return new CompactFace(index);
+    }
+
+    @Override
+    public Set<String> getActivatedGroupNames(ObjFace face) {
+        int index = faceIndex(face);
+        if (index < 0) return null;
+
+        int groupSet = faceGroupSets.getInt(index);
+        int previous = index > 0 ? faceGroupSets.getInt(index - 1) : -1;
+        return groupSet >= 0 && groupSet != previous ? groupSets.get(groupSet) : null;
+    }
+
+    @Override
+    public String getActivatedMaterialGroupName(ObjFace face) {
+        int index = faceIndex(face);
+        if (index < 0) return null;
+
+        int material = faceMaterials.getInt(index);
+        int previous = index > 0 ? faceMaterials.getInt(index - 1) : -1;
+        return material >= 0 && material != previous ? materialNames.get(material) : null;
+    }
+
+    private int faceIndex(ObjFace face) {
+        if (face instanceof CompactFace compactFace && compactFace.mesh() == this) {
+            return compactFace.index;
+        }
+        return -1;
+    }
+
+    @Override
+    public int getNumGroups() {
+        return getGroups().size();
+    }
+
+    @Override
+    public ObjGroup getGroup(int index) {
+        return new ArrayList<>(getGroups().values()).get(index);
+    }
+
+    @Override
+    public ObjGroup getGroup(String name) {
+        return getGroups().get(name);
+    }
+
+    @Override
+    public int getNumMaterialGroups() {
+        return getMaterialGroups().size();
+    }
+
+    @Override
+    public ObjGroup getMaterialGroup(int index) {
+        return new ArrayList<>(getMaterialGroups().values()).get(index);
+    }
+
+    @Override
+    public ObjGroup getMaterialGroup(String name) {
+        return getMaterialGroups().get(name);
+    }
+
+    @Override
+    public List<String> getMtlFileNames() {
+        return mtlFileNames;
+    }
+
+    private Map<String, CompactGroup> getGroups() {
+        if (groups == null) {
+            Map<String, CompactGroup> map = new LinkedHashMap<>();
+            for (int i = 0; i < getNumFaces(); i++) {
+                int groupSet = faceGroupSets.getInt(i);
+                Set<String> names = groupSet >= 0 ? groupSets.get(groupSet) : Collections.singleton(DEFAULT_GROUP);
+                for (String name : names) {
+                    map.computeIfAbsent(name, CompactGroup::new).faces.add(i);
+                }
+            }
+            groups = map;
+        }
+        return groups;
+    }
+
+    private Map<String, CompactGroup> getMaterialGroups() {
+        if (materialGroups == null) {
+            Map<String, CompactGroup> map = new LinkedHashMap<>();
+            for (int i = 0; i < getNumFaces(); i++) {
+                int material = faceMaterials.getInt(i);
+                if (material < 0) continue;
+                map.computeIfAbsent(materialNames.get(material), CompactGroup::new).faces.add(i);
+            }
+            materialGroups = map;
+        }
+        return materialGroups;
+    }
+
+    private class CompactFace implements ObjFace {
+        final int index;
+
+        CompactFace(int index) {
+            this.index = index;
+        }
+
+        CompactMesh mesh() {
+            return CompactMesh.this;
+        }
+
+        @Override
+        public int getNumVertices() {
+            return faceOffsets.getInt(index + 1) - faceOffsets.getInt(index);
+        }
+
+        @Override
+        public boolean containsTexCoordIndices() {
+            return texCoordIndices.getInt(faceOffsets.getInt(index)) >= 0;
+        }
+
+        @Override
+        public boolean containsNormalIndices() {
+            return normalIndices.getInt(faceOffsets.getInt(index)) >= 0;
+        }
+
+        @Override
+        public int getVertexIndex(int number) {
+            return vertexIndices.getInt(faceOffsets.getInt(index) + number);
+        }
+
+        @Override
+        public int getTexCoordIndex(int number) {
+            return texCoordIndices.getInt(faceOffsets.getInt(index) + number);
+        }
+
+        @Override
+        public int getNormalIndex(int number) {
+            return normalIndices.getInt(faceOffsets.getInt(index) + number);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof CompactFace other && other.mesh() == mesh() && other.index == index;
+        }
+
+        @Override
+        public int hashCode() {
+            return index;
+        }
+    }
+
+    private class CompactGroup implements ObjGroup {
+        final String name;
+        final IntArrayList faces = new IntArrayList();
+
+        CompactGroup(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public int getNumFaces() {
+            return faces.size();
+        }
+
+        @Override
+        public ObjFace getFace(int index) {
+            return new CompactFace(faces.getInt(index));
+        }
+    }
+}
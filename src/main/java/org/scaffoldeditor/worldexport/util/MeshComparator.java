@@ -1,18 +1,21 @@
 package org.scaffoldeditor.worldexport.util;
 
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.stream.IntStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 import de.javagl.obj.FloatTuple;
 import de.javagl.obj.ReadableObj;
+import it.unimi.dsi.fastutil.HashCommon;
 import it.unimi.dsi.fastutil.ints.IntArrays;
-import it.unimi.dsi.fastutil.ints.IntComparators;
 import net.minecraft.util.math.Vec3d;
 
 /**
- * Contains a set of functions allowing the comparison of meshes.
+ * Contains a set of functions allowing the comparison of meshes. Thread-safe;
+ * the sorted vertices of each mesh are cached in a bounded cache with weak
+ * keys, so meshes must not be modified after they've been compared.
  */
 public class MeshComparator {
     /**
@@ -42,20 +45,60 @@ public class MeshComparator {
      */
     public static final int LENIENT_FACE_MATCHING = 16;
 
-    private Map<ReadableObj, int[]> cache = new HashMap<>();
+    /**
+     * The default maximum number of mesh fingerprints to keep cached.
+     */
+    public static final long DEFAULT_CACHE_SIZE = 4096;
 
-    private Comparator<FloatTuple> comparator = new Comparator<FloatTuple>() {
+    /**
+     * A mesh's vertex positions, sorted into a canonical order, along with a
+     * hash of their exact values.
+     */
+    public static final class Fingerprint {
+        private final float[] vertices;
+        private final int[] order;
+        private final long hash;
 
-        @Override
-        public int compare(FloatTuple o1, FloatTuple o2) {
-            int x = Double.compare(o1.getX(), o2.getX());
-            if (x != 0) return x;
-            int y = Double.compare(o1.getY(), o2.getY());
-            if (y != 0) return y;
-            return Double.compare(o1.getZ(), o2.getZ());
+        private Fingerprint(float[] vertices, int[] order, long hash) {
+            this.vertices = vertices;
+            this.order = order;
+            this.hash = hash;
         }
-        
-    };
+
+        /**
+         * Get the number of vertices in the mesh.
+         * @return Vertex count.
+         */
+        public int getNumVertices() {
+            return order.length;
+        }
+
+        /**
+         * Get a hash of the mesh's sorted vertex positions. Meshes with identical
+         * vertex positions have identical hashes, regardless of vertex order.
+         * @return The hash.
+         */
+        public long getHash() {
+            return hash;
+        }
+    }
+
+    private final Cache<ReadableObj, Fingerprint> cache;
+
+    /**
+     * Create a mesh comparator.
+     * @param maxCacheSize The maximum number of mesh fingerprints to cache.
+     */
+    public MeshComparator(long maxCacheSize) {
+        cache = CacheBuilder.newBuilder()
+                .weakKeys()
+                .maximumSize(maxCacheSize)
+                .build();
+    }
+
+    public MeshComparator() {
+        this(DEFAULT_CACHE_SIZE);
+    }
 
     /**
      * Determine if one mesh "equals" another mesh.
@@ -101,58 +144,164 @@ public class MeshComparator {
             if (mesh1.getNumMaterialGroups() != mesh2.getNumMaterialGroups()) return false;
         }
 
-        boolean compareGroups = (flags & COMPARE_MATERIALS) == COMPARE_MATERIALS;
+        boolean compareGroups = (flags & COMPARE_GROUPS) == COMPARE_GROUPS;
         if (compareGroups) {
             if (mesh1.getNumGroups() != mesh2.getNumGroups()) return false;
         }
 
-        boolean noSort = (flags & NO_SORT) == NO_SORT;
-        
-        int[] indices1;
-        int[] indices2;
+        boolean compareUVs = (flags & COMPARE_UVS) == COMPARE_UVS;
 
-        if (!noSort) {
-            indices1 = getSortedIndices(mesh1);
-            indices2 = getSortedIndices(mesh2);
-        } else {
-            // To satisfy the compiler.
-            indices1 = indices2 = new int[0];
+        if ((flags & NO_SORT) == NO_SORT) {
+            for (int i = 0; i < mesh1.getNumVertices(); i++) {
+                if (!floatTupleEquals(mesh1.getVertex(i), mesh2.getVertex(i), epsilon, offset)) return false;
+    
+                if (compareUVs) {
+                    if (!mesh1.getTexCoord(i).equals(mesh2.getTexCoord(i))) return false;
+                }
+            }
+            return true;
         }
 
-        for (int i = 0; i < mesh1.getNumVertices(); i++) {
-            int index1;
-            int index2;
+        Fingerprint fingerprint1 = getFingerprint(mesh1);
+        Fingerprint fingerprint2 = getFingerprint(mesh2);
 
-            if (noSort) {
-                index1 = index2 = i;
-            } else {
-                index1 = indices1[i];
-                index2 = indices2[i];
-            }
+        // The hash only describes exact positions.
+        if (epsilon == 0 && Vec3d.ZERO.equals(offset) && fingerprint1.hash != fingerprint2.hash) {
+            return false;
+        }
 
-            if (!floatTupleEquals(mesh1.getVertex(index1), mesh2.getVertex(index2), epsilon, offset)) return false;
+        float[] vertices1 = fingerprint1.vertices;
+        float[] vertices2 = fingerprint2.vertices;
 
-            if ((flags & COMPARE_UVS) == COMPARE_UVS) {
-                if (!mesh1.getTexCoord(index1).equals(mesh2.getTexCoord(index2))) return false;
+        for (int i = 0; i < vertices1.length; i += 3) {
+            if (Math.abs(vertices1[i] + offset.x - vertices2[i]) > epsilon
+                    || Math.abs(vertices1[i + 1] + offset.y - vertices2[i + 1]) > epsilon
+                    || Math.abs(vertices1[i + 2] + offset.z - vertices2[i + 2]) > epsilon) {
+                return false;
+            }
+        }
+
+        if (compareUVs) {
+            int[] order1 = fingerprint1.order;
+            int[] order2 = fingerprint2.order;
+            for (int i = 0; i < order1.length; i++) {
+                if (!mesh1.getTexCoord(order1[i]).equals(mesh2.getTexCoord(order2[i]))) return false;
             }
         }
 
         return true;
     }
 
+    /**
+     * Get the fingerprint of a mesh, computing it if it isn't cached. The mesh
+     * must not be modified after this is called, as the fingerprint is cached
+     * against it.
+     * 
+     * @param mesh The mesh.
+     * @return The fingerprint.
+     */
+    public Fingerprint getFingerprint(ReadableObj mesh) {
+        try {
+            return cache.get(mesh, () -> computeFingerprint(mesh));
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static Fingerprint computeFingerprint(ReadableObj mesh) {
+        int numVertices = mesh.getNumVertices();
+        float[] raw = readVertices(mesh);
+
+        int[] order = new int[numVertices];
+        for (int i = 0; i < numVertices; i++) {
+            order[i] = i;
+        }
+        IntArrays.quickSort(order, (a, b) -> {
+            int x = Float.compare(raw[a * 3], raw[b * 3]);
+            if (x != 0) return x;
+            int y = Float.compare(raw[a * 3 + 1], raw[b * 3 + 1]);
+            if (y != 0) return y;
+            return Float.compare(raw[a * 3 + 2], raw[b * 3 + 2]);
+        });
+
+        float[] sorted = new float[raw.length];
+        long hash = numVertices;
+        for (int i = 0; i < numVertices; i++) {
+            int index = order[i] * 3;
+            for (int axis = 0; axis < 3; axis++) {
+                float value = raw[index + axis];
+                sorted[i * 3 + axis] = value;
+                hash = HashCommon.mix(hash * 31 + Float.floatToIntBits(value));
+            }
+        }
+
+        return new Fingerprint(sorted, order, hash);
+    }
+
+    /**
+     * Read a mesh's vertex positions into a flat array of XYZ triplets. Negative
+     * zero is normalized to zero so it sorts and hashes the same.
+     */
+    private static float[] readVertices(ReadableObj mesh) {
+        if (mesh instanceof CompactMesh compact) {
+            float[] vertices = compact.copyVertices();
+            for (int i = 0; i < vertices.length; i++) {
+                vertices[i] += 0f;
+            }
+            return vertices;
+        }
+
+        int numVertices = mesh.getNumVertices();
+        float[] vertices = new float[numVertices * 3];
+        for (int i = 0; i < numVertices; i++) {
+            FloatTuple vertex = mesh.getVertex(i);
+            vertices[i * 3] = vertex.getX() + 0f;
+            vertices[i * 3 + 1] = vertex.getY() + 0f;
+            vertices[i * 3 + 2] = vertex.getZ() + 0f;
+        }
+        return vertices;
+    }
+
+    /**
+     * Compute a fingerprint of a mesh's geometry. Vertices are rounded to a grid
+     * of size <code>epsilon</code>, so meshes that {@link #meshEquals} considers
+     * equal will usually, but not always, share a fingerprint; two vertices on
+     * opposite sides of a grid line can round differently. Meshes with different
+     * fingerprints are never considered equal when the comparison doesn't use an
+     * offset.
+     * <p>
+     * Order independent, so it's suitable as a hash key for meshes whose vertex
+     * order isn't deterministic.
+     * 
+     * @param mesh    The mesh.
+     * @param epsilon Grid size to round vertices to. Must be greater than 0.
+     * @return The fingerprint.
+     */
+    public static long fingerprint(ReadableObj mesh, float epsilon) {
+        int numVertices = mesh.getNumVertices();
+        float[] raw = readVertices(mesh);
+        long[] vertices = new long[numVertices];
+        for (int i = 0; i < numVertices; i++) {
+            vertices[i] = quantize(raw[i * 3], epsilon) << 42
+                    | quantize(raw[i * 3 + 1], epsilon) << 21
+                    | quantize(raw[i * 3 + 2], epsilon);
+        }
+        Arrays.sort(vertices);
+
+        long hash = numVertices * 31L + mesh.getNumFaces();
+        for (long vertex : vertices) {
+            hash = HashCommon.mix(hash ^ vertex);
+        }
+        return hash;
+    }
+
+    private static long quantize(float value, float epsilon) {
+        return Math.round(value / epsilon) & 0x1FFFFF;
+    }
+
     private boolean floatTupleEquals(FloatTuple first, FloatTuple second, float epsilon, Vec3d offset) {
         return Math.abs(first.getX() + offset.x - second.getX()) <= epsilon
                 && Math.abs(first.getY() + offset.y - second.getY()) <= epsilon
                 && Math.abs(first.getZ() + offset.z - second.getZ()) <= epsilon;
     }
-
-    private int[] getSortedIndices(ReadableObj mesh) {
-        if (cache.containsKey(mesh)) return cache.get(mesh);
-
-        Comparator<Integer> indexComparator = Comparator.comparing(index -> mesh.getVertex(index), comparator);
-        int[] indices = IntStream.range(0, mesh.getNumVertices()).toArray();
-        IntArrays.quickSort(indices, IntComparators.asIntComparator(indexComparator));
-        cache.put(mesh, indices);
-        return indices;
-    }
 }
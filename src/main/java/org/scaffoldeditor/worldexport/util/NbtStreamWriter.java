@@ -0,0 +1,92 @@
+package org.scaffoldeditor.worldexport.util;
+
+import java.io.DataOutput;
+import java.io.IOException;
+
+import net.minecraft.nbt.NbtElement;
+
+/**
+ * Writes NBT data incrementally, so large compounds and lists can be streamed
+ * to an output without building the full element tree in memory. The output is
+ * identical to what {@link net.minecraft.nbt.NbtIo#write} would produce for the
+ * equivalent tree.
+ * <p>
+ * The caller is responsible for producing a well-formed structure: every
+ * compound must be closed with {@link #endCompound()}, and every list must be
+ * followed by exactly as many payloads as it declared.
+ */
+public class NbtStreamWriter {
+    private final DataOutput out;
+
+    public NbtStreamWriter(DataOutput out) {
+        this.out = out;
+    }
+
+    /**
+     * Get the underlying output. Use this to write list element payloads.
+     * @return The output.
+     */
+    public DataOutput getOutput() {
+        return out;
+    }
+
+    /**
+     * Begin the root compound of an NBT file.
+     * @return <code>this</code>
+     */
+    public NbtStreamWriter beginRoot() throws IOException {
+        out.writeByte(NbtElement.COMPOUND_TYPE);
+        out.writeUTF("");
+        return this;
+    }
+
+    /**
+     * Begin a compound entry within the current compound.
+     * @param name Entry name.
+     * @return <code>this</code>
+     */
+    public NbtStreamWriter beginCompound(String name) throws IOException {
+        out.writeByte(NbtElement.COMPOUND_TYPE);
+        out.writeUTF(name);
+        return this;
+    }
+
+    /**
+     * Begin a list entry within the current compound. The list's payloads must
+     * be written directly after this call.
+     *
+     * @param name        Entry name.
+     * @param elementType The NBT type of the list's elements.
+     * @param size        The number of elements that will be written.
+     * @return <code>this</code>
+     */
+    public NbtStreamWriter beginList(String name, byte elementType, int size) throws IOException {
+        out.writeByte(NbtElement.LIST_TYPE);
+        out.writeUTF(name);
+        out.writeByte(size > 0 ? elementType : NbtElement.END_TYPE);
+        out.writeInt(size);
+        return this;
+    }
+
+    /**
+     * Write a complete entry within the current compound.
+     * @param name    Entry name.
+     * @param element Entry value.
+     * @return <code>this</code>
+     */
+    public NbtStreamWriter put(String name, NbtElement element) throws IOException {
+        out.writeByte(element.getType());
+        out.writeUTF(name);
+        element.write(out);
+        return this;
+    }
+
+    /**
+     * Close the current compound.
+     * @return <code>this</code>
+     */
+    public NbtStreamWriter endCompound() throws IOException {
+        out.writeByte(NbtElement.END_TYPE);
+        return this;
+    }
+}
@@ -0,0 +1,158 @@
+package org.scaffoldeditor.worldexport.util;
+
+/**
+ * <p>
+ * A fixed-size array of unsigned integers packed into longs with a set number
+ * of bits per entry. As with Minecraft's <code>PackedIntegerArray</code>,
+ * entries never span two longs: each long holds <code>64 / bits</code>
+ * entries, starting from the least significant bit, and any leftover high
+ * bits are unused.
+ * </p>
+ * <p>
+ * Used for palette indices, where the number of bits is sized to the palette.
+ * </p>
+ */
+public class PackedIntArray {
+    public static final int MAX_BITS = 32;
+
+    private final long[] data;
+    private final int bits;
+    private final int size;
+    private final int entriesPerLong;
+    private final long mask;
+
+    /**
+     * Create an array filled with zeros.
+     * @param bits Bits per entry, from <code>1</code> to {@link #MAX_BITS}.
+     * @param size Number of entries.
+     */
+    public PackedIntArray(int bits, int size) {
+        this(bits, size, null);
+    }
+
+    /**
+     * Wrap existing packed data.
+     * @param bits Bits per entry, from <code>1</code> to {@link #MAX_BITS}.
+     * @param size Number of entries.
+     * @param data The packed data, or <code>null</code> to start with zeros.
+     *             Not copied.
+     * @throws IllegalArgumentException If the data is the wrong length for the
+     *                                  number of entries.
+     */
+    public PackedIntArray(int bits, int size, long[] data) {
+        if (bits < 1 || bits > MAX_BITS) {
+            throw new IllegalArgumentException("Bits per entry must be between 1 and " + MAX_BITS + ": " + bits);
+        }
+        this.bits = bits;
+        this.size = size;
+        this.entriesPerLong = 64 / bits;
+        this.mask = (1L << bits) - 1;
+
+        int length = getDataLength(bits, size);
+        if (data == null) {
+            data = new long[length];
+        } else if (data.length != length) {
+            throw new IllegalArgumentException(
+                    "Expected " + length + " longs for " + size + " entries at " + bits + " bits, got " + data.length);
+        }
+        this.data = data;
+    }
+
+    /**
+     * Get the number of bits needed to store indices into a palette.
+     * @param paletteSize Number of palette entries.
+     * @return Bits per entry. Always at least <code>1</code>.
+     */
+    public static int bitsFor(int paletteSize) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(paletteSize - 1));
+    }
+
+    /**
+     * Get the number of longs needed to store an array.
+     * @param bits Bits per entry.
+     * @param size Number of entries.
+     * @return Number of longs.
+     */
+    public static int getDataLength(int bits, int size) {
+        int entriesPerLong = 64 / bits;
+        return (size + entriesPerLong - 1) / entriesPerLong;
+    }
+
+    /**
+     * Pack an int array.
+     * @param values The values. Must all fit in the given number of bits.
+     * @param bits   Bits per entry.
+     * @return The packed array.
+     */
+    public static PackedIntArray of(int[] values, int bits) {
+        PackedIntArray array = new PackedIntArray(bits, values.length);
+        for (int i = 0; i < values.length; i++) {
+            array.set(i, values[i]);
+        }
+        return array;
+    }
+
+    public int get(int index) {
+        checkIndex(index);
+        int shift = (index % entriesPerLong) * bits;
+        return (int) (data[index / entriesPerLong] >>> shift & mask);
+    }
+
+    public void set(int index, int value) {
+        checkIndex(index);
+        if ((value & 0xFFFFFFFFL) > mask) {
+            throw new IllegalArgumentException("Value " + value + " doesn't fit in " + bits + " bits.");
+        }
+        int longIndex = index / entriesPerLong;
+        int shift = (index % entriesPerLong) * bits;
+        data[longIndex] = data[longIndex] & ~(mask << shift) | (value & mask) << shift;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+    }
+
+    public int getBits() {
+        return bits;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the packed data. Changes to the returned array are reflected in this
+     * one.
+     * @return The packed data.
+     */
+    public long[] getData() {
+        return data;
+    }
+
+    /**
+     * Copy this array with a different number of bits per entry.
+     * @param newBits The new bits per entry. Every value must fit.
+     * @return The new array.
+     */
+    public PackedIntArray resize(int newBits) {
+        PackedIntArray resized = new PackedIntArray(newBits, size);
+        for (int i = 0; i < size; i++) {
+            resized.set(i, get(i));
+        }
+        return resized;
+    }
+
+    /**
+     * Unpack this array.
+     * @return The values as an int array.
+     */
+    public int[] toIntArray() {
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = get(i);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,93 @@
+package org.scaffoldeditor.worldexport.util;
+
+import java.util.function.IntFunction;
+
+import javax.annotation.Nullable;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+/**
+ * A thread-safe map with primitive int keys. The key space is split across a
+ * number of independently-locked stripes, so threads only contend when they
+ * touch keys in the same stripe.
+ */
+public class StripedInt2ObjectMap<V> {
+    private final Int2ObjectMap<V>[] stripes;
+    private final int mask;
+
+    /**
+     * Create a striped map.
+     * @param concurrency The minimum number of stripes to use. Rounded up to a
+     *                    power of two.
+     */
+    @SuppressWarnings("unchecked")
+    public StripedInt2ObjectMap(int concurrency) {
+        int numStripes = HashCommon.nextPowerOfTwo(Math.max(concurrency, 1));
+        stripes = new Int2ObjectMap[numStripes];
+        for (int i = 0; i < numStripes; i++) {
+            stripes[i] = new Int2ObjectOpenHashMap<>();
+        }
+        mask = numStripes - 1;
+    }
+
+    /**
+     * Create a striped map with a stripe count based on the number of available
+     * processors.
+     */
+    public StripedInt2ObjectMap() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    private Int2ObjectMap<V> stripe(int key) {
+        return stripes[HashCommon.mix(key) & mask];
+    }
+
+    @Nullable
+    public V get(int key) {
+        Int2ObjectMap<V> stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    /**
+     * Get the value for a key, computing it if it's absent. The mapping function
+     * is called while holding the stripe's lock, so it will be called at most once
+     * per key. It must not access this map.
+     *
+     * @param key             The key.
+     * @param mappingFunction The function to compute the value with.
+     * @return The current (existing or computed) value.
+     */
+    public V computeIfAbsent(int key, IntFunction<? extends V> mappingFunction) {
+        Int2ObjectMap<V> stripe = stripe(key);
+        synchronized (stripe) {
+            V value = stripe.get(key);
+            if (value == null) {
+                value = mappingFunction.apply(key);
+                stripe.put(key, value);
+            }
+            return value;
+        }
+    }
+
+    public void clear() {
+        for (Int2ObjectMap<V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Int2ObjectMap<V> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+}
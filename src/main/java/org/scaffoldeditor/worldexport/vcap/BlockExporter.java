@@ -5,10 +5,13 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import javax.annotation.Nullable;
 
@@ -17,17 +20,29 @@ import org.apache.logging.log4j.Logger;
 import org.scaffoldeditor.worldexport.vcap.BlockModelEntry.Builder;
 import org.scaffoldeditor.worldexport.vcap.fluid.FluidBlockEntry;
 import org.scaffoldeditor.worldexport.vcap.fluid.FluidConsumer;
+import org.scaffoldeditor.worldexport.vcap.model.ModelProvider.ModelInfo;
 import org.scaffoldeditor.worldexport.world_snapshot.ChunkView;
+import org.scaffoldeditor.worldexport.world_snapshot.SectionView;
 import org.scaffoldeditor.worldexport.world_snapshot.WorldSnapshot;
 import org.scaffoldeditor.worldexport.world_snapshot.WorldSnapshotManager;
 
+import it.unimi.dsi.fastutil.bytes.ByteArrayList;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.minecraft.block.Block;
+import net.minecraft.block.BlockRenderType;
 import net.minecraft.block.BlockState;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.render.block.BlockRenderManager;
+import net.minecraft.client.render.model.BakedModel;
 import net.minecraft.fluid.FluidState;
 import net.minecraft.nbt.NbtByteArray;
 import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
 import net.minecraft.nbt.NbtIntArray;
 import net.minecraft.nbt.NbtIo;
 import net.minecraft.nbt.NbtList;
@@ -36,7 +51,12 @@ import net.minecraft.util.math.BlockBox;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.math.Direction;
+import net.minecraft.util.function.BooleanBiFunction;
+import net.minecraft.util.math.random.Random;
+import net.minecraft.util.shape.VoxelShape;
+import net.minecraft.util.shape.VoxelShapes;
 import net.minecraft.world.BlockRenderView;
+import net.minecraft.world.EmptyBlockView;
 
 public final class BlockExporter {
     private BlockExporter() {
@@ -57,6 +77,41 @@ public final class BlockExporter {
          */
         void onChunkCaptured(int chunkX, int chunkZ, int index, int numSections);
     }
+
+    /**
+     * Encodes captured sections. Before a section's merged mesh is built, the
+     * encoder gets a chance to reuse an existing encoding of an identical
+     * section, in which case the mesh is never built.
+     * 
+     * @param <T> The encoded section type.
+     */
+    public static interface SectionEncoder<T> {
+
+        /**
+         * Find an existing encoding of a section. The section's
+         * <code>mesh</code> tag hasn't been set yet.
+         * @param section Section NBT.
+         * @return The existing encoding, or <code>null</code> to build the
+         *         section's mesh and call {@link #encode}.
+         */
+        @Nullable
+        default T reuse(NbtCompound section) {
+            return null;
+        }
+
+        /**
+         * Encode a section.
+         * @param section Section NBT.
+         * @return The encoded section, or <code>null</code> to leave it out.
+         */
+        @Nullable
+        T encode(NbtCompound section);
+    }
+
+    /**
+     * A captured section whose merged mesh hasn't been built yet.
+     */
+    private static record CapturedSection(NbtCompound tag, @Nullable GreedyMesher mesher) {}
     
     static final MinecraftClient client = MinecraftClient.getInstance();
     /**
@@ -65,6 +120,15 @@ public final class BlockExporter {
     public static final int EMISSIVE_THRESHOLD = 4;
     
     private static final Logger LOGGER = LogManager.getLogger();
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+    private static final int ALL_FACES = (1 << DIRECTIONS.length) - 1;
+
+    /**
+     * Random used to query model quads. Minecraft's randoms aren't thread-safe,
+     * so each capture thread gets its own.
+     */
+    private static final ThreadLocal<Random> QUAD_RANDOM = ThreadLocal.withInitial(Random::create);
     
     public static void writeStill(ChunkView world, BlockBox bounds, ExportContext context,
             OutputStream os, @Nullable FluidConsumer fluidConsumer, @Nullable CaptureCallback callback) throws IOException {
@@ -113,18 +177,76 @@ public final class BlockExporter {
     public static CompletableFuture<NbtList> exportStillAsync(ChunkView world, BlockBox bounds,
             ExportContext context,
             @Nullable FluidConsumer fluidConsumer, @Nullable CaptureCallback callback, Executor executor) {
-        if (!(world instanceof WorldSnapshot)) {
-            world = WorldSnapshotManager.getInstance().snapshot(world);
+        return exportStillAsync(world, bounds, context, fluidConsumer, callback, executor, Function.identity())
+                .thenApply(sections -> {
+                    NbtList list = new NbtList();
+                    for (NbtCompound section : sections) {
+                        if (!isEmptySection(section)) list.add(SectionLayout.unpack(section));
+                    }
+                    return list;
+                });
+    }
+
+    /**
+     * Capture the entire block world, encoding each section as soon as it's
+     * been captured. This way, the caller never needs to hold every section's
+     * NBT tree in memory at once.
+     * 
+     * @param <T>           The encoded section type.
+     * @param world         World to capture.
+     * @param bounds        The region to export, in chunk section coordinates.
+     * @param context       The export context.
+     * @param fluidConsumer The fluid consumer to use. Must be thread-safe!
+     * @param callback      A capture callback to use. Must be thread-safe!.
+     * @param executor      The executor to export the chunks on.
+     * @param encoder       Encodes a captured section. Called on the executor.
+     *                      Must be thread-safe! Called for empty sections too;
+     *                      may return <code>null</code> to leave a section out.
+     * @return A list with all the encoded sections.
+     */
+    public static <T> CompletableFuture<List<T>> exportStillAsync(ChunkView world, BlockBox bounds,
+            ExportContext context,
+            @Nullable FluidConsumer fluidConsumer, @Nullable CaptureCallback callback, Executor executor,
+            Function<? super NbtCompound, ? extends T> encoder) {
+        return exportStillAsync(world, bounds, context, fluidConsumer, callback, executor,
+                (SectionEncoder<T>) encoder::apply);
+    }
+
+    /**
+     * Capture the entire block world, encoding each section as soon as it's
+     * been captured, and letting the encoder reuse existing encodings of
+     * unchanged sections.
+     * 
+     * @param <T>           The encoded section type.
+     * @param world         World to capture.
+     * @param bounds        The region to export, in chunk section coordinates.
+     * @param context       The export context.
+     * @param fluidConsumer The fluid consumer to use. Must be thread-safe!
+     * @param callback      A capture callback to use. Must be thread-safe!.
+     * @param executor      The executor to export the chunks on.
+     * @param encoder       Encodes a captured section. Called on the executor.
+     *                      Must be thread-safe! Called for empty sections too.
+     * @return A list with all the encoded sections.
+     */
+    public static <T> CompletableFuture<List<T>> exportStillAsync(ChunkView world, BlockBox bounds,
+            ExportContext context,
+            @Nullable FluidConsumer fluidConsumer, @Nullable CaptureCallback callback, Executor executor,
+            SectionEncoder<T> encoder) {
+        if (world.isStable()) {
+            return new StillExporterAsync<T>(world, bounds, context, fluidConsumer, callback, encoder)
+                    .exportStill(executor);
         }
-        
-        return new StillExporterAsync(world, bounds, context, fluidConsumer, callback)
-                .exportStill(executor);
+
+        WorldSnapshot snapshot = WorldSnapshotManager.getInstance().snapshot(world, bounds);
+        return new StillExporterAsync<T>(snapshot, bounds, context, fluidConsumer, callback, encoder)
+                .exportStill(executor)
+                .whenComplete((sections, e) -> WorldSnapshotManager.getInstance().release(snapshot));
     }
     
     /**
      * Some values change during async world export. This class handles those values across threads.
      */
-    private static class StillExporterAsync {
+    private static class StillExporterAsync<T> {
         final ChunkView world;
         final BlockBox bounds;
         final ExportContext context;
@@ -132,16 +254,20 @@ public final class BlockExporter {
         final FluidConsumer fluidConsumer;
         // @Nullable 
         final CaptureCallback callback;
+        final SectionEncoder<T> encoder;
 
         private int totalChunks;
         private final AtomicInteger chunksExported = new AtomicInteger();
 
-        public StillExporterAsync(ChunkView world, BlockBox bounds, ExportContext context, @Nullable FluidConsumer fluidConsumer, @Nullable CaptureCallback callback) {
+        public StillExporterAsync(ChunkView world, BlockBox bounds, ExportContext context,
+                @Nullable FluidConsumer fluidConsumer, @Nullable CaptureCallback callback,
+                SectionEncoder<T> encoder) {
             this.world = world;
             this.bounds = bounds;
             this.context = context;
             this.fluidConsumer = fluidConsumer;
             this.callback = callback;
+            this.encoder = encoder;
         }
 
         /**
@@ -152,7 +278,7 @@ public final class BlockExporter {
          * @param executor Executor to use.
          * @return
          */
-        public synchronized CompletableFuture<NbtList> exportStill(Executor executor) {
+        public synchronized CompletableFuture<List<T>> exportStill(Executor executor) {
 
             // Convert to chunk coordinates
             ChunkPos minChunk = new ChunkPos(bounds.getMinX(), bounds.getMinZ());
@@ -162,7 +288,7 @@ public final class BlockExporter {
             totalChunks = (maxChunk.x - minChunk.x + 1) * (maxChunk.z - minChunk.z + 1);
             chunksExported.set(0);
 
-            List<CompletableFuture<? extends Collection<NbtCompound>>> futures = new ArrayList<>();
+            List<CompletableFuture<? extends Collection<T>>> futures = new ArrayList<>();
             for (int x = minChunk.x; x <= maxChunk.x; x++) {
                 for (int z = minChunk.z; z <= maxChunk.z; z++) {
                     if (!world.isChunkLoaded(x, z)) continue;
@@ -171,23 +297,23 @@ public final class BlockExporter {
             }
 
             return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).thenApply(v -> {
-                NbtList list = new NbtList();
+                List<T> list = new ArrayList<>();
                 futures.forEach(future -> {
-                    future.join().forEach(list::add);
+                    list.addAll(future.join());
                 });
 
                 return list;
             });
         }
 
-        private CompletableFuture<List<NbtCompound>> exportChunkAsync(int x, int z, Executor executor) {
+        private CompletableFuture<List<T>> exportChunkAsync(int x, int z, Executor executor) {
             return CompletableFuture.supplyAsync(() -> exportChunk(x, z), executor);
         }
 
-        private List<NbtCompound> exportChunk(int x, int z) {
+        private List<T> exportChunk(int x, int z) {
             LOGGER.debug("Exporting chunk [{}, {}]", x, z);
             if (!world.isChunkLoaded(x, z)) return Collections.emptyList();
-            List<NbtCompound> chunks = new ArrayList<>();
+            List<T> chunks = new ArrayList<>();
 
             // Convert to section coordinates
             int minHeight = bounds.getMinY();
@@ -197,7 +323,12 @@ public final class BlockExporter {
                 if (!world.isSectionLoaded(x, y, z)) continue;
                 if (y < minHeight || y > maxHeight) continue;
 
-                chunks.add(writeSection(world, x, y, z, context, fluidConsumer));
+                CapturedSection captured = writeSection(world, x, y, z, context, fluidConsumer);
+                T encoded = encoder.reuse(captured.tag());
+                if (encoded == null) {
+                    encoded = encoder.encode(finishSection(captured, context));
+                }
+                if (encoded != null) chunks.add(encoded);
             }
 
             int count = chunksExported.incrementAndGet();
@@ -219,22 +350,26 @@ public final class BlockExporter {
      */
     public static String exportBlock(BlockRenderView world, BlockPos pos, ExportContext context) {
         BlockState state = world.getBlockState(pos);
-        String id;
-
-        BlockModelEntry.Builder builder = prepareEntry(state);
+        FaceCullCache cullCache = FaceCullCache.get();
 
+        int faces = 0;
         BlockPos.Mutable mutable = pos.mutableCopy();
-        for (Direction direction : Direction.values()) {
+        for (Direction direction : DIRECTIONS) {
             mutable.set(pos, direction);
-            builder.face(direction, Block.shouldDrawSide(state, world, pos, direction, mutable));
+            BlockState neighbor = world.getBlockState(mutable);
+            if (cullCache.shouldDrawSide(state, neighbor, world, pos, direction, mutable)) {
+                faces |= 1 << direction.getId();
+            }
         }
 
-        id = context.addBlock(builder.build());
-
-        return id;
+        // Match writeSection so predicted frames compare equal to intracoded ones.
+        if (isInvisible(state, faces)) {
+            return MeshWriter.EMPTY_MESH;
+        }
+        return context.addBlock(prepareEntry(state).faces((byte) faces).build());
     }
 
-    private static NbtCompound writeSection(ChunkView world,
+    private static CapturedSection writeSection(ChunkView world,
             int sectionX, int sectionY, int sectionZ, ExportContext context, @Nullable FluidConsumer fluidConsumer) {
 
         LogManager.getLogger().debug("Exporting section [" + sectionX + ", " + sectionY + ", " + sectionZ + "]");
@@ -245,80 +380,142 @@ public final class BlockExporter {
         tag.putInt("z", sectionZ);
 
         List<String> palette = new ArrayList<>();
+        Object2IntMap<String> paletteIndices = new Object2IntOpenHashMap<>();
+        paletteIndices.defaultReturnValue(-1);
         int[] blocks = new int[16 * 16 * 16];
 
-        List<Byte> colorPalette = new ArrayList<>();
+        // Untinted blocks use index 0, which is only filled in once the section
+        // has a tinted block. Sections without any leave the palette empty.
+        ByteArrayList colorPalette = new ByteArrayList();
+        Int2IntMap colorIndices = new Int2IntOpenHashMap();
+        colorIndices.defaultReturnValue(-1);
         byte[] colors = new byte[16 * 16 * 16];
+        BlockTints tints = new BlockTints();
+
+        SectionView section = world.getSection(sectionX, sectionY, sectionZ);
+        // Load neighbors once so face culling doesn't need to go back to the world.
+        PaddedSection padded = new PaddedSection(world, section, sectionX, sectionY, sectionZ);
+        FaceCullCache cullCache = FaceCullCache.get();
+        boolean exportFluids = context.getSettings().exportStaticFluids() && fluidConsumer != null;
+
+        // Sections of nothing but air (or another invisible block) are common
+        // enough in the sky and underground to skip the per-block work.
+        BlockState uniform = getUniformState(padded);
+        if (uniform != null && (!exportFluids || uniform.getFluidState().isEmpty())
+                && isInvisible(uniform, ALL_FACES)) {
+            return new CapturedSection(writeEmptySection(tag), null);
+        }
+
+        // Model entries only depend on the block state and face visibility, so
+        // we only resolve them once per palette entry.
+        Map<BlockState, BlockModelEntry.Builder> entries = new IdentityHashMap<>();
+        Int2ObjectMap<String> modelIds = new Int2ObjectOpenHashMap<>();
+
+        // Distant sections are downsampled. Every block in a cell gets the
+        // cell's model so frame indexing keeps working per-block.
+        int lodLevel = context.getSettings().getLodLevel(sectionX, sectionY, sectionZ);
+        LodSection lod = lodLevel > 0 ? new LodSection(padded, lodLevel) : null;
+
+        // Full cubes are also merged into a single section mesh. They keep their
+        // per-block models for predicted frames and importers that don't
+        // support merged meshes.
+        GreedyMesher mesher = lod == null && context.getSettings().getMeshingMode() == VcapSettings.MeshingMode.GREEDY
+                ? new GreedyMesher()
+                : null;
+        byte[] merged = mesher != null ? new byte[16 * 16 * 16] : null;
+        boolean anyMerged = false;
+
+        BlockPos.Mutable worldPos = new BlockPos.Mutable();
+        BlockPos.Mutable neighbor = new BlockPos.Mutable();
 
         for (int y = 0; y < 16; y++) {
             for (int z = 0; z < 16; z++) {
                 for (int x = 0; x < 16; x++) {
-                    BlockPos worldPos = new BlockPos(sectionX * 16 + x, sectionY * 16 + y, sectionZ * 16 + z);
-                    BlockState state = world.getBlockState(worldPos);
+                    int blockIndex = (y * 16 + z) * 16 + x;
+                    BlockState state;
+
+                    if (lod == null) {
+                        worldPos.set(sectionX * 16 + x, sectionY * 16 + y, sectionZ * 16 + z);
+                        state = padded.get(x, y, z);
+                    } else if (lod.isCellOrigin(x, y, z)) {
+                        int cell = lod.cellIndex(x, y, z);
+                        state = lod.getState(cell);
+                        int source = lod.getSource(cell);
+                        worldPos.set(sectionX * 16 + (source & 15), sectionY * 16 + (source >> 8),
+                                sectionZ * 16 + (source >> 4 & 15));
+                    } else {
+                        int mask = ~(lod.cellSize - 1);
+                        int originIndex = ((y & mask) * 16 + (z & mask)) * 16 + (x & mask);
+                        blocks[blockIndex] = blocks[originIndex];
+                        colors[blockIndex] = colors[originIndex];
+                        continue;
+                    }
                     String id;
 
                     FluidState fluid = state.getFluidState();
-                    if (!fluid.isEmpty() && context.getSettings().exportStaticFluids() && fluidConsumer != null) {
-                        // genFluid(worldPos, world, context, fluidConsumer);
-
-                        // Optional<FluidDomain> thisDomain = fluidConsumer.fluidAt(worldPos);
-                        // if (!thisDomain.isPresent()) {
-                        //     throw new IllegalStateException("Block at "+worldPos+" is a fluid, but no fluid domain was generated!");
-                        // }
-
-                        // if (thisDomain.get().getRootPos().equals(worldPos)) {
-                        //     id = context.addFluid(thisDomain.get());
-                        // } else {
-                        //     id = MeshWriter.EMPTY_MESH;
-                        // }
-                        FluidBlockEntry fluidMesh = MeshWriter.writeFluidMesh(worldPos, world, state);
+                    if (exportFluids && !fluid.isEmpty()) {
+                        FluidBlockEntry fluidMesh = MeshWriter.writeFluidMesh(worldPos.toImmutable(), world, state);
                         id = context.addFluid(fluidMesh);
 
                     } else {
-                        BlockPos.Mutable mutable = worldPos.mutableCopy();
-                        BlockModelEntry.Builder builder = prepareEntry(state);
-
-                        for (Direction direction : Direction.values()) {
-                            mutable.set(worldPos, direction);
-                            builder.face(direction, Block.shouldDrawSide(state, world, worldPos, direction, mutable));
+                        int faces = 0;
+                        for (Direction direction : DIRECTIONS) {
+                            boolean draw;
+                            if (lod != null) {
+                                // The cell's neighbor isn't at the neighboring position in the
+                                // world, so it can't go through the world-based cull cache.
+                                draw = shouldDrawCellSide(state, lod.getNeighbor(padded, x, y, z, direction), direction);
+                            } else {
+                                neighbor.set(worldPos, direction);
+                                BlockState neighborState = padded.get(x + direction.getOffsetX(),
+                                        y + direction.getOffsetY(), z + direction.getOffsetZ());
+                                draw = cullCache.shouldDrawSide(state, neighborState, padded, worldPos, direction, neighbor);
+                            }
+                            if (draw) {
+                                faces |= 1 << direction.getId();
+                            }
                         }
 
-                        id = context.addBlock(builder.build());
-                    }
-                    
-                    int color = client.getBlockColors().getColor(state, world, worldPos, 0);
-
-                    byte r = (byte)(color >> 16 & 255);
-                    byte g = (byte)(color >> 8 & 255);
-                    byte b = (byte)(color & 255);
-
-                    // We don't want threads overwriting each other in the palette
-                    int index;
-                    int colorIndex = -1;
-                    synchronized(palette) {
-                        index = palette.indexOf(id);
-                        if (index < 0) {
-                            index = palette.size();
-                            palette.add(id);
+                        if (mesher != null && mesher.add(x, y, z, state, faces)) {
+                            merged[blockIndex] = 1;
+                            anyMerged = true;
                         }
 
-                        // Look for color in color palette
-                        for (int i = 0; i < colorPalette.size(); i += 3) {
-                            if (colorPalette.get(i).equals(r) && colorPalette.get(i + 1).equals(g) && colorPalette.get(i + 2).equals(b)) {
-                                colorIndex = i;
-                                break;
+                        int key = Block.getRawIdFromState(state) << 6 | faces;
+                        id = modelIds.get(key);
+                        if (id == null) {
+                            if (isInvisible(state, faces)) {
+                                // Nothing to draw, such as a block with every face culled.
+                                id = MeshWriter.EMPTY_MESH;
+                            } else {
+                                BlockModelEntry.Builder builder = entries.computeIfAbsent(state, BlockExporter::prepareEntry);
+                                id = context.addBlock(builder.faces((byte) faces).build());
                             }
+                            modelIds.put(key, id);
                         }
-                        if (colorIndex < 0) {
-                            colorIndex = colorPalette.size();
-                            colorPalette.add(r);
-                            colorPalette.add(g);
-                            colorPalette.add(b);
-                        }
                     }
 
-                    blocks[(y * 16 + z) * 16 + x] = index;
-                    colors[(y * 16 + z) * 16 + x] = (byte) colorIndex;
+                    int index = paletteIndices.getInt(id);
+                    if (index < 0) {
+                        index = palette.size();
+                        palette.add(id);
+                        paletteIndices.put(id, index);
+                    }
+                    blocks[blockIndex] = index;
+
+                    // Empty and untinted blocks keep color index 0.
+                    if (id.equals(MeshWriter.EMPTY_MESH) || !BlockTints.hasTint(state)) continue;
+
+                    if (colorPalette.isEmpty()) {
+                        addColor(colorPalette, colorIndices, BlockTints.UNTINTED);
+                    }
+                    int color = tints.getColor(state, world, worldPos);
+                    int colorIndex = colorIndices.get(color);
+                    if (colorIndex < 0) {
+                        colorIndex = addColor(colorPalette, colorIndices, color);
+                    }
+
+                    colors[blockIndex] = (byte) colorIndex;
                 };
             };
         };
@@ -326,15 +523,154 @@ public final class BlockExporter {
         for (String entry : palette) paletteTag.add(NbtString.of(entry));
         tag.put("palette", paletteTag);
 
-        NbtIntArray blockTag = new NbtIntArray(blocks);
-        tag.put("blocks", blockTag);
+        // Uniform arrays are left out here. Only the packed layout keeps them
+        // out; the int array layout fills them back in when it's written.
+        if (palette.size() > 1) {
+            NbtIntArray blockTag = new NbtIntArray(blocks);
+            tag.put("blocks", blockTag);
+        }
 
-        NbtByteArray colorPaletteTag = new NbtByteArray(colorPalette);
+        NbtByteArray colorPaletteTag = new NbtByteArray(colorPalette.toByteArray());
         tag.put("colorPalette", colorPaletteTag);
 
-        NbtByteArray colorsTag = new NbtByteArray(colors);
-        tag.put("colors", colorsTag);
+        if (colorPalette.size() > 3) {
+            NbtByteArray colorsTag = new NbtByteArray(colors);
+            tag.put("colors", colorsTag);
+        }
+
+        if (lod != null) {
+            tag.putByte("lod", (byte) lod.level);
+        }
+
+        if (mesher != null && anyMerged) {
+            tag.put("merged", new NbtByteArray(merged));
+            return new CapturedSection(tag, mesher);
+        }
+
+        return new CapturedSection(tag, null);
+    }
+
+    /**
+     * Build a captured section's merged mesh, if it has one, and add it to the
+     * vcap.
+     * @param captured The captured section.
+     * @param context  The export context.
+     * @return The section NBT, with its <code>mesh</code> tag set.
+     */
+    private static NbtCompound finishSection(CapturedSection captured, ExportContext context) {
+        NbtCompound tag = captured.tag();
+        if (captured.mesher() == null) return tag;
+
+        ModelInfo sectionMesh = captured.mesher().build();
+        if (sectionMesh != null) {
+            String meshId = context.addModel(
+                    "section." + tag.getInt("x") + "." + tag.getInt("y") + "." + tag.getInt("z"), sectionMesh);
+            tag.putString("mesh", meshId);
+        } else {
+            tag.remove("merged");
+        }
+        return tag;
+    }
+
+    /**
+     * Check whether a face of a downsampled cell should be drawn, using only the
+     * block states involved. Mirrors {@link Block#shouldDrawSide} without
+     * reading the world.
+     * @param state    The cell's block state.
+     * @param neighbor The state of the neighboring cell.
+     * @param side     The side of the cell to check.
+     * @return If the face should be drawn.
+     */
+    private static boolean shouldDrawCellSide(BlockState state, BlockState neighbor, Direction side) {
+        if (state.isSideInvisible(neighbor, side)) return false;
+        if (!neighbor.isOpaque()) return true;
+
+        VoxelShape shape = state.getCullingFace(EmptyBlockView.INSTANCE, BlockPos.ORIGIN, side);
+        if (shape.isEmpty()) return true;
+        VoxelShape neighborShape = neighbor.getCullingFace(EmptyBlockView.INSTANCE, BlockPos.ORIGIN, side.getOpposite());
+        return VoxelShapes.matchesAnywhere(shape, neighborShape, BooleanBiFunction.ONLY_FIRST);
+    }
+
+    /**
+     * Add a color to a section's color palette.
+     * @param colorPalette The color palette, as consecutive RGB bytes.
+     * @param colorIndices The index of each color already in the palette.
+     * @param color        The color, as <code>0xRRGGBB</code>.
+     * @return The color's index.
+     */
+    private static int addColor(ByteArrayList colorPalette, Int2IntMap colorIndices, int color) {
+        int index = colorPalette.size();
+        colorPalette.add((byte) (color >> 16 & 255));
+        colorPalette.add((byte) (color >> 8 & 255));
+        colorPalette.add((byte) (color & 255));
+        colorIndices.put(color, index);
+        return index;
+    }
 
+    /**
+     * Finish a section where every block is invisible.
+     * @param tag The section tag, with its coordinates already set.
+     * @return The section tag.
+     */
+    private static NbtCompound writeEmptySection(NbtCompound tag) {
+        NbtList paletteTag = new NbtList();
+        paletteTag.add(NbtString.of(MeshWriter.EMPTY_MESH));
+        tag.put("palette", paletteTag);
+        tag.put("colorPalette", new NbtByteArray(new byte[0]));
         return tag;
     }
+
+    /**
+     * Check if a captured section has nothing to draw. Such sections don't need
+     * to be saved.
+     * @param section Section NBT.
+     * @return If every block in the section is {@link MeshWriter#EMPTY_MESH}.
+     */
+    static boolean isEmptySection(NbtCompound section) {
+        if (section.contains("mesh")) return false;
+        NbtList palette = section.getList("palette", NbtElement.STRING_TYPE);
+        for (int i = 0; i < palette.size(); i++) {
+            if (!palette.getString(i).equals(MeshWriter.EMPTY_MESH)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the block state shared by every block in a section.
+     * @return The state, or <code>null</code> if the section has more than one.
+     */
+    @Nullable
+    private static BlockState getUniformState(PaddedSection padded) {
+        BlockState first = padded.get(0, 0, 0);
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    if (padded.get(x, y, z) != first) return null;
+                }
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Check if a block has nothing to draw with a given set of visible faces,
+     * meaning its model would come out empty.
+     * @param state The block state.
+     * @param faces A bitmask of visible faces, indexed by {@link Direction#getId()}.
+     * @return If the block is invisible.
+     */
+    private static boolean isInvisible(BlockState state, int faces) {
+        if (state.getRenderType() == BlockRenderType.INVISIBLE) return true;
+
+        BakedModel model = client.getBlockRenderManager().getModel(state);
+        Random random = QUAD_RANDOM.get();
+        if (!model.getQuads(state, null, random).isEmpty()) return false;
+
+        for (Direction direction : DIRECTIONS) {
+            if ((faces & 1 << direction.getId()) != 0 && !model.getQuads(state, direction, random).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
 }
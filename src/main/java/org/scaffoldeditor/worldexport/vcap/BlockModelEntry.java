@@ -36,6 +36,21 @@ public record BlockModelEntry(BakedModel model, BlockState blockState, byte face
         return id.toUnderscoreSeparatedString() + "#" + Integer.toHexString(stateId) + "." + Integer.toHexString(faces);
     }
 
+    /**
+     * Pack the identifying values of this entry into a single int. Two entries
+     * with the same key will generate the same mesh.
+     * 
+     * @return The packed key: the raw block state id, followed by the 6-bit face
+     *         mask and the transparent and emissive flags.
+     * @see Block#getRawIdFromState
+     */
+    public int getKey() {
+        return Block.getRawIdFromState(blockState) << 8
+                | (faces & 0x3F) << 2
+                | (transparent ? 2 : 0)
+                | (emissive ? 1 : 0);
+    }
+
     /**
      * A simplified builder for ModelEntry.
      */
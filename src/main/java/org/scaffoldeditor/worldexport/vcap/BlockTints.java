@@ -0,0 +1,86 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import org.scaffoldeditor.worldexport.mixins.BlockColorsAccessor;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.color.block.BlockColorProvider;
+import net.minecraft.client.color.block.BlockColors;
+import net.minecraft.registry.Registries;
+import net.minecraft.util.collection.IdList;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.BlockRenderView;
+
+/**
+ * <p>
+ * Samples block tints for a single section. Only block states with a color
+ * provider are sampled at all; everything else is untinted.
+ * </p>
+ * <p>
+ * Biome tints only vary along the X and Z axes, so each tinted block state is
+ * sampled once per column of the section and reused for the rest of the
+ * column. Not thread-safe; use one instance per section.
+ * </p>
+ */
+final class BlockTints {
+
+    /**
+     * The color of a block with no tint.
+     */
+    static final int UNTINTED = 0xFFFFFF;
+
+    /**
+     * Whether each block state has a color provider, indexed by raw state ID.
+     */
+    private static volatile boolean[] tinted;
+
+    private final BlockColors blockColors = MinecraftClient.getInstance().getBlockColors();
+    private final Long2IntMap columnColors = new Long2IntOpenHashMap();
+
+    /**
+     * Check if a block state has a color provider.
+     * @param state The block state.
+     * @return If the block's color may be something other than {@link #UNTINTED}.
+     */
+    static boolean hasTint(BlockState state) {
+        int id = Block.getRawIdFromState(state);
+        boolean[] tinted = BlockTints.tinted;
+        if (tinted == null || id >= tinted.length) {
+            tinted = BlockTints.tinted = buildTintedStates();
+        }
+        return tinted[id];
+    }
+
+    private static boolean[] buildTintedStates() {
+        IdList<BlockColorProvider> providers = ((BlockColorsAccessor) MinecraftClient.getInstance().getBlockColors())
+                .getProviders();
+        boolean[] tinted = new boolean[Block.STATE_IDS.size()];
+        for (int i = 0; i < tinted.length; i++) {
+            BlockState state = Block.STATE_IDS.get(i);
+            tinted[i] = state != null && providers.get(Registries.BLOCK.getRawId(state.getBlock())) != null;
+        }
+        return tinted;
+    }
+
+    /**
+     * Get the tint of a block, sampling it from the world if it hasn't been
+     * sampled in this column yet.
+     * @param state The block state. Must have a color provider.
+     * @param world The world to sample from.
+     * @param pos   The position of the block.
+     * @return The tint, as <code>0xRRGGBB</code>.
+     */
+    int getColor(BlockState state, BlockRenderView world, BlockPos pos) {
+        // Keyed by state rather than provider; some providers read the state.
+        long key = (long) Block.getRawIdFromState(state) << 8 | (pos.getZ() & 15) << 4 | (pos.getX() & 15);
+        if (columnColors.containsKey(key)) {
+            return columnColors.get(key);
+        }
+        int color = blockColors.getColor(state, world, pos, 0) & 0xFFFFFF;
+        columnColors.put(key, color);
+        return color;
+    }
+}
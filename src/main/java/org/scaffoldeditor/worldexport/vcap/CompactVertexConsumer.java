@@ -0,0 +1,45 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import org.joml.Matrix4d;
+import org.joml.Matrix4dc;
+import org.scaffoldeditor.worldexport.util.CompactMesh;
+
+import net.minecraft.util.math.Vec3d;
+
+/**
+ * A vertex consumer that feeds vertices into a {@link CompactMesh}. Unlike
+ * {@link ObjVertexConsumer}, this doesn't allocate anything per-quad.
+ */
+public class CompactVertexConsumer extends QuadVertexConsumer {
+
+    public final CompactMesh mesh;
+    private final int[] indices = new int[4];
+
+    public CompactVertexConsumer(CompactMesh mesh, Vec3d offset) {
+        super(new Matrix4d().translate(offset.x, offset.y, offset.z));
+        this.mesh = mesh;
+    }
+
+    public CompactVertexConsumer(CompactMesh mesh, Matrix4dc transform) {
+        super(transform);
+        this.mesh = mesh;
+    }
+
+    public CompactVertexConsumer(CompactMesh mesh) {
+        this.mesh = mesh;
+    }
+
+    @Override
+    protected void addQuad() {
+        int meshHead = mesh.getNumVertices();
+
+        for (int i = 0; i < 4; i++) {
+            indices[i] = meshHead + i;
+            mesh.addVertex(positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2]);
+            mesh.addNormal(normals[i * 3], normals[i * 3 + 1], normals[i * 3 + 2]);
+            mesh.addTexCoord(texCoords[i * 2], texCoords[i * 2 + 1]);
+        }
+
+        mesh.addFace(indices, indices, indices);
+    }
+}
@@ -1,27 +1,28 @@
 package org.scaffoldeditor.worldexport.vcap;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.scaffoldeditor.worldexport.mat.Material;
 import org.scaffoldeditor.worldexport.mat.MaterialConsumer;
 import org.scaffoldeditor.worldexport.mat.ReplayTexture;
 import org.scaffoldeditor.worldexport.util.FloodFill;
 import org.scaffoldeditor.worldexport.util.MeshComparator;
+import org.scaffoldeditor.worldexport.util.StripedInt2ObjectMap;
 import org.scaffoldeditor.worldexport.vcap.fluid.FluidBlockEntry;
 import org.scaffoldeditor.worldexport.vcap.fluid.FluidDomain;
+import org.scaffoldeditor.worldexport.vcap.model.BlockMeshCache;
 import org.scaffoldeditor.worldexport.vcap.model.BlockModelProvider;
 import org.scaffoldeditor.worldexport.vcap.model.MaterialProvider;
 import org.scaffoldeditor.worldexport.vcap.model.ModelProvider;
 import org.scaffoldeditor.worldexport.vcap.model.ModelProvider.ModelInfo;
 
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
-
 import de.javagl.obj.Obj;
 import de.javagl.obj.ReadableObj;
 import net.minecraft.block.BlockState;
@@ -36,17 +37,34 @@ public class ExportContext implements MaterialConsumer {
     /**
      * The models used in this vcap.
      */
-    public final Map<String, ModelProvider> models = new HashMap<>();
+    public final Map<String, ModelProvider> models = new ConcurrentHashMap<>();
+
+    /**
+     * A cache of model entries so they can be re-used, keyed by
+     * {@link BlockModelEntry#getKey()}.
+     */
+    private final StripedInt2ObjectMap<String> modelCache = new StripedInt2ObjectMap<>();
+
+    /**
+     * The last number that was appended to each base name during name conflict
+     * resolution.
+     */
+    private final Map<String, AtomicInteger> nameCounters = new ConcurrentHashMap<>();
 
     /**
-     * A cache of model entries so they can be re-used.
+     * The vertex epsilon used when de-duplicating fluid meshes.
      */
-    private final Map<BlockModelEntry, String> modelCache = new HashMap<>();
+    private static final float FLUID_EPSILON = .001f;
 
-    private static record FluidCacheEntry(ReadableObj obj, Fluid fluid) {};
+    private static record FluidKey(Fluid fluid, long fingerprint) {};
+    private static record CachedFluid(ReadableObj mesh, String id) {};
 
-    private final BiMap<FluidCacheEntry, String> fluidCache = HashBiMap.create();
-    private final BiMap<FluidBlockEntry, String> newFluidCache = HashBiMap.create();
+    /**
+     * Fluid meshes that have been added, keyed by fluid and mesh fingerprint.
+     * Each bucket is guarded by its own monitor.
+     */
+    private final Map<FluidKey, List<CachedFluid>> fluidCache = new ConcurrentHashMap<>();
+    private final Map<FluidKey, List<CachedFluid>> newFluidCache = new ConcurrentHashMap<>();
 
     /**
      * The materials used in this vcap.
@@ -94,11 +112,9 @@ public class ExportContext implements MaterialConsumer {
      * @return The name the model was given after name conflict resolution.
      */
     @Deprecated
-    public synchronized String addExtraModel(String desiredName, Obj model) {
-        String name = makeNameUnique(desiredName);
+    public String addExtraModel(String desiredName, Obj model) {
         ModelInfo info = new ModelInfo(model, 0, Collections.emptyMap());
-        models.put(name, () -> info);
-        return name;
+        return putUnique(desiredName, () -> info);
     }
 
     /**
@@ -107,10 +123,8 @@ public class ExportContext implements MaterialConsumer {
      * @param model The model to add.
      * @return The name the model was given after name conflict resolution.
      */
-    public synchronized String addModel(String name, ModelInfo model) {
-        name = makeNameUnique(name);
-        models.put(name, () -> model);
-        return name;
+    public String addModel(String name, ModelInfo model) {
+        return putUnique(name, () -> model);
     }
 
     /**
@@ -118,16 +132,12 @@ public class ExportContext implements MaterialConsumer {
      * @param model Block model entry.
      * @return The name that was generated.
      */
-    public synchronized String addBlock(BlockModelEntry model) {
-        if (modelCache.containsKey(model)) return modelCache.get(model);
-        String name = makeNameUnique(model.getID());
-        models.put(name, new BlockModelProvider(model));
-        modelCache.put(model, name);
-        return name;
+    public String addBlock(BlockModelEntry model) {
+        return modelCache.computeIfAbsent(model.getKey(),
+                key -> putUnique(model.getID(), new BlockModelProvider(model,
+                        settings.useMeshCache() ? BlockMeshCache.getInstance() : null)));
     }
 
-    private MeshComparator comparator = new MeshComparator();
-
     /**
      * Add the mesh from a fluid domain to the vcap. Unlike simply adding the mesh
      * manually, this method also maintains a cache so meshes can be re-used when
@@ -137,41 +147,102 @@ public class ExportContext implements MaterialConsumer {
      * @return The name that was generated.
      */
     @Deprecated
-    public synchronized String addFluid(FluidDomain fluid) {
-        ModelInfo model = fluid.getModel();
-        Optional<FluidCacheEntry> existing = fluidCache.keySet().stream().filter(entry -> {
-            return entry.fluid().equals(fluid.getFluid())
-            && comparator.meshEquals(entry.obj(), model.mesh(), .001f, 0);
-        }).findAny();
-
-        if (existing.isPresent()) {
-            return fluidCache.get(existing.get());
-        }
+    public String addFluid(FluidDomain fluid) {
+        return addFluid(fluidCache, fluid.getFluid(), fluid.getModel());
+    }
 
-        String modelID = addModel("fluid.0", model); // Name conflict resolution will handle this.
-        fluidCache.put(new FluidCacheEntry(model.mesh(), fluid.getFluid()), modelID);
-        return modelID;
+    /**
+     * Add a fluid block's mesh to the vcap, re-using an existing mesh if an
+     * identical one has already been added. Thread-safe.
+     * 
+     * @param fluid The fluid block.
+     * @return The name of the mesh.
+     */
+    public String addFluid(FluidBlockEntry fluid) {
+        return addFluid(newFluidCache, fluid.getFluid(), fluid.getModel());
     }
 
-    public synchronized String addFluid(FluidBlockEntry fluid) {
-        var existing = newFluidCache.entrySet().stream().filter(entry -> {
-            return entry.getKey().equals(fluid, comparator, .001f);
-        }).findAny();
+    private String addFluid(Map<FluidKey, List<CachedFluid>> cache, Fluid fluid, ModelInfo model) {
+        ReadableObj mesh = model.mesh();
+        FluidKey key = new FluidKey(fluid, MeshComparator.fingerprint(mesh, FLUID_EPSILON));
+        List<CachedFluid> bucket = cache.computeIfAbsent(key, k -> new ArrayList<>(1));
+
+        synchronized (bucket) {
+            // Fingerprints can collide, so verify the match.
+            for (CachedFluid cached : bucket) {
+                if (meshComparator.meshEquals(cached.mesh(), mesh, FLUID_EPSILON, 0)) {
+                    return cached.id();
+                }
+            }
 
-        if (existing.isPresent()) {
-            return existing.get().getValue();
+            String modelID = addModel("fluid.0", model); // Name conflict resolution will handle this.
+            bucket.add(new CachedFluid(mesh, modelID));
+            return modelID;
         }
+    }
+
+    /**
+     * Get a version of a model name that isn't used yet. Note that the name isn't
+     * reserved; another thread may take it before it's used.
+     * 
+     * @param name The desired name.
+     * @return The unique name.
+     */
+    public String makeNameUnique(String name) {
+        if (!models.containsKey(name)) return name;
+        NameCounter counter = getNameCounter(name);
+        String candidate;
+        do {
+            candidate = counter.next();
+        } while (models.containsKey(candidate));
+        return candidate;
+    }
 
-        String modelID = addModel("fluid.0", fluid.getModel());
-        newFluidCache.put(fluid, modelID);
-        return modelID;
+    /**
+     * Add a model under a unique version of the given name.
+     * 
+     * @param name  The desired name.
+     * @param model The model to add.
+     * @return The name the model was given after name conflict resolution.
+     */
+    private String putUnique(String name, ModelProvider model) {
+        if (models.putIfAbsent(name, model) == null) return name;
+        NameCounter counter = getNameCounter(name);
+        String candidate;
+        do {
+            candidate = counter.next();
+        } while (models.putIfAbsent(candidate, model) != null);
+        return candidate;
     }
 
-    public synchronized String makeNameUnique(String name) {
-        while (models.containsKey(name)) {
-            name = iterateName(name);
+    private static record NameCounter(String base, AtomicInteger counter) {
+        String next() {
+            return base + counter.incrementAndGet();
         }
-        return name;
+    }
+
+    /**
+     * Split a name into its base and trailing number, and get the counter for
+     * that base.
+     */
+    private NameCounter getNameCounter(String name) {
+        int end = name.length();
+        while (end > 0 && Character.isDigit(name.charAt(end - 1))) {
+            end--;
+        }
+        String base = name.substring(0, end);
+
+        int start = 0;
+        if (end < name.length()) {
+            try {
+                start = Integer.parseInt(name.substring(end));
+            } catch (NumberFormatException e) {
+                base = name;
+            }
+        }
+        final int initial = start;
+        AtomicInteger counter = nameCounters.computeIfAbsent(base, b -> new AtomicInteger(initial));
+        return new NameCounter(base, counter);
     }
 
     /**
@@ -203,18 +274,6 @@ public class ExportContext implements MaterialConsumer {
         return map;
     }
 
-    private static Pattern lastIntPattern = Pattern.compile("[^0-9]+([0-9]+)$");
-
-    private String iterateName(String name) {
-        Matcher matcher = lastIntPattern.matcher(name);
-        if (matcher.find()) {
-            String intStr = matcher.group(1);
-            return name.replace(intStr, String.valueOf(Integer.parseInt(intStr) + 1));
-        } else {
-            return name+'1';
-        }
-    }
-
     @Override
     public void putMaterial(String name, Material mat) {
         materials.put(name, (textures) -> mat);
@@ -0,0 +1,63 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import it.unimi.dsi.fastutil.longs.Long2ByteMap;
+import it.unimi.dsi.fastutil.longs.Long2ByteOpenHashMap;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Direction;
+import net.minecraft.world.BlockView;
+
+/**
+ * Caches the results of {@link Block#shouldDrawSide} keyed by the raw ids of
+ * the two block states and the direction. Like vanilla's own face cull cache,
+ * this assumes the result doesn't depend on position. Not thread-safe; use
+ * {@link #get()} to retrieve the current thread's instance.
+ */
+public final class FaceCullCache {
+    private static final int MAX_SIZE = 65536;
+
+    private static final ThreadLocal<FaceCullCache> INSTANCE = ThreadLocal.withInitial(FaceCullCache::new);
+
+    /**
+     * Get the face cull cache for the current thread.
+     * @return The cache.
+     */
+    public static FaceCullCache get() {
+        return INSTANCE.get();
+    }
+
+    private final Long2ByteMap cache = new Long2ByteOpenHashMap();
+
+    private FaceCullCache() {
+        cache.defaultReturnValue((byte) -1);
+    }
+
+    /**
+     * Check whether a face of a block should be drawn.
+     *
+     * @param state     The block state.
+     * @param neighbor  The block state adjacent to the face.
+     * @param world     The world both blocks are in.
+     * @param pos       The position of the block.
+     * @param side      The side of the block to check.
+     * @param otherPos  The position of the neighbor.
+     * @return If the face should be drawn.
+     */
+    public boolean shouldDrawSide(BlockState state, BlockState neighbor, BlockView world, BlockPos pos,
+            Direction side, BlockPos otherPos) {
+        long key = (long) Block.getRawIdFromState(state) << 32
+                | (long) Block.getRawIdFromState(neighbor) << 3
+                | side.getId();
+
+        byte cached = cache.get(key);
+        if (cached >= 0) return cached == 1;
+
+        boolean result = Block.shouldDrawSide(state, world, pos, side, otherPos);
+        if (cache.size() >= MAX_SIZE) {
+            cache.clear();
+        }
+        cache.put(key, result ? (byte) 1 : (byte) 0);
+        return result;
+    }
+}
@@ -1,7 +1,11 @@
 package org.scaffoldeditor.worldexport.vcap;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Optional;
 
+import javax.annotation.Nullable;
+
 import org.scaffoldeditor.worldexport.vcap.fluid.FluidDomain;
 
 import net.minecraft.nbt.NbtCompound;
@@ -38,6 +42,18 @@ public interface Frame {
      */
     public NbtCompound getFrameData();
 
+    /**
+     * Write this frame's NBT payload (without a type or name header) to an
+     * output. Implementations that hold their data in an encoded form may
+     * override this to avoid building the full NBT tree.
+     * 
+     * @param out Output to write to.
+     * @throws IOException If an IO exception occurs.
+     */
+    public default void write(DataOutput out) throws IOException {
+        getFrameData().write(out);
+    }
+
     /**
      * Get the Vcap model of a block at this frame.
      * May be dependant on prior frames.
@@ -55,6 +71,16 @@ public interface Frame {
     public default Optional<FluidDomain> fluidAt(BlockPos pos) {
         return Optional.empty();
     }
+
+    /**
+     * Get the world state index this frame belongs to, if any. Subsequent frames
+     * use this to advance the index rather than querying the frame chain.
+     * @return The index, or <code>null</code> if this frame doesn't have one.
+     */
+    @Nullable
+    public default WorldStateIndex getStateIndex() {
+        return null;
+    }
 }
 
 class EmptyFrame implements Frame {
@@ -0,0 +1,368 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.scaffoldeditor.worldexport.util.CompactMesh;
+import org.scaffoldeditor.worldexport.vcap.model.MaterialProvider;
+import org.scaffoldeditor.worldexport.vcap.model.ModelProvider.ModelInfo;
+import org.scaffoldeditor.worldexport.vcap.model.TiledSpriteMaterial;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.block.BlockRenderType;
+import net.minecraft.block.BlockState;
+import net.minecraft.client.render.model.BakedModel;
+import net.minecraft.client.render.model.BakedQuad;
+import net.minecraft.client.texture.Sprite;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.Direction;
+import net.minecraft.util.math.random.Random;
+import net.minecraft.world.EmptyBlockView;
+
+/**
+ * <p>
+ * Merges the visible faces of full, opaque cubes in a section into as few
+ * quads as possible. Coplanar faces that share a sprite, UV orientation and
+ * material are combined into rectangles whose UVs tile the sprite.
+ * </p>
+ * <p>
+ * Only blocks whose model is exactly one full, untinted quad per side with a
+ * static sprite are merged. Everything else should be exported on the
+ * per-block path. Not thread-safe; use one instance per section.
+ * </p>
+ */
+public class GreedyMesher {
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private static final float EPSILON = 1e-4f;
+
+    /**
+     * Baked UVs are pulled slightly toward the center of the sprite to avoid
+     * bleeding, so they're compared with a coarser tolerance.
+     */
+    private static final float UV_EPSILON = 1 / 32f;
+
+    /**
+     * The number of ints per vertex in a baked quad's vertex data.
+     */
+    private static final int VERTEX_STRIDE = 8;
+
+    // Orientation bits
+    private static final int SWAP_UV = 1;
+    private static final int FLIP_U = 2;
+    private static final int FLIP_V = 4;
+
+    /**
+     * Placeholder for block states that can't be merged.
+     */
+    private static final int[] NOT_CUBE = new int[0];
+
+    /**
+     * A unique combination of sprite, UV orientation and material.
+     */
+    private static record FaceType(Sprite sprite, int orientation, boolean emissive) {}
+
+    private final List<FaceType> faceTypes = new ArrayList<>();
+    private final Object2IntMap<FaceType> faceTypeIds = new Object2IntOpenHashMap<>();
+    private final Map<BlockState, int[]> cubes = new IdentityHashMap<>();
+
+    /**
+     * The face types of each voxel in the section, indexed by direction.
+     */
+    private final int[][] voxels = new int[16 * 16 * 16][];
+    private final byte[] visibleFaces = new byte[16 * 16 * 16];
+    private boolean empty = true;
+
+    private final Random random = Random.create();
+    private final float[] vertex = new float[3];
+
+    public GreedyMesher() {
+        faceTypeIds.defaultReturnValue(-1);
+    }
+
+    /**
+     * Attempt to add a block to the merged mesh.
+     *
+     * @param x     Local X coordinate within the section.
+     * @param y     Local Y coordinate within the section.
+     * @param z     Local Z coordinate within the section.
+     * @param state The block state.
+     * @param faces A bitmask of visible faces, indexed by direction ID.
+     * @return If the block was merged. If <code>false</code>, the block must be
+     *         exported on the per-block path.
+     */
+    public boolean add(int x, int y, int z, BlockState state, int faces) {
+        int[] cube = cubes.computeIfAbsent(state, this::analyze);
+        if (cube == NOT_CUBE) return false;
+
+        int index = (y * 16 + z) * 16 + x;
+        voxels[index] = cube;
+        visibleFaces[index] = (byte) faces;
+        if (faces != 0) empty = false;
+        return true;
+    }
+
+    /**
+     * Check if a block state can be merged, and if so, find the face type of
+     * each side.
+     */
+    private int[] analyze(BlockState state) {
+        if (state.getRenderType() != BlockRenderType.MODEL
+                || !state.isOpaqueFullCube(EmptyBlockView.INSTANCE, BlockPos.ORIGIN)) {
+            return NOT_CUBE;
+        }
+
+        BakedModel model = BlockExporter.client.getBlockRenderManager().getModel(state);
+        boolean emissive = state.getLuminance() >= BlockExporter.EMISSIVE_THRESHOLD;
+
+        random.setSeed(42L);
+        if (!model.getQuads(state, null, random).isEmpty()) return NOT_CUBE;
+
+        int[] cube = new int[DIRECTIONS.length];
+        for (Direction direction : DIRECTIONS) {
+            random.setSeed(42L);
+            List<BakedQuad> quads = model.getQuads(state, direction, random);
+            if (quads.size() != 1) return NOT_CUBE;
+
+            BakedQuad quad = quads.get(0);
+            if (quad.hasColor()) return NOT_CUBE;
+
+            Sprite sprite = quad.getSprite();
+            if (sprite.createAnimation() != null) return NOT_CUBE;
+
+            int orientation = getOrientation(quad, direction);
+            if (orientation < 0) return NOT_CUBE;
+
+            FaceType type = new FaceType(sprite, orientation, emissive);
+            int id = faceTypeIds.getInt(type);
+            if (id < 0) {
+                id = faceTypes.size();
+                faceTypes.add(type);
+                faceTypeIds.put(type, id);
+            }
+            cube[direction.getId()] = id;
+        }
+        return cube;
+    }
+
+    /**
+     * Check that a quad covers an entire side of the block with an entire
+     * sprite, and determine how its UVs map onto the face.
+     *
+     * @return The orientation bits, or <code>-1</code> if the quad can't be
+     *         merged.
+     */
+    private static int getOrientation(BakedQuad quad, Direction direction) {
+        int[] vertData = quad.getVertexData();
+        if (vertData.length != 4 * VERTEX_STRIDE) return -1;
+
+        Sprite sprite = quad.getSprite();
+        int normalAxis = direction.getAxis().ordinal();
+        int aAxis = normalAxis == 0 ? 1 : 0;
+        int bAxis = normalAxis == 2 ? 1 : 2;
+        int plane = direction.getDirection() == Direction.AxisDirection.POSITIVE ? 1 : 0;
+
+        int corners = 0;
+        boolean uFollowsA = true, uAgainstA = true, uFollowsB = true, uAgainstB = true;
+        boolean vFollowsA = true, vAgainstA = true, vFollowsB = true, vAgainstB = true;
+
+        for (int i = 0; i < 4; i++) {
+            int offset = i * VERTEX_STRIDE;
+            if (snap(Float.intBitsToFloat(vertData[offset + normalAxis]), EPSILON) != plane) return -1;
+
+            int a = snap(Float.intBitsToFloat(vertData[offset + aAxis]), EPSILON);
+            int b = snap(Float.intBitsToFloat(vertData[offset + bAxis]), EPSILON);
+            int u = snap(makeLocal(sprite.getMinU(), sprite.getMaxU(), Float.intBitsToFloat(vertData[offset + 4])),
+                    UV_EPSILON);
+            int v = snap(makeLocal(sprite.getMinV(), sprite.getMaxV(), Float.intBitsToFloat(vertData[offset + 5])),
+                    UV_EPSILON);
+            if (a < 0 || b < 0 || u < 0 || v < 0) return -1;
+
+            corners |= 1 << (a | b << 1);
+
+            uFollowsA &= u == a;
+            uAgainstA &= u != a;
+            uFollowsB &= u == b;
+            uAgainstB &= u != b;
+            vFollowsA &= v == a;
+            vAgainstA &= v != a;
+            vFollowsB &= v == b;
+            vAgainstB &= v != b;
+        }
+        // Every corner of the face must be covered.
+        if (corners != 0xF) return -1;
+
+        if ((uFollowsA || uAgainstA) && (vFollowsB || vAgainstB)) {
+            return (uAgainstA ? FLIP_U : 0) | (vAgainstB ? FLIP_V : 0);
+        } else if ((uFollowsB || uAgainstB) && (vFollowsA || vAgainstA)) {
+            return SWAP_UV | (uAgainstB ? FLIP_U : 0) | (vAgainstA ? FLIP_V : 0);
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * Snap a coordinate to the edge of a block.
+     * @return <code>0</code> or <code>1</code>, or <code>-1</code> if the value
+     *         isn't on an edge.
+     */
+    private static int snap(float value, float epsilon) {
+        if (Math.abs(value) < epsilon) return 0;
+        if (Math.abs(value - 1) < epsilon) return 1;
+        return -1;
+    }
+
+    private static float makeLocal(float globalMin, float globalMax, float globalVal) {
+        return (globalVal - globalMin) / (globalMax - globalMin);
+    }
+
+    /**
+     * Generate the merged mesh of all the blocks that were added.
+     * @return The mesh, or <code>null</code> if no merged block has a visible
+     *         face.
+     */
+    @Nullable
+    public ModelInfo build() {
+        if (empty) return null;
+
+        CompactMesh mesh = new CompactMesh();
+        mesh.setActiveGroupName(MeshWriter.genGroupName(0));
+        Map<String, MaterialProvider> materials = new HashMap<>();
+        String[] matNames = new String[faceTypes.size()];
+        for (int i = 0; i < matNames.length; i++) {
+            FaceType type = faceTypes.get(i);
+            TiledSpriteMaterial material = new TiledSpriteMaterial(type.sprite(), type.emissive());
+            matNames[i] = material.getName();
+            materials.put(matNames[i], material);
+        }
+
+        int[] mask = new int[16 * 16];
+        int[] pos = new int[3];
+        int[] indices = new int[4];
+
+        for (Direction direction : DIRECTIONS) {
+            int normalAxis = direction.getAxis().ordinal();
+            int aAxis = normalAxis == 0 ? 1 : 0;
+            int bAxis = normalAxis == 2 ? 1 : 2;
+            boolean positive = direction.getDirection() == Direction.AxisDirection.POSITIVE;
+            int faceBit = 1 << direction.getId();
+
+            // (a, b, normal) is right-handed for X and Z but not for Y.
+            boolean counterClockwise = positive != (normalAxis == 1);
+
+            for (int slice = 0; slice < 16; slice++) {
+                pos[normalAxis] = slice;
+                boolean any = false;
+                for (int b = 0; b < 16; b++) {
+                    pos[bAxis] = b;
+                    for (int a = 0; a < 16; a++) {
+                        pos[aAxis] = a;
+                        int index = (pos[1] * 16 + pos[2]) * 16 + pos[0];
+                        int[] cube = voxels[index];
+                        if (cube != null && (visibleFaces[index] & faceBit) != 0) {
+                            mask[b * 16 + a] = cube[direction.getId()] + 1;
+                            any = true;
+                        } else {
+                            mask[b * 16 + a] = 0;
+                        }
+                    }
+                }
+                if (!any) continue;
+
+                pos[normalAxis] = positive ? slice + 1 : slice;
+                for (int b = 0; b < 16; b++) {
+                    for (int a = 0; a < 16;) {
+                        int type = mask[b * 16 + a];
+                        if (type == 0) {
+                            a++;
+                            continue;
+                        }
+
+                        int width = 1;
+                        while (a + width < 16 && mask[b * 16 + a + width] == type) {
+                            width++;
+                        }
+
+                        int height = 1;
+                        expand: while (b + height < 16) {
+                            for (int i = 0; i < width; i++) {
+                                if (mask[(b + height) * 16 + a + i] != type) break expand;
+                            }
+                            height++;
+                        }
+
+                        for (int row = 0; row < height; row++) {
+                            for (int i = 0; i < width; i++) {
+                                mask[(b + row) * 16 + a + i] = 0;
+                            }
+                        }
+
+                        mesh.setActiveMaterialGroupName(matNames[type - 1]);
+                        int orientation = faceTypes.get(type - 1).orientation();
+                        if (counterClockwise) {
+                            addVertex(mesh, pos, aAxis, bAxis, a, b, 0, 0, width, height, orientation);
+                            addVertex(mesh, pos, aAxis, bAxis, a, b, width, 0, width, height, orientation);
+                            addVertex(mesh, pos, aAxis, bAxis, a, b, width, height, width, height, orientation);
+                            addVertex(mesh, pos, aAxis, bAxis, a, b, 0, height, width, height, orientation);
+                        } else {
+                            addVertex(mesh, pos, aAxis, bAxis, a, b, 0, 0, width, height, orientation);
+                            addVertex(mesh, pos, aAxis, bAxis, a, b, 0, height, width, height, orientation);
+                            addVertex(mesh, pos, aAxis, bAxis, a, b, width, height, width, height, orientation);
+                            addVertex(mesh, pos, aAxis, bAxis, a, b, width, 0, width, height, orientation);
+                        }
+
+                        int first = mesh.getNumVertices() - 4;
+                        for (int i = 0; i < 4; i++) {
+                            indices[i] = first + i;
+                        }
+                        mesh.addFace(indices, indices, null);
+
+                        a += width;
+                    }
+                }
+            }
+        }
+
+        return new ModelInfo(mesh, 1, materials);
+    }
+
+    /**
+     * Add one corner of a merged quad.
+     *
+     * @param pos         Section-local position. Only the normal axis is read.
+     * @param a           Minimum corner of the quad on the A axis.
+     * @param b           Minimum corner of the quad on the B axis.
+     * @param da          Offset of this corner on the A axis.
+     * @param db          Offset of this corner on the B axis.
+     * @param width       Size of the quad on the A axis.
+     * @param height      Size of the quad on the B axis.
+     * @param orientation Orientation bits of the face type.
+     */
+    private void addVertex(CompactMesh mesh, int[] pos, int aAxis, int bAxis, int a, int b, int da, int db,
+            int width, int height, int orientation) {
+        for (int i = 0; i < 3; i++) {
+            vertex[i] = pos[i];
+        }
+        vertex[aAxis] = a + da;
+        vertex[bAxis] = b + db;
+        mesh.addVertex(vertex[0], vertex[1], vertex[2]);
+
+        // UVs count whole blocks so the sprite repeats once per block.
+        boolean swap = (orientation & SWAP_UV) != 0;
+        int u = swap ? db : da;
+        int v = swap ? da : db;
+        int uSize = swap ? height : width;
+        int vSize = swap ? width : height;
+        if ((orientation & FLIP_U) != 0) u = uSize - u;
+        if ((orientation & FLIP_V) != 0) v = vSize - v;
+
+        mesh.addTexCoord(u, vSize - v);
+    }
+}
@@ -1,37 +1,93 @@
 package org.scaffoldeditor.worldexport.vcap;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import javax.annotation.Nullable;
 
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.io.ByteStreams;
+
+import org.scaffoldeditor.worldexport.util.NbtStreamWriter;
 import org.scaffoldeditor.worldexport.vcap.BlockExporter.CaptureCallback;
+import org.scaffoldeditor.worldexport.vcap.BlockExporter.SectionEncoder;
+import org.scaffoldeditor.worldexport.vcap.VcapSettings.SectionFormat;
 import org.scaffoldeditor.worldexport.vcap.fluid.FluidConsumer;
 import org.scaffoldeditor.worldexport.vcap.fluid.FluidDomain;
 import org.scaffoldeditor.worldexport.world_snapshot.ChunkView;
 import org.scaffoldeditor.worldexport.world_snapshot.WorldSnapshot;
 import org.scaffoldeditor.worldexport.world_snapshot.WorldSnapshotManager;
 
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMaps;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSets;
+import net.minecraft.nbt.NbtByte;
 import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtDouble;
 import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.nbt.NbtTagSizeTracker;
 import net.minecraft.util.math.BlockBox;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkSectionPos;
 import net.minecraft.util.math.Vec3i;
 
 public class IFrame implements Frame, FluidConsumer {
 
-    private NbtCompound data;
+    private double time;
+    /**
+     * The frame's sections, compressed as soon as they're captured so the frame
+     * never has to hold the full NBT tree.
+     */
+    private List<EncodedSection> sections = Collections.emptyList();
+    /**
+     * Sections that were captured but have nothing to draw, so aren't saved.
+     */
+    private final LongSet emptySections = LongSets.synchronize(new LongOpenHashSet());
     /**
      * Used when retrieving data from the frame so we don't have to keep locating
      * the section.
      */
 
     private Map<Vec3i, NbtCompound> sectionCache = new HashMap<>();
+    /**
+     * The frame's sections by their packed section position.
+     */
+    private Long2ObjectMap<EncodedSection> sectionsByPos = Long2ObjectMaps.emptyMap();
+    /**
+     * An earlier frame whose unchanged sections are reused during capture.
+     * Cleared once capture is done.
+     */
+    @Nullable
+    private IFrame previous;
     private Map<BlockPos, FluidDomain> fluids = new ConcurrentHashMap<>();
+    private final WorldStateIndex index = new WorldStateIndex();
 
     /**
      * <p>
@@ -50,7 +106,31 @@ public class IFrame implements Frame, FluidConsumer {
      * @return Captured frame.
      */
     public static IFrame capture(ChunkView world, BlockBox bounds, ExportContext context, double time, @Nullable CaptureCallback callback) {
+        return capture(world, bounds, context, time, callback, null);
+    }
+
+    /**
+     * <p>
+     * Capture an intracoded frame, sharing the data of any section that hasn't
+     * changed since an earlier frame.
+     * </p>
+     * <p>
+     * Warning: depending on the size of the capture, this may
+     * take multiple seconds.
+     * </p>
+     * 
+     * @param world    World to capture.
+     * @param bounds   Region to export.
+     * @param context  The export context.
+     * @param time     Time stamp of the frame, in seconds since the beginning
+     *                 of the animation.
+     * @param previous An earlier frame to compare sections against.
+     * @return Captured frame.
+     */
+    public static IFrame capture(ChunkView world, BlockBox bounds, ExportContext context, double time,
+            @Nullable CaptureCallback callback, @Nullable IFrame previous) {
         IFrame iFrame = new IFrame();
+        iFrame.previous = previous;
         iFrame.captureData(world, bounds, context, time, callback);
         return iFrame;
     }
@@ -69,41 +149,126 @@ public class IFrame implements Frame, FluidConsumer {
      */
     public static CompletableFuture<IFrame> captureAsync(ChunkView world, BlockBox bounds,
             ExportContext context, double time, Executor executor, @Nullable CaptureCallback callback) {
+        return captureAsync(world, bounds, context, time, executor, callback, null);
+    }
 
-        WorldSnapshot snapshot = WorldSnapshotManager.getInstance().snapshot(world);
+    /**
+     * Asynchronously capture an intracoded frame, sharing the data of any
+     * section that hasn't changed since an earlier frame.
+     * 
+     * @param world    World to capture.
+     * @param bounds   Region to export.
+     * @param context  The export context.
+     * @param time     Time stamp of the frame, in seconds since the beginning of
+     *                 the animation.
+     * @param executor The executor to use for capture.
+     * @param previous An earlier frame to compare sections against.
+     * @return A future that completes with the captured frame.
+     */
+    public static CompletableFuture<IFrame> captureAsync(ChunkView world, BlockBox bounds,
+            ExportContext context, double time, Executor executor, @Nullable CaptureCallback callback,
+            @Nullable IFrame previous) {
+
+        WorldSnapshot snapshot = WorldSnapshotManager.getInstance().snapshot(world, bounds);
         IFrame iFrame = new IFrame();
+        iFrame.previous = previous;
         return iFrame.captureDataAsync(snapshot, bounds, context, time, callback, executor)
-                .thenApply(data -> iFrame);
+                .whenComplete((frame, e) -> WorldSnapshotManager.getInstance().release(snapshot));
     }
 
     protected void captureData(ChunkView world, BlockBox bounds, ExportContext context,
             double time, @Nullable CaptureCallback callback) {
-        NbtCompound frame = new NbtCompound();
-        frame.put("sections", BlockExporter.exportStillAsync(world, bounds, context, this, callback, Runnable::run).join());
-        frame.putByte("type", INTRACODED_TYPE);
-        frame.putDouble("time", time);
-        this.data = frame;
+        setSections(BlockExporter.exportStillAsync(world, bounds, context, this, callback, Runnable::run,
+                sectionEncoder).join());
+        this.time = time;
+        initIndex();
     }
     
-    protected CompletableFuture<NbtCompound> captureDataAsync(ChunkView world, BlockBox bounds,
+    protected CompletableFuture<IFrame> captureDataAsync(ChunkView world, BlockBox bounds,
             ExportContext context, double time, @Nullable CaptureCallback callback, Executor executor) {
-        return BlockExporter.exportStillAsync(world, bounds, context, this, callback, executor)
+        return BlockExporter.exportStillAsync(world, bounds, context, this, callback, executor, sectionEncoder)
         .thenApply(sections -> {
-            NbtCompound frame = new NbtCompound();
-            frame.put("sections", sections);
-            frame.putByte("type", INTRACODED_TYPE);
-            frame.putDouble("time", time);
-            this.data = frame;
-            return frame;
+            setSections(sections);
+            this.time = time;
+            initIndex();
+            return this;
         });
     }
 
+    /**
+     * Encodes captured sections, sharing the previous frame's data for any
+     * that haven't changed so their meshes don't need to be built again.
+     */
+    private final SectionEncoder<EncodedSection> sectionEncoder = new SectionEncoder<>() {
+        @Override
+        public EncodedSection reuse(NbtCompound section) {
+            return reuseSection(section);
+        }
+
+        @Override
+        public EncodedSection encode(NbtCompound section) {
+            return indexSection(section);
+        }
+    };
+
+    @Nullable
+    private EncodedSection reuseSection(NbtCompound section) {
+        IFrame previous = this.previous;
+        if (previous == null || BlockExporter.isEmptySection(section)) return null;
+
+        EncodedSection old = previous.getSection(section.getInt("x"), section.getInt("y"), section.getInt("z"));
+        if (old == null || old.hash() != EncodedSection.hash(SectionLayout.pack(section))) return null;
+
+        index.putSection(section);
+        return old;
+    }
+
+    @Nullable
+    private EncodedSection indexSection(NbtCompound section) {
+        index.putSection(section);
+        if (BlockExporter.isEmptySection(section)) {
+            emptySections.add(ChunkSectionPos.asLong(section.getInt("x"), section.getInt("y"), section.getInt("z")));
+            return null;
+        }
+        // Sections are held bit-packed regardless of the layout they're saved in.
+        return EncodedSection.encode(SectionLayout.pack(section));
+    }
+
+    private void setSections(List<EncodedSection> sections) {
+        Long2ObjectMap<EncodedSection> sectionsByPos = new Long2ObjectOpenHashMap<>(sections.size());
+        for (EncodedSection section : sections) {
+            sectionsByPos.put(ChunkSectionPos.asLong(section.x(), section.y(), section.z()), section);
+        }
+        this.sectionsByPos = sectionsByPos;
+        this.sections = sections;
+        this.previous = null;
+    }
+
+    @Nullable
+    private EncodedSection getSection(int x, int y, int z) {
+        return sectionsByPos.get(ChunkSectionPos.asLong(x, y, z));
+    }
+
+    private void initIndex() {
+        synchronized (index) {
+            index.putFluids(fluids);
+            index.setHead(this);
+        }
+    }
+
     /**
      * Create a wrapper around an existing IFrame.
      * @param data Properly formatted IFrame data.
      */
     public IFrame(NbtCompound data) {
-        this.data = data;
+        this.time = data.getDouble("time");
+        List<EncodedSection> sections = new ArrayList<>();
+        for (NbtElement n : data.getList("sections", NbtElement.COMPOUND_TYPE)) {
+            EncodedSection section = indexSection((NbtCompound) n);
+            if (section != null) sections.add(section);
+        }
+        setSections(sections);
+        initIndex();
     }
 
     protected IFrame() {};
@@ -115,47 +280,133 @@ public class IFrame implements Frame, FluidConsumer {
 
     @Override
     public double getTimestamp() {
-        return data.getDouble("time");
+        return time;
     }
 
+    /**
+     * Get the NBT data representing the frame. This decodes every section in
+     * the frame; prefer {@link #write} when serializing.
+     */
     @Override
     public NbtCompound getFrameData() {
-        return data;
+        NbtCompound frame = new NbtCompound();
+        NbtList sectionList = new NbtList();
+        for (EncodedSection section : sections) {
+            sectionList.add(SectionLayout.unpack(section.decode()));
+        }
+        frame.put("sections", sectionList);
+        frame.putByte("type", INTRACODED_TYPE);
+        frame.putDouble("time", time);
+        return frame;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        write(out, SectionFormat.INT_ARRAY, null, null);
+    }
+
+    /**
+     * Write this frame's NBT payload with its sections in a specific layout.
+     * @param out     Output to write to.
+     * @param format  The section layout to use.
+     * @param palette If set, section palettes are written as indices into this
+     *                palette.
+     * @param refs    If set, sections that are identical to one already written
+     *                are written as references to it.
+     * @throws IOException If an IO exception occurs.
+     */
+    public void write(DataOutput out, SectionFormat format, @Nullable ModelPalette palette,
+            @Nullable SectionRefs refs) throws IOException {
+        NbtStreamWriter writer = new NbtStreamWriter(out);
+        writer.beginList("sections", NbtElement.COMPOUND_TYPE, sections.size());
+        for (EncodedSection section : sections) {
+            int ref = refs != null ? refs.find(section) : -1;
+            if (ref >= 0) {
+                NbtCompound refTag = new NbtCompound();
+                refTag.putInt("x", section.x());
+                refTag.putInt("y", section.y());
+                refTag.putInt("z", section.z());
+                refTag.putInt("ref", ref);
+                refTag.write(out);
+                continue;
+            }
+
+            if (format == SectionFormat.PACKED && palette == null) {
+                section.writeTo(out);
+                continue;
+            }
+
+            NbtCompound decoded = section.decode();
+            if (format != SectionFormat.PACKED) {
+                decoded = SectionLayout.unpack(decoded);
+            }
+            if (palette != null) {
+                palette.apply(decoded);
+            }
+            decoded.write(out);
+        }
+        writer.put("type", NbtByte.of(INTRACODED_TYPE));
+        writer.put("time", NbtDouble.of(time));
+        writer.endCompound();
     }
 
     @Override
     public String modelAt(BlockPos pos) throws IndexOutOfBoundsException {
-        Vec3i sectionCoord = new Vec3i((int) Math.floor(pos.getX() / 16), (int) Math.floor(pos.getY() / 16),
-                (int) Math.floor(pos.getZ() / 16));
+        synchronized (index) {
+            if (index.getHead() == this) {
+                return index.modelAt(pos);
+            }
+        }
+
+        // Subsequent frames have advanced the index; decode the section instead.
+        Vec3i sectionCoord = new Vec3i(ChunkSectionPos.getSectionCoord(pos.getX()),
+                ChunkSectionPos.getSectionCoord(pos.getY()), ChunkSectionPos.getSectionCoord(pos.getZ()));
         
-        NbtCompound section = sectionCache.get(sectionCoord);
+        NbtCompound section;
+        synchronized (sectionCache) {
+            section = sectionCache.get(sectionCoord);
+        }
 
         if (section == null) {
-            for (NbtElement n : data.getList("sections", 10)) {
-                NbtCompound current = (NbtCompound) n;
-                if (current.getInt("x") == sectionCoord.getX()
-                        && current.getInt("y") == sectionCoord.getY()
-                        && current.getInt("z") == sectionCoord.getZ()) {
-                    section = current;
+            EncodedSection current = getSection(sectionCoord.getX(), sectionCoord.getY(), sectionCoord.getZ());
+            if (current != null) {
+                section = current.decode();
+                synchronized (sectionCache) {
                     sectionCache.put(sectionCoord, section);
-                    break;
                 }
             }
         }
 
         if (section == null) {
+            if (emptySections.contains(ChunkSectionPos.asLong(sectionCoord.getX(), sectionCoord.getY(),
+                    sectionCoord.getZ()))) {
+                return MeshWriter.EMPTY_MESH;
+            }
             throw new IndexOutOfBoundsException("Block pos: "+pos+" is not within the Vcap bounds.");
         }
 
         Vec3i relativePos = new Vec3i(Math.floorMod(pos.getX(), 16), Math.floorMod(pos.getY(), 16),
                 Math.floorMod(pos.getZ(), 16));
 
-        int index = section.getIntArray("blocks")[(relativePos.getY() * 16 + relativePos.getZ()) * 16
-                + relativePos.getZ()];
+        int index = SectionLayout.getBlock(section, (relativePos.getY() * 16 + relativePos.getZ()) * 16
+                + relativePos.getX());
 
         return section.getList("palette", 8).getString(index);
     }
 
+    /**
+     * Get the number of sections in this frame.
+     * @return Section count.
+     */
+    public int getNumSections() {
+        return sections.size();
+    }
+
+    @Override
+    public WorldStateIndex getStateIndex() {
+        return index;
+    }
+
     public Map<BlockPos, FluidDomain> getFluids() {
         return fluids;
     }
@@ -171,4 +422,110 @@ public class IFrame implements Frame, FluidConsumer {
             fluids.put(pos, fluid);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Tracks which sections have been written while saving a vcap, so later
+     * frames can refer back to them instead of repeating them. Not
+     * thread-safe; use one instance per file, and write frames in order.
+     */
+    public static class SectionRefs {
+        private final Long2LongMap hashes = new Long2LongOpenHashMap();
+        private final Long2IntMap frames = new Long2IntOpenHashMap();
+        private int frameIndex;
+
+        /**
+         * Set the index of the frame currently being written.
+         * @param frameIndex Index within the vcap's frame list.
+         */
+        public void setFrameIndex(int frameIndex) {
+            this.frameIndex = frameIndex;
+        }
+
+        /**
+         * Find an earlier copy of a section, recording it as written if there
+         * isn't one. Only the last copy written at each position is kept.
+         * @return The index of the frame with the copy, or <code>-1</code>.
+         */
+        private int find(EncodedSection section) {
+            long pos = ChunkSectionPos.asLong(section.x(), section.y(), section.z());
+            if (frames.containsKey(pos) && hashes.get(pos) == section.hash()) {
+                return frames.get(pos);
+            }
+            hashes.put(pos, section.hash());
+            frames.put(pos, frameIndex);
+            return -1;
+        }
+    }
+
+    /**
+     * A section's NBT payload in the packed layout, deflated, along with a
+     * hash of its contents.
+     */
+    private static record EncodedSection(int x, int y, int z, long hash, byte[] data) {
+
+        /**
+         * Hash a section's serialized NBT. This covers its palette, blocks and
+         * colors, along with everything else in the section except the name of
+         * its merged mesh, which is unique to each frame. The mesh itself is
+         * determined by the blocks it merges.
+         * @param section Section NBT.
+         * @return A 64-bit content hash.
+         */
+        static long hash(NbtCompound section) {
+            if (section.contains("mesh")) {
+                section = SectionLayout.shallowCopy(section);
+                section.remove("mesh");
+            }
+            HashingOutputStream hashOut = new HashingOutputStream(Hashing.murmur3_128(), ByteStreams.nullOutputStream());
+            try (DataOutputStream out = new DataOutputStream(hashOut)) {
+                section.write(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return hashOut.hash().asLong();
+        }
+
+        static EncodedSection encode(NbtCompound section) {
+            return encode(section, hash(section));
+        }
+
+        static EncodedSection encode(NbtCompound section, long hash) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(buffer, deflater))) {
+                section.write(out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                deflater.end();
+            }
+            return new EncodedSection(section.getInt("x"), section.getInt("y"), section.getInt("z"), hash,
+                    buffer.toByteArray());
+        }
+
+        NbtCompound decode() {
+            Inflater inflater = new Inflater();
+            try (DataInputStream in = new DataInputStream(
+                    new InflaterInputStream(new ByteArrayInputStream(data), inflater))) {
+                return NbtCompound.TYPE.read(in, NbtTagSizeTracker.ofUnlimitedBytes());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                inflater.end();
+            }
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            Inflater inflater = new Inflater();
+            try (InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(data), inflater)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.Direction;
+
+/**
+ * A section downsampled into cubic cells for a lower level of detail. Each
+ * cell takes the most common block within it, or air if the cell is mostly
+ * empty.
+ */
+final class LodSection {
+    final int level;
+    final int cellSize;
+    final int cellsPerSide;
+
+    private final BlockState[] states;
+    /**
+     * The section-local index of a block in each cell with the cell's state.
+     * Used for colors and fluids.
+     */
+    private final short[] sources;
+
+    /**
+     * Downsample a section.
+     * @param padded The section's blocks.
+     * @param level  Level of detail. Cells are <code>2^level</code> blocks per side.
+     */
+    LodSection(PaddedSection padded, int level) {
+        this.level = level;
+        this.cellSize = 1 << level;
+        this.cellsPerSide = 16 >> level;
+
+        int numCells = cellsPerSide * cellsPerSide * cellsPerSide;
+        states = new BlockState[numCells];
+        sources = new short[numCells];
+
+        Reference2IntMap<BlockState> counts = new Reference2IntOpenHashMap<>();
+        int volume = cellSize * cellSize * cellSize;
+
+        for (int cy = 0; cy < cellsPerSide; cy++) {
+            for (int cz = 0; cz < cellsPerSide; cz++) {
+                for (int cx = 0; cx < cellsPerSide; cx++) {
+                    counts.clear();
+                    int air = 0;
+                    BlockState airState = null;
+                    BlockState best = null;
+                    int bestCount = 0;
+
+                    for (int y = cy * cellSize; y < (cy + 1) * cellSize; y++) {
+                        for (int z = cz * cellSize; z < (cz + 1) * cellSize; z++) {
+                            for (int x = cx * cellSize; x < (cx + 1) * cellSize; x++) {
+                                BlockState state = padded.get(x, y, z);
+                                if (state.isAir()) {
+                                    if (airState == null) airState = state;
+                                    air++;
+                                    continue;
+                                }
+                                int count = counts.mergeInt(state, 1, Integer::sum);
+                                if (count > bestCount) {
+                                    best = state;
+                                    bestCount = count;
+                                }
+                            }
+                        }
+                    }
+
+                    int cell = (cy * cellsPerSide + cz) * cellsPerSide + cx;
+                    if (best == null || air * 2 > volume) {
+                        states[cell] = airState;
+                        sources[cell] = (short) (((cy * cellSize) * 16 + cz * cellSize) * 16 + cx * cellSize);
+                    } else {
+                        states[cell] = best;
+                        sources[cell] = (short) findHighest(padded, best, cx, cy, cz);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Find the highest block in a cell with a given state.
+     * @return The block's section-local index.
+     */
+    private int findHighest(PaddedSection padded, BlockState state, int cx, int cy, int cz) {
+        for (int y = (cy + 1) * cellSize - 1; y >= cy * cellSize; y--) {
+            for (int z = cz * cellSize; z < (cz + 1) * cellSize; z++) {
+                for (int x = cx * cellSize; x < (cx + 1) * cellSize; x++) {
+                    if (padded.get(x, y, z) == state) return (y * 16 + z) * 16 + x;
+                }
+            }
+        }
+        throw new IllegalStateException("State is not in cell.");
+    }
+
+    /**
+     * Get the index of the cell containing a block.
+     */
+    int cellIndex(int x, int y, int z) {
+        return ((y >> level) * cellsPerSide + (z >> level)) * cellsPerSide + (x >> level);
+    }
+
+    /**
+     * Check if a block is the minimum corner of its cell.
+     */
+    boolean isCellOrigin(int x, int y, int z) {
+        return ((x | y | z) & (cellSize - 1)) == 0;
+    }
+
+    BlockState getState(int cell) {
+        return states[cell];
+    }
+
+    /**
+     * Get the section-local index of a block within a cell that has the cell's
+     * state.
+     */
+    int getSource(int cell) {
+        return sources[cell];
+    }
+
+    /**
+     * Get the state adjacent to one side of a cell. Inside the section this is
+     * the neighboring cell. Outside, it's the padding block across from the
+     * center of the face.
+     *
+     * @param padded    The section's blocks.
+     * @param x         X coordinate of the cell's origin.
+     * @param y         Y coordinate of the cell's origin.
+     * @param z         Z coordinate of the cell's origin.
+     * @param direction The side.
+     * @return The neighboring state.
+     */
+    BlockState getNeighbor(PaddedSection padded, int x, int y, int z, Direction direction) {
+        int nx = x + direction.getOffsetX() * cellSize;
+        int ny = y + direction.getOffsetY() * cellSize;
+        int nz = z + direction.getOffsetZ() * cellSize;
+        if (nx >= 0 && nx < 16 && ny >= 0 && ny < 16 && nz >= 0 && nz < 16) {
+            return states[cellIndex(nx, ny, nz)];
+        }
+
+        int half = cellSize / 2;
+        int px = direction.getOffsetX() > 0 ? 16 : direction.getOffsetX() < 0 ? -1 : x + half;
+        int py = direction.getOffsetY() > 0 ? 16 : direction.getOffsetY() < 0 ? -1 : y + half;
+        int pz = direction.getOffsetZ() > 0 ? 16 : direction.getOffsetZ() < 0 ? -1 : z + half;
+        return padded.get(px, py, pz);
+    }
+}
@@ -1,9 +1,5 @@
 package org.scaffoldeditor.worldexport.vcap;
 
-import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -13,6 +9,7 @@ import java.util.Set;
 import java.util.function.BiConsumer;
 
 import org.jetbrains.annotations.Nullable;
+import org.scaffoldeditor.worldexport.util.CompactMesh;
 import org.scaffoldeditor.worldexport.vcap.fluid.FluidBlockEntry;
 import org.scaffoldeditor.worldexport.vcap.model.MaterialProvider;
 import org.scaffoldeditor.worldexport.vcap.model.SpriteMaterialProvider;
@@ -24,10 +21,11 @@ import com.google.common.collect.ImmutableMap;
 import de.javagl.obj.FloatTuple;
 import de.javagl.obj.Obj;
 import de.javagl.obj.ObjFace;
-import de.javagl.obj.Objs;
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 import net.minecraft.block.BlockState;
 import net.minecraft.client.MinecraftClient;
-import net.minecraft.client.render.VertexFormats;
 import net.minecraft.client.render.model.BakedModel;
 import net.minecraft.client.render.model.BakedQuad;
 import net.minecraft.client.texture.Sprite;
@@ -44,13 +42,13 @@ public final class MeshWriter {
     public static final String EMPTY_MESH = "empty";
 
     public static ModelInfo writeBlockMesh(BlockModelEntry entry, Random random) {
-        Obj obj = Objs.create();
+        CompactMesh obj = new CompactMesh();
         BakedModel model = entry.model();
         BlockState blockState = entry.blockState();
         boolean transparent = entry.transparent();
         boolean emissive = entry.emissive();
 
-        List<Set<float[]>> fLayers = new ArrayList<>();
+        FaceLayers fLayers = new FaceLayers();
         Map<String, MaterialProvider> materials = new HashMap<>();
 
         for (Direction direction : Direction.values()) {
@@ -68,22 +66,79 @@ public final class MeshWriter {
             }
         }
         
-        return new ModelInfo(obj, fLayers.size(), materials);
+        return new ModelInfo(obj, fLayers.getNumLayers(), materials);
     }
 
+    /**
+     * Keeps track of how many faces have been placed in the same position, so
+     * coplanar faces (overlays, tints) can be split into separate face layers.
+     */
+    private static final class FaceLayers {
+        /**
+         * The number of faces placed at each quantized face position.
+         */
+        final Long2IntMap counts = new Long2IntOpenHashMap();
+        int numLayers;
+
+        /**
+         * Register a face and get the layer it belongs on.
+         * @param key The face's position key. See {@link MeshWriter#faceKey}.
+         * @return The layer index.
+         */
+        int add(long key) {
+            int layer = counts.addTo(key, 1);
+            if (layer >= numLayers) numLayers = layer + 1;
+            return layer;
+        }
+
+        int getNumLayers() {
+            return numLayers;
+        }
+    }
+
+    /**
+     * The precision, in fractions of a block, to which face positions are
+     * quantized when detecting face layers.
+     */
+    private static final float FACE_KEY_PRECISION = 4096;
+
+    /**
+     * Generate a key representing a face's position. Independent of vertex order.
+     * @param vertices XYZ triplets of the face's vertices.
+     * @param len      Number of vertices.
+     * @return The key.
+     */
+    private static long faceKey(float[] vertices, int len) {
+        long key = len;
+        for (int i = 0; i < len; i++) {
+            long x = Math.round(vertices[i * 3] * FACE_KEY_PRECISION) & 0x1FFFFF;
+            long y = Math.round(vertices[i * 3 + 1] * FACE_KEY_PRECISION) & 0x1FFFFF;
+            long z = Math.round(vertices[i * 3 + 2] * FACE_KEY_PRECISION) & 0x1FFFFF;
+            // Sum so that vertex order doesn't matter.
+            key += HashCommon.mix(x << 42 | y << 21 | z);
+        }
+        return key;
+    }
+
+    /**
+     * The number of ints per vertex in a baked quad's vertex data. Position is
+     * at offset 0 and UV at offset 4.
+     */
+    private static final int VERTEX_STRIDE = 8;
+
     /**
      * Add a baked quad to a 3d mesh.
      * 
      * @param quad             Quad to add.
      * @param obj              Mesh to add to.
      * @param transparent      Assign transparent material.
-     * @param fLayers          A list of sets of 12-float arrays indicating what
-     *                         quads already exist. Used for material stacking.
+     * @param fLayers          Tracks which quads already exist. Used for material
+     *                         stacking.
      * @param materialConsumer For all the generated vcap world materials.
      * @return The face layer index this face was added to.
      */
-    private static int addFace(BakedQuad quad, Obj obj, boolean transparent, boolean emissive,
-            @Nullable List<Set<float[]>> fLayers, BiConsumer<String, MaterialProvider> materialConsumer) {
+    private static int addFace(BakedQuad quad, CompactMesh obj, boolean transparent, boolean emissive,
+            @Nullable FaceLayers fLayers, BiConsumer<String, MaterialProvider> materialConsumer) {
 
         Sprite sprite = quad.getSprite();
 
@@ -106,25 +161,21 @@ public final class MeshWriter {
 
         int[] vertData = quad.getVertexData();
 
-        int len = vertData.length / 8;
-        ByteBuffer buffer = ByteBuffer.allocate(VertexFormats.POSITION_COLOR_TEXTURE_LIGHT_NORMAL.getVertexSizeByte());
-        IntBuffer intBuffer = buffer.asIntBuffer();
+        int len = vertData.length / VERTEX_STRIDE;
 
         int[] indices = new int[len];
-        float[] vertices = new float[len * 4];
+        float[] vertices = new float[len * 3];
 
         for (int i = 0; i < len; i++) {
             indices[i] = obj.getNumVertices();
+            int offset = i * VERTEX_STRIDE;
 
-            intBuffer.clear();
-            intBuffer.put(vertData, i * 8, 8);
-
-            float x = buffer.getFloat(0);
-            float y = buffer.getFloat(4);
-            float z = buffer.getFloat(8);
+            float x = Float.intBitsToFloat(vertData[offset]);
+            float y = Float.intBitsToFloat(vertData[offset + 1]);
+            float z = Float.intBitsToFloat(vertData[offset + 2]);
 
-            float u = buffer.getFloat(16);
-            float v = buffer.getFloat(20);
+            float u = Float.intBitsToFloat(vertData[offset + 4]);
+            float v = Float.intBitsToFloat(vertData[offset + 5]);
 
             // Convert to sprite coordinates
             if (useAnimation) {
@@ -137,31 +188,13 @@ public final class MeshWriter {
 
             vertices[i * 3] = x;
             vertices[i * 3 + 1] = y;
-            vertices[i * 3 + 1] = z;
+            vertices[i * 3 + 2] = z;
         }
 
         // Identify the first layer without this face.
-        int layerIndex = 0;
+        int layerIndex = fLayers != null ? fLayers.add(faceKey(vertices, len)) : 0;
 
-        if (fLayers != null) {
-            if (fLayers.isEmpty()) {
-                fLayers.add(new HashSet<>());
-            }
-
-            int i = 0;
-            Set<float[]> layer = fLayers.get(i);
-            while (contains(layer, vertices)) {
-                i++;
-                if (fLayers.size() >= i) {
-                    fLayers.add(new HashSet<>());
-                }
-                layer = fLayers.get(i);
-            }
-            layerIndex = i;
-            layer.add(vertices);
-        }
-
-        obj.setActiveGroupNames(Arrays.asList(genGroupName(layerIndex)));
+        obj.setActiveGroupName(genGroupName(layerIndex));
         obj.addFace(indices, indices, null);
 
         return layerIndex;
@@ -173,13 +206,13 @@ public final class MeshWriter {
             throw new IllegalArgumentException("Supplied blockstate must be a fluid.");
         }
 
-        Obj mesh = Objs.create();
+        CompactMesh mesh = new CompactMesh();
         VcapWorldMaterial material = new VcapWorldMaterial(true, true,
                 state.getLuminance() > BlockExporter.EMISSIVE_THRESHOLD);
         mesh.setActiveMaterialGroupName(material.getName());
 
         Vec3d offset = new Vec3d(-(pos.getX() & 15), -(pos.getY() & 15), -(pos.getZ() & 15));
-        ObjVertexConsumer consumer = new ObjVertexConsumer(mesh, offset);
+        CompactVertexConsumer consumer = new CompactVertexConsumer(mesh, offset);
 
         MinecraftClient.getInstance().getBlockRenderManager().renderFluid(pos, world, consumer, state, state.getFluidState());
 
@@ -191,13 +224,6 @@ public final class MeshWriter {
         return (globalVal - globalMin) / (globalMax - globalMin);
     }
 
-    private static boolean contains(Collection<float[]> collection, float[] array) {
-        for (float[] val : collection) {
-            if (Arrays.equals(val, array)) return true;
-        }
-        return false;
-    }
-    
     public static String genGroupName(int index) {
         return "fLayer"+index;
     }
@@ -0,0 +1,75 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtIntArray;
+import net.minecraft.nbt.NbtList;
+
+/**
+ * A palette of model IDs shared by every section and frame in a vcap. When
+ * it's in use, the <code>palette</code> tags in <code>world.dat</code> hold
+ * indices into this palette rather than the model IDs themselves, and the
+ * palette is written once to <code>meta.json</code>. Not thread-safe.
+ */
+public class ModelPalette {
+    private final List<String> ids = new ArrayList<>();
+    private final Object2IntMap<String> indices = new Object2IntOpenHashMap<>();
+
+    public ModelPalette() {
+        indices.defaultReturnValue(-1);
+    }
+
+    /**
+     * Get the index of a model ID, adding it to the palette if it's not there
+     * already.
+     * @param id The model ID.
+     * @return The index.
+     */
+    public int indexOf(String id) {
+        int index = indices.getInt(id);
+        if (index < 0) {
+            index = ids.size();
+            ids.add(id);
+            indices.put(id, index);
+        }
+        return index;
+    }
+
+    /**
+     * Get the model IDs in this palette, in index order.
+     * @return An unmodifiable view of the model IDs.
+     */
+    public List<String> getIds() {
+        return Collections.unmodifiableList(ids);
+    }
+
+    /**
+     * Convert a list of model IDs to their indices in this palette.
+     * @param palette A list of string tags.
+     * @return The indices, in the same order.
+     */
+    public NbtIntArray toIndices(NbtList palette) {
+        int[] values = new int[palette.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = indexOf(palette.getString(i));
+        }
+        return new NbtIntArray(values);
+    }
+
+    /**
+     * Replace the <code>palette</code> tag of a section or frame with indices
+     * into this palette.
+     * @param compound The section or frame NBT. Modified in place.
+     * @return <code>compound</code>
+     */
+    public NbtCompound apply(NbtCompound compound) {
+        compound.put("palette", toIndices(compound.getList("palette", NbtElement.STRING_TYPE)));
+        return compound;
+    }
+}
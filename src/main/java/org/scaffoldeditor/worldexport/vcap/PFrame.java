@@ -1,5 +1,7 @@
 package org.scaffoldeditor.worldexport.vcap;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -8,9 +10,14 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
+import javax.annotation.Nullable;
+
+import org.scaffoldeditor.worldexport.vcap.VcapSettings.PFrameFormat;
 import org.scaffoldeditor.worldexport.vcap.fluid.FluidDomain;
 import org.scaffoldeditor.worldexport.world_snapshot.ChunkView;
 
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import net.minecraft.block.BlockState;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.fluid.Fluid;
@@ -18,10 +25,12 @@ import net.minecraft.fluid.FluidState;
 import net.minecraft.nbt.NbtByte;
 import net.minecraft.nbt.NbtCompound;
 import net.minecraft.nbt.NbtInt;
+import net.minecraft.nbt.NbtIntArray;
 import net.minecraft.nbt.NbtList;
 import net.minecraft.nbt.NbtString;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkPos;
+import net.minecraft.util.math.ChunkSectionPos;
 import net.minecraft.util.math.Direction;
 
 public class PFrame implements Frame {
@@ -51,6 +60,7 @@ public class PFrame implements Frame {
 
         PFrame frame = new PFrame(world, previous, timestamp);
         frame.capture(blocks, context);
+        frame.updateIndex();
         return frame;
     }
 
@@ -62,6 +72,8 @@ public class PFrame implements Frame {
     private Set<BlockPos> handledFluids = new HashSet<>();
 
     protected Optional<Frame> previous;
+    @Nullable
+    private WorldStateIndex index;
     public final double timestamp;
     public final ChunkView world;
 
@@ -88,15 +100,21 @@ public class PFrame implements Frame {
             if (context.getSettings().exportDynamicFluids() && !world.getBlockState(pos).getFluidState().isEmpty()) {
                 fluidPositions.add(pos);
             } else {
-                putBlock(pos, BlockExporter.exportBlock(world, pos, context), world.getBlockState(pos));
+                String newId = BlockExporter.exportBlock(world, pos, context);
+                // Updates that net out to no change, such as a block flipping back and forth, are dropped.
+                if (!newId.equals(previousModelAt(pos))) {
+                    putBlock(pos, newId, world.getBlockState(pos));
+                }
             }
 
-            states.put(pos, world.getBlockState(pos));
             // Check adjacent blocks.
             for (Direction dir : Direction.values()) {
                 BlockPos adjacent = pos.offset(dir);
                 if (!context.getSettings().isInExport(pos)) continue;
                 if (updated.containsKey(adjacent)) continue;
+                // Downsampled sections hold each cell's model on every block, so
+                // comparing against a full-detail export would always differ.
+                if (isDownsampled(adjacent, context)) continue;
                 
                 if (getPrevious().fluidAt(adjacent).isPresent()) {
                     fluidPositions.add(adjacent);
@@ -120,6 +138,28 @@ public class PFrame implements Frame {
         }
     }
 
+    /**
+     * Check if a block is in a section that was captured at a lower level of
+     * detail.
+     */
+    private static boolean isDownsampled(BlockPos pos, ExportContext context) {
+        return context.getSettings().getLodLevel(ChunkSectionPos.getSectionCoord(pos.getX()),
+                ChunkSectionPos.getSectionCoord(pos.getY()), ChunkSectionPos.getSectionCoord(pos.getZ())) > 0;
+    }
+
+    /**
+     * Get the model at a position in the previous frame.
+     * @return The model ID, or <code>null</code> if it's outside the previous frame.
+     */
+    @Nullable
+    private String previousModelAt(BlockPos pos) {
+        try {
+            return getPrevious().modelAt(pos);
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
     @Deprecated
     private void genFluid(BlockPos pos, ChunkView world, ExportContext context) {
         if (!context.getSettings().exportDynamicFluids()) return;
@@ -184,55 +224,151 @@ public class PFrame implements Frame {
 
     @Override
     public NbtCompound getFrameData() {
+        return getFrameData(PFrameFormat.COMPOUND);
+    }
+
+    /**
+     * Get the NBT data representing the frame in a specific layout.
+     * @param format The layout to use.
+     * @return Frame NBT data.
+     */
+    public NbtCompound getFrameData(PFrameFormat format) {
+        if (format == PFrameFormat.PACKED) {
+            return getPackedFrameData();
+        }
+
         NbtCompound frame = new NbtCompound();
         frame.putByte("type", PREDICTED_TYPE);
         frame.putDouble("time", timestamp);
         
         NbtList updates = new NbtList();
         List<String> palette = new ArrayList<>();
-        for (BlockPos pos : updated.keySet()) {
-            String id = updated.get(pos);
+        Object2IntMap<String> paletteIndices = new Object2IntOpenHashMap<>();
+        paletteIndices.defaultReturnValue(-1);
 
-            NbtCompound entry = new NbtCompound();
-            int index = palette.indexOf(id);
-            if (index < 0) {
-                index = palette.size();
-                palette.add(id);
-            }
+        for (Map.Entry<BlockPos, String> update : updated.entrySet()) {
+            BlockPos pos = update.getKey();
 
-            entry.putInt("state", index);
+            NbtCompound entry = new NbtCompound();
+            entry.putInt("state", paletteIndex(update.getValue(), palette, paletteIndices));
             NbtList posTag = new NbtList();
-            List.of(pos.getX(), pos.getY(), pos.getZ()).forEach(val -> posTag.add(NbtInt.of(val)));
+            posTag.add(NbtInt.of(pos.getX()));
+            posTag.add(NbtInt.of(pos.getY()));
+            posTag.add(NbtInt.of(pos.getZ()));
             entry.put("pos", posTag);
 
-            BlockState state = states.get(pos);
-            if (state == null) {
-                throw new IllegalStateException("Vcap: Block at "+pos+" is missing a blockstate entry!");
-            }
-
-            int color = client.getBlockColors().getColor(state, world, pos, 0);
-
-            byte r = (byte)(color >> 16 & 255);
-            byte g = (byte)(color >> 8 & 255);
-            byte b = (byte)(color & 255);
+            int color = getColor(pos);
 
             NbtList colorTag = new NbtList();
-            List.of(r, g, b).forEach(val -> colorTag.add(NbtByte.of(val)));
+            colorTag.add(NbtByte.of((byte) (color >> 16 & 255)));
+            colorTag.add(NbtByte.of((byte) (color >> 8 & 255)));
+            colorTag.add(NbtByte.of((byte) (color & 255)));
             entry.put("color", colorTag);
 
             updates.add(entry);
         }
 
         frame.put("blocks", updates);
-        NbtList paletteTag = new NbtList();
-        palette.forEach(val -> paletteTag.add(NbtString.of(val)));
-        frame.put("palette", paletteTag);
+        frame.put("palette", writePalette(palette));
 
         return frame;
     }
 
+    private NbtCompound getPackedFrameData() {
+        int size = updated.size();
+        int[] positions = new int[size * 3];
+        int[] stateIndices = new int[size];
+        int[] colors = new int[size];
+
+        List<String> palette = new ArrayList<>();
+        Object2IntMap<String> paletteIndices = new Object2IntOpenHashMap<>();
+        paletteIndices.defaultReturnValue(-1);
+
+        int i = 0;
+        for (Map.Entry<BlockPos, String> update : updated.entrySet()) {
+            BlockPos pos = update.getKey();
+            positions[i * 3] = pos.getX();
+            positions[i * 3 + 1] = pos.getY();
+            positions[i * 3 + 2] = pos.getZ();
+            stateIndices[i] = paletteIndex(update.getValue(), palette, paletteIndices);
+            colors[i] = getColor(pos) & 0xFFFFFF;
+            i++;
+        }
+
+        NbtCompound frame = new NbtCompound();
+        frame.putByte("type", PREDICTED_TYPE);
+        frame.putDouble("time", timestamp);
+        frame.put("positions", new NbtIntArray(positions));
+        frame.put("states", new NbtIntArray(stateIndices));
+        frame.put("colors", new NbtIntArray(colors));
+        frame.put("palette", writePalette(palette));
+        return frame;
+    }
+
+    /**
+     * Write this frame's NBT payload in a specific layout.
+     * @param out    Output to write to.
+     * @param format The layout to use.
+     * @throws IOException If an IO exception occurs.
+     */
+    public void write(DataOutput out, PFrameFormat format) throws IOException {
+        write(out, format, null);
+    }
+
+    /**
+     * Write this frame's NBT payload in a specific layout.
+     * @param out     Output to write to.
+     * @param format  The layout to use.
+     * @param palette If set, the frame's palette is written as indices into this
+     *                palette.
+     * @throws IOException If an IO exception occurs.
+     */
+    public void write(DataOutput out, PFrameFormat format, @Nullable ModelPalette palette) throws IOException {
+        NbtCompound frame = getFrameData(format);
+        if (palette != null) {
+            palette.apply(frame);
+        }
+        frame.write(out);
+    }
+
+    private static int paletteIndex(String id, List<String> palette, Object2IntMap<String> paletteIndices) {
+        int index = paletteIndices.getInt(id);
+        if (index < 0) {
+            index = palette.size();
+            palette.add(id);
+            paletteIndices.put(id, index);
+        }
+        return index;
+    }
+
+    private static NbtList writePalette(List<String> palette) {
+        NbtList paletteTag = new NbtList();
+        for (String id : palette) {
+            paletteTag.add(NbtString.of(id));
+        }
+        return paletteTag;
+    }
+
+    private int getColor(BlockPos pos) {
+        BlockState state = states.get(pos);
+        if (state == null) {
+            throw new IllegalStateException("Vcap: Block at "+pos+" is missing a blockstate entry!");
+        }
+        if (!BlockTints.hasTint(state)) return BlockTints.UNTINTED;
+        return client.getBlockColors().getColor(state, world, pos, 0);
+    }
+
     @Override
     public String modelAt(BlockPos pos) throws IndexOutOfBoundsException {
+        WorldStateIndex index = this.index;
+        if (index != null) {
+            synchronized (index) {
+                if (index.getHead() == this) {
+                    return index.modelAt(pos);
+                }
+            }
+        }
+
         if (updated.containsKey(pos)) {
             return updated.get(pos);
         } else {
@@ -242,12 +378,58 @@ public class PFrame implements Frame {
 
     @Override
     public Optional<FluidDomain> fluidAt(BlockPos pos) {
+        WorldStateIndex index = this.index;
+        if (index != null) {
+            synchronized (index) {
+                if (index.getHead() == this) {
+                    return index.fluidAt(pos);
+                }
+            }
+        }
+
         if (fluids.containsKey(pos)) {
             return Optional.of(fluids.get(pos));
         } else {
             return getPrevious().fluidAt(pos);
         }
     }
+
+    /**
+     * Get the number of blocks this frame updates.
+     * @return Updated block count.
+     */
+    public int getNumUpdated() {
+        return updated.size();
+    }
+
+    @Override
+    public WorldStateIndex getStateIndex() {
+        return index;
+    }
+
+    /**
+     * If the previous frame is the head of a world state index, apply this
+     * frame's changes to it and make this frame the new head. Otherwise, this
+     * frame will answer queries by walking the frame chain.
+     */
+    public void updateIndex() {
+        WorldStateIndex index = getPrevious().getStateIndex();
+        if (index == null) {
+            this.index = null;
+            return;
+        }
+
+        synchronized (index) {
+            if (index.getHead() != getPrevious()) {
+                this.index = null;
+                return;
+            }
+            updated.forEach(index::put);
+            index.putFluids(fluids);
+            index.setHead(this);
+            this.index = index;
+        }
+    }
     
     /**
      * Get the previous frame, or an empty frame if no previous was set.
@@ -257,8 +439,23 @@ public class PFrame implements Frame {
         return previous.orElse(Frame.EMPTY);
     }
 
+    /**
+     * Set the previous frame. If this frame was the head of a world state index,
+     * that index is invalidated, as it no longer reflects this frame's state.
+     * Call {@link #updateIndex()} afterwards to rejoin the new previous frame's
+     * index.
+     * 
+     * @param previous The new previous frame.
+     */
     public void setPrevious(Optional<Frame> previous) {
+        WorldStateIndex index = this.index;
+        if (index != null) {
+            synchronized (index) {
+                if (index.getHead() == this) index.setHead(null);
+            }
+            this.index = null;
+        }
         this.previous = previous;
     }
     
-}
\ No newline at end of file
+}
@@ -0,0 +1,130 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import org.scaffoldeditor.worldexport.world_snapshot.ChunkView;
+import org.scaffoldeditor.worldexport.world_snapshot.SectionView;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.fluid.FluidState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.BlockView;
+
+/**
+ * A copy of the block states in a section along with a one-block border from
+ * the neighboring sections, so face visibility can be computed without going
+ * back to the world. Only the six face-adjacent slabs of the border are
+ * loaded; edges and corners fall back to the world.
+ */
+public class PaddedSection implements BlockView {
+    public static final int SIZE = 18;
+
+    private final ChunkView world;
+    private final BlockState[] states = new BlockState[SIZE * SIZE * SIZE];
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+
+    /**
+     * Load a padded section from the world.
+     *
+     * @param world    The world to load from.
+     * @param section  A view of the center section.
+     * @param sectionX Section X coordinate.
+     * @param sectionY Section Y coordinate.
+     * @param sectionZ Section Z coordinate.
+     */
+    public PaddedSection(ChunkView world, SectionView section, int sectionX, int sectionY, int sectionZ) {
+        this.world = world;
+        this.minX = sectionX * 16;
+        this.minY = sectionY * 16;
+        this.minZ = sectionZ * 16;
+
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    states[index(x, y, z)] = section.getBlockState(x, y, z);
+                }
+            }
+        }
+
+        SectionView down = world.getSection(sectionX, sectionY - 1, sectionZ);
+        SectionView up = world.getSection(sectionX, sectionY + 1, sectionZ);
+        for (int z = 0; z < 16; z++) {
+            for (int x = 0; x < 16; x++) {
+                states[index(x, -1, z)] = down.getBlockState(x, 15, z);
+                states[index(x, 16, z)] = up.getBlockState(x, 0, z);
+            }
+        }
+
+        SectionView north = world.getSection(sectionX, sectionY, sectionZ - 1);
+        SectionView south = world.getSection(sectionX, sectionY, sectionZ + 1);
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 16; x++) {
+                states[index(x, y, -1)] = north.getBlockState(x, y, 15);
+                states[index(x, y, 16)] = south.getBlockState(x, y, 0);
+            }
+        }
+
+        SectionView west = world.getSection(sectionX - 1, sectionY, sectionZ);
+        SectionView east = world.getSection(sectionX + 1, sectionY, sectionZ);
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                states[index(-1, y, z)] = west.getBlockState(15, y, z);
+                states[index(16, y, z)] = east.getBlockState(0, y, z);
+            }
+        }
+    }
+
+    private static int index(int x, int y, int z) {
+        return ((y + 1) * SIZE + (z + 1)) * SIZE + (x + 1);
+    }
+
+    /**
+     * Get a block state relative to the section's origin.
+     *
+     * @param x Local X coordinate, from <code>-1</code> to <code>16</code>.
+     * @param y Local Y coordinate, from <code>-1</code> to <code>16</code>.
+     * @param z Local Z coordinate, from <code>-1</code> to <code>16</code>.
+     * @return The block state.
+     */
+    public BlockState get(int x, int y, int z) {
+        BlockState state = states[index(x, y, z)];
+        if (state == null) {
+            // Edge or corner of the border.
+            state = world.getBlockState(new BlockPos(minX + x, minY + y, minZ + z));
+            states[index(x, y, z)] = state;
+        }
+        return state;
+    }
+
+    @Override
+    public BlockState getBlockState(BlockPos pos) {
+        int x = pos.getX() - minX;
+        int y = pos.getY() - minY;
+        int z = pos.getZ() - minZ;
+        if (x < -1 || x > 16 || y < -1 || y > 16 || z < -1 || z > 16) {
+            return world.getBlockState(pos);
+        }
+        return get(x, y, z);
+    }
+
+    @Override
+    public FluidState getFluidState(BlockPos pos) {
+        return getBlockState(pos).getFluidState();
+    }
+
+    @Override
+    public BlockEntity getBlockEntity(BlockPos pos) {
+        return world.getBlockEntity(pos);
+    }
+
+    @Override
+    public int getHeight() {
+        return world.getHeight();
+    }
+
+    @Override
+    public int getBottomY() {
+        return world.getBottomY();
+    }
+}
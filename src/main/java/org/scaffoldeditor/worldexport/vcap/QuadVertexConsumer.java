@@ -0,0 +1,132 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import org.joml.Matrix4d;
+import org.joml.Matrix4dc;
+import org.joml.Vector3d;
+import org.joml.Vector3dc;
+import org.joml.Vector3f;
+
+import net.minecraft.client.render.VertexConsumer;
+import net.minecraft.util.math.Vec3d;
+
+/**
+ * A vertex consumer that collects vertices into quads and hands each completed
+ * quad to a mesh. Vertex data is buffered in reusable arrays, so no allocation
+ * happens per-vertex.
+ */
+public abstract class QuadVertexConsumer implements VertexConsumer {
+    private Matrix4dc transform;
+    private final Vector3d posCache = new Vector3d();
+    private final Vector3f normalCache = new Vector3f();
+
+    /**
+     * XYZ triplets of the current quad's positions.
+     */
+    protected final float[] positions = new float[12];
+    /**
+     * XYZ triplets of the current quad's normals.
+     */
+    protected final float[] normals = new float[12];
+    /**
+     * UV pairs of the current quad's texture coordinates. V is already flipped
+     * into OBJ space.
+     */
+    protected final float[] texCoords = new float[8];
+    private int head = 0;
+
+    protected QuadVertexConsumer(Matrix4dc transform) {
+        this.transform = transform;
+    }
+
+    protected QuadVertexConsumer() {
+        this(new Matrix4d());
+    }
+
+    public Matrix4dc getTransform() {
+        return transform;
+    }
+
+    public void setTransform(Matrix4dc transform) {
+        this.transform = transform;
+    }
+
+    public void setTransform(Vec3d offset) {
+        setTransform(offset.getX(), offset.getY(), offset.getZ());
+    }
+
+    public void setTransform(Vector3dc offset) {
+        Matrix4d transform = new Matrix4d();
+        this.transform = transform.translate(offset);
+    }
+
+    public void setTransform(double x, double y, double z) {
+        Matrix4d transform = new Matrix4d();
+        this.transform = transform.translate(x, y, z);
+    }
+
+    /**
+     * Called once four vertices have been buffered. The buffers are overwritten
+     * by the next quad, so implementations must copy anything they need.
+     */
+    protected abstract void addQuad();
+
+    @Override
+    public QuadVertexConsumer vertex(double x, double y, double z) {
+        posCache.set(x, y, z).mulPosition(transform);
+        positions[head * 3] = (float) posCache.x();
+        positions[head * 3 + 1] = (float) posCache.y();
+        positions[head * 3 + 2] = (float) posCache.z();
+        return this;
+    }
+
+    @Override
+    public QuadVertexConsumer color(int red, int green, int blue, int alpha) {
+        return this;
+    }
+
+    @Override
+    public QuadVertexConsumer texture(float u, float v) {
+        texCoords[head * 2] = u;
+        texCoords[head * 2 + 1] = 1 - v;
+        return this;
+    }
+
+    @Override
+    public QuadVertexConsumer overlay(int u, int v) {
+        return this;
+    }
+
+    @Override
+    public QuadVertexConsumer light(int u, int v) {
+        return this;
+    }
+
+    @Override
+    public QuadVertexConsumer normal(float x, float y, float z) {
+        normalCache.set(x, y, z).mulDirection(transform);
+        normals[head * 3] = normalCache.x();
+        normals[head * 3 + 1] = normalCache.y();
+        normals[head * 3 + 2] = normalCache.z();
+        return this;
+    }
+
+    @Override
+    public void next() {
+        if (head >= 3) {
+            addQuad();
+            head = 0;
+        } else {
+            head++;
+        }
+    }
+
+    @Override
+    public void fixedColor(int red, int green, int blue, int alpha) {
+
+    }
+
+    @Override
+    public void unfixColor() {
+
+    }
+}
@@ -0,0 +1,126 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import org.scaffoldeditor.worldexport.util.PackedIntArray;
+
+import net.minecraft.nbt.NbtByteArray;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtIntArray;
+import net.minecraft.nbt.NbtLongArray;
+
+/**
+ * Converts the <code>blocks</code> tag of IFrame sections between the int
+ * array layout and the bit-packed layout. In the packed layout, the tag is a
+ * long array of palette indices with just enough bits per entry for the
+ * section's palette. In the packed layout, a section with only one palette
+ * entry may leave out the tag entirely, meaning every block is index
+ * <code>0</code>, and likewise for the <code>colors</code> tag. The int array
+ * layout is kept readable by older importers, so it always has both.
+ *
+ * @see VcapSettings.SectionFormat
+ */
+final class SectionLayout {
+    private SectionLayout() {}
+
+    private static final int SECTION_VOLUME = 16 * 16 * 16;
+
+    /**
+     * Check if a section uses the packed layout.
+     * @param section Section NBT.
+     * @return If its <code>blocks</code> tag is a long array.
+     */
+    static boolean isPacked(NbtCompound section) {
+        return section.contains("blocks", NbtElement.LONG_ARRAY_TYPE);
+    }
+
+    /**
+     * Get the number of bits per entry a section's blocks are packed with.
+     * @param section Section NBT.
+     * @return Bits per entry.
+     */
+    static int getBits(NbtCompound section) {
+        return PackedIntArray.bitsFor(section.getList("palette", NbtElement.STRING_TYPE).size());
+    }
+
+    /**
+     * Get the palette indices of a section's blocks, in either layout.
+     * @param section Section NBT.
+     * @return The palette indices.
+     */
+    static int[] getBlocks(NbtCompound section) {
+        if (!section.contains("blocks")) {
+            return new int[SECTION_VOLUME];
+        }
+        if (!isPacked(section)) {
+            return section.getIntArray("blocks");
+        }
+        return new PackedIntArray(getBits(section), SECTION_VOLUME, section.getLongArray("blocks")).toIntArray();
+    }
+
+    /**
+     * Get the palette index of a single block, in either layout.
+     * @param section Section NBT.
+     * @param index   Index of the block within the section.
+     * @return The palette index.
+     */
+    static int getBlock(NbtCompound section, int index) {
+        if (!section.contains("blocks")) {
+            return 0;
+        }
+        if (!isPacked(section)) {
+            return section.getIntArray("blocks")[index];
+        }
+        return new PackedIntArray(getBits(section), SECTION_VOLUME, section.getLongArray("blocks")).get(index);
+    }
+
+    /**
+     * Convert a section to the packed layout.
+     * @param section Section NBT. Not modified.
+     * @return A shallow copy of the section in the packed layout, or the
+     *         section itself if it's already packed.
+     */
+    static NbtCompound pack(NbtCompound section) {
+        if (isPacked(section) || !section.contains("blocks")) return section;
+        NbtCompound packed = shallowCopy(section);
+        PackedIntArray blocks = PackedIntArray.of(section.getIntArray("blocks"), getBits(section));
+        packed.put("blocks", new NbtLongArray(blocks.getData()));
+        return packed;
+    }
+
+    /**
+     * Convert a section to the int array layout, filling in any arrays that
+     * were left out.
+     * @param section Section NBT. Not modified.
+     * @return A shallow copy of the section in the int array layout, or the
+     *         section itself if it's already in it.
+     */
+    static NbtCompound unpack(NbtCompound section) {
+        boolean missingColors = isMissingColors(section);
+        if (!isPacked(section) && section.contains("blocks") && !missingColors) return section;
+        NbtCompound unpacked = shallowCopy(section);
+        unpacked.put("blocks", new NbtIntArray(getBlocks(section)));
+        if (missingColors) {
+            unpacked.put("colors", new NbtByteArray(new byte[SECTION_VOLUME]));
+        }
+        return unpacked;
+    }
+
+    /**
+     * Check if a section left out its <code>colors</code> tag despite having
+     * a color to use.
+     */
+    private static boolean isMissingColors(NbtCompound section) {
+        return !section.contains("colors") && section.getByteArray("colorPalette").length > 0;
+    }
+
+    /**
+     * Copy a compound without copying its elements, which are only ever read.
+     */
+    static NbtCompound shallowCopy(NbtCompound compound) {
+        NbtCompound copy = new NbtCompound();
+        for (String key : compound.getKeys()) {
+            copy.put(key, compound.get(key));
+        }
+        return copy;
+    }
+}
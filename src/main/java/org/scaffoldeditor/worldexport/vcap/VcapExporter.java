@@ -1,14 +1,18 @@
 package org.scaffoldeditor.worldexport.vcap;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -16,6 +20,9 @@ import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -30,9 +37,14 @@ import org.scaffoldeditor.worldexport.mat.PromisedReplayTexture;
 import org.scaffoldeditor.worldexport.mat.ReplayTexture;
 import org.scaffoldeditor.worldexport.mat.TextureExtractor;
 import org.scaffoldeditor.worldexport.mat.TextureSerializer;
+import org.scaffoldeditor.worldexport.mesh.MeshEncoder;
 import org.scaffoldeditor.worldexport.replaymod.util.ExportPhase;
+import org.scaffoldeditor.worldexport.util.FutureUtils;
+import org.scaffoldeditor.worldexport.util.NbtStreamWriter;
 import org.scaffoldeditor.worldexport.util.ZipEntryOutputStream;
 import org.scaffoldeditor.worldexport.vcap.BlockExporter.CaptureCallback;
+import org.scaffoldeditor.worldexport.vcap.VcapSettings.PFrameFormat;
+import org.scaffoldeditor.worldexport.vcap.VcapSettings.SectionFormat;
 import org.scaffoldeditor.worldexport.vcap.model.MaterialProvider;
 import org.scaffoldeditor.worldexport.vcap.model.ModelProvider;
 import org.scaffoldeditor.worldexport.vcap.model.ModelProvider.ModelInfo;
@@ -42,13 +54,11 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.mojang.blaze3d.systems.RenderSystem;
 
-import de.javagl.obj.ObjWriter;
 import de.javagl.obj.Objs;
 import de.javagl.obj.ReadableObj;
 import net.minecraft.block.BlockState;
-import net.minecraft.nbt.NbtCompound;
-import net.minecraft.nbt.NbtIo;
-import net.minecraft.nbt.NbtList;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.util.Util;
 import net.minecraft.util.math.BlockBox;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
@@ -129,17 +139,42 @@ public class VcapExporter {
      *                     or extracting the texture.
      */
     public void save(OutputStream os, Consumer<String> phaseConsumer) throws IOException {
+        // Make sure any keyframe that's still being captured makes it into the file.
+        CompletableFuture<IFrame> pendingKeyframe = this.pendingKeyframe;
+        if (pendingKeyframe != null) pendingKeyframe.join();
+
         ZipOutputStream out = new ZipOutputStream(os);
 
         // WORLD
         phaseConsumer.accept(ExportPhase.COMPILING_FRAMES);
-        NbtList frames = new NbtList();
-        this.frames.forEach(frame -> frames.add(frame.getFrameData()));
-        NbtCompound worldData = new NbtCompound();
-        worldData.put("frames", frames);
+        List<Frame> frameList;
+        synchronized (frames) {
+            frameList = new ArrayList<>(frames);
+        }
 
         out.putNextEntry(new ZipEntry("world.dat"));
-        NbtIo.write(worldData, new DataOutputStream(out));
+        // Stream frames one at a time rather than building the whole tree.
+        DataOutputStream worldOut = new DataOutputStream(out);
+        NbtStreamWriter worldWriter = new NbtStreamWriter(worldOut);
+        worldWriter.beginRoot();
+        worldWriter.beginList("frames", NbtElement.COMPOUND_TYPE, frameList.size());
+        PFrameFormat pFrameFormat = getSettings().getPFrameFormat();
+        SectionFormat sectionFormat = getSettings().getSectionFormat();
+        ModelPalette palette = getSettings().useGlobalPalette() ? new ModelPalette() : null;
+        IFrame.SectionRefs sectionRefs = getSettings().useSectionRefs() ? new IFrame.SectionRefs() : null;
+        for (int i = 0; i < frameList.size(); i++) {
+            Frame frame = frameList.get(i);
+            if (frame instanceof PFrame pFrame) {
+                pFrame.write(worldOut, pFrameFormat, palette);
+            } else if (frame instanceof IFrame iFrame) {
+                if (sectionRefs != null) sectionRefs.setFrameIndex(i);
+                iFrame.write(worldOut, sectionFormat, palette, sectionRefs);
+            } else {
+                frame.write(worldOut);
+            }
+        }
+        worldWriter.endCompound();
+        worldOut.flush();
         out.closeEntry();
 
         Map<String, MaterialProvider> materials = new HashMap<>(context.materials);
@@ -148,23 +183,49 @@ public class VcapExporter {
         int numLayers = 0;
 
         phaseConsumer.accept(ExportPhase.MESHES);
-        for (Map.Entry<String, ModelProvider> entry : context.models.entrySet()) {
-            String id = entry.getKey();
-            ModelProvider modelProvider = entry.getValue();
-
-            LOGGER.debug("Writing mesh: "+id);
-            ModelInfo model = modelProvider.writeMesh();
-            writeMesh(model.mesh(), id, out);
+        int meshThreads = getSettings().getMeshThreads();
+        ExecutorService meshExecutor = null;
+        Executor executor = Runnable::run;
+        if (meshThreads > 1) {
+            AtomicInteger threadIndex = new AtomicInteger();
+            meshExecutor = Executors.newFixedThreadPool(meshThreads,
+                    r -> new Thread(r, "Vcap Mesh Writer " + threadIndex.getAndIncrement()));
+            executor = meshExecutor;
+        }
 
-            if (model.numLayers() > numLayers) {
-                numLayers = model.numLayers();
+        try {
+            // Meshes are generated and encoded on the worker pool, but written in
+            // order on this thread. Limit how many are in flight so encoded meshes
+            // don't pile up in memory.
+            int maxPending = meshThreads * 4;
+            Iterator<Map.Entry<String, ModelProvider>> iterator = new ArrayList<>(context.models.entrySet()).iterator();
+            Deque<CompletableFuture<EncodedMesh>> pending = new ArrayDeque<>();
+            MeshEncoder meshEncoder = getSettings().getMeshEncoder();
+
+            while (iterator.hasNext() || !pending.isEmpty()) {
+                while (iterator.hasNext() && pending.size() < maxPending) {
+                    Map.Entry<String, ModelProvider> entry = iterator.next();
+                    pending.add(FutureUtils.supplyAsync(() -> encodeMesh(entry.getKey(), entry.getValue(), meshEncoder), executor));
+                }
+
+                EncodedMesh mesh = joinMesh(pending.poll());
+                ZipEntry modelEntry = new ZipEntry("mesh/" + mesh.id() + "." + meshEncoder.getFileExtension());
+                out.putNextEntry(modelEntry);
+                out.write(mesh.data());
+                out.closeEntry();
+
+                if (mesh.numLayers() > numLayers) {
+                    numLayers = mesh.numLayers();
+                }
+
+                mesh.materials().forEach(materials::putIfAbsent);
             }
-
-            model.materials().forEach(materials::putIfAbsent);
+        } finally {
+            if (meshExecutor != null) meshExecutor.shutdownNow();
         }
 
         // Fluid meshes assume empty mesh is written.
-        writeMesh(Objs.create(), MeshWriter.EMPTY_MESH, out);
+        writeMesh(Objs.create(), MeshWriter.EMPTY_MESH, getSettings().getMeshEncoder(), out);
 
         // MATERIALS
 
@@ -189,6 +250,13 @@ public class VcapExporter {
         // META
         LOGGER.info(ExportPhase.VCAP_META);
         VcapMeta meta = new VcapMeta(numLayers);
+        meta.pFrameFormat = pFrameFormat.getId();
+        meta.sectionFormat = sectionFormat.getId();
+        if (palette != null) {
+            meta.palette = new ArrayList<>(palette.getIds());
+        }
+        meta.meshEncoding = getSettings().getMeshEncoder().getId();
+        meta.meshingMode = getSettings().getMeshingMode().getId();
         context.getIDMapping(meta.blockTypes);
         Gson gson = new GsonBuilder()
             .setPrettyPrinting()
@@ -205,10 +273,29 @@ public class VcapExporter {
         out.finish();
     }
 
-    private static void writeMesh(ReadableObj mesh, String id, ZipOutputStream out) throws IOException {
-        ZipEntry modelEntry = new ZipEntry("mesh/"+id+".obj");
-        out.putNextEntry(modelEntry);   
-        ObjWriter.write(mesh, out);
+    private static record EncodedMesh(String id, byte[] data, int numLayers, Map<String, MaterialProvider> materials) {}
+
+    private static EncodedMesh encodeMesh(String id, ModelProvider modelProvider, MeshEncoder encoder) throws IOException {
+        LOGGER.debug("Writing mesh: "+id);
+        ModelInfo model = modelProvider.writeMesh();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        encoder.encode(model.mesh(), buffer);
+        return new EncodedMesh(id, buffer.toByteArray(), model.numLayers(), model.materials());
+    }
+
+    private static EncodedMesh joinMesh(CompletableFuture<EncodedMesh> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioe) throw ioe;
+            throw e;
+        }
+    }
+
+    private static void writeMesh(ReadableObj mesh, String id, MeshEncoder encoder, ZipOutputStream out) throws IOException {
+        ZipEntry modelEntry = new ZipEntry("mesh/" + id + "." + encoder.getFileExtension());
+        out.putNextEntry(modelEntry);
+        encoder.encode(mesh, out);
         out.closeEntry();
     }
 
@@ -227,8 +314,11 @@ public class VcapExporter {
      * @return The frame.
      */
     public IFrame captureIFrame(double time, @Nullable CaptureCallback callback) {
-        IFrame iFrame = IFrame.capture(new ChunkView.Wrapper(world), getSettings().getBounds(), context, time, callback);
-        frames.add(iFrame);
+        IFrame iFrame = IFrame.capture(new ChunkView.Wrapper(world), getSettings().getBounds(), context, time, callback,
+                getLastIFrame());
+        addFrame(frames.size(), iFrame);
+        resetKeyframePolicy(time);
+        keyframeVolume = iFrame.getNumSections() * 4096L;
         return iFrame;
     }
 
@@ -260,12 +350,21 @@ public class VcapExporter {
      *         the vcap.
      */
     public CompletableFuture<IFrame> captureIFrameAsync(double time, Executor executor, @Nullable CaptureCallback callback) {
+        return captureIFrameAsync(time, world, executor, callback);
+    }
+
+    private CompletableFuture<IFrame> captureIFrameAsync(double time, WorldAccess world, Executor executor, @Nullable CaptureCallback callback) {
         int index = frames.size();
-        return IFrame.captureAsync(new ChunkView.Wrapper(world), getSettings().getBounds(), context, time, executor, callback).thenApply(frame -> {
+        resetKeyframePolicy(time);
+        CompletableFuture<IFrame> future = IFrame.captureAsync(new ChunkView.Wrapper(world), getSettings().getBounds(), context, time, executor, callback,
+                getLastIFrame()).thenApply(frame -> {
             addFrame(index, frame);
+            keyframeVolume = frame.getNumSections() * 4096L;
             LogManager.getLogger().info("Finished capturing world at {} seconds.", time);
             return frame;
         });
+        pendingKeyframe = future;
+        return future;
     }
 
     /**
@@ -295,6 +394,18 @@ public class VcapExporter {
                 ((PFrame) frames.get(index)).setPrevious(Optional.of(frame));
             }
             frames.add(index, frame);
+
+            // A new IFrame starts its own index, so nothing will advance the
+            // previous segment's index again.
+            if (frame instanceof IFrame && index > 0) {
+                WorldStateIndex previousIndex = frames.get(index - 1).getStateIndex();
+                if (previousIndex != null) previousIndex.release();
+            }
+
+            // Rebase the world state index of the P frames that follow.
+            for (int i = index + 1; i < frames.size() && frames.get(i) instanceof PFrame pFrame; i++) {
+                pFrame.updateIndex();
+            }
         }
     }
 
@@ -306,8 +417,10 @@ public class VcapExporter {
      * @param blocks A set of blocks to include data for in the frame.
      *               All ajacent blocks will be queried, and if they are found to
      *               have changed, they are also included in the frame.
-     * @return The captured frame.
+     * @return The captured frame, or <code>null</code> if none of the blocks
+     *         changed and no frame was added.
      */
+    @Nullable
     public PFrame capturePFrame(double time, Set<BlockPos> blocks) {
         return capturePFrame(time, blocks, world);
     }
@@ -323,34 +436,158 @@ public class VcapExporter {
      *               they are also included in the frame.
      * @param world  The world to query. Should contain a block structure equal to
      *               that in this exporter.
-     * @return The captured frame.
+     * @return The captured frame, or <code>null</code> if none of the blocks
+     *         changed and no frame was added.
      */
+    @Nullable
     public PFrame capturePFrame(double time, Set<BlockPos> blocks, WorldAccess world) {
-        Optional<Frame> previous = !frames.isEmpty() ? Optional.of(frames.get(frames.size() - 1)) : Optional.empty();
-        PFrame pFrame = PFrame.capture(new ChunkView.Wrapper(world), blocks, time, previous, context);
-        frames.add(pFrame);
+        PFrame pFrame = addPFrame(time, blocks, new ChunkView.Wrapper(world));
+        if (pFrame != null && shouldCaptureKeyframe(time)) {
+            LOGGER.info("Capturing keyframe at {} seconds.", time);
+            captureIFrameAsync(time, world, Util.getMainWorkerExecutor(), null);
+        }
         return pFrame;
     }
 
+    /**
+     * <p>
+     * Capture a predicted frame from a view of the world, and add it to the file.
+     * Unlike {@link #capturePFrame(double, Set, WorldAccess)}, this doesn't
+     * need to run on the thread that owns the world, as long as the view is
+     * safe to read from the calling thread.
+     * </p>
+     * <p>
+     * The view may change after this returns, so if the keyframe policy calls
+     * for an intracoded frame, it's captured synchronously from the view.
+     * </p>
+     * 
+     * @param time   Timstamp of the frame, in seconds since the beginning of the
+     *               animation.
+     * @param blocks A set of blocks to include data for in the frame.
+     * @param world  The view to query.
+     * @return The captured frame, or <code>null</code> if none of the blocks
+     *         changed and no frame was added.
+     */
+    @Nullable
+    public PFrame capturePFrame(double time, Set<BlockPos> blocks, ChunkView world) {
+        PFrame pFrame = addPFrame(time, blocks, world);
+        if (pFrame != null && shouldCaptureKeyframe(time)) {
+            LOGGER.info("Capturing keyframe at {} seconds.", time);
+            resetKeyframePolicy(time);
+            IFrame iFrame = IFrame.capture(world, getSettings().getBounds(), context, time, null, getLastIFrame());
+            addFrame(frames.size(), iFrame);
+            keyframeVolume = iFrame.getNumSections() * 4096L;
+        }
+        return pFrame;
+    }
+
+    /**
+     * Get the most recent intracoded frame, so a new one can reuse its
+     * unchanged sections.
+     */
+    @Nullable
+    private IFrame getLastIFrame() {
+        synchronized (frames) {
+            for (int i = frames.size() - 1; i >= 0; i--) {
+                if (frames.get(i) instanceof IFrame iFrame) return iFrame;
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private PFrame addPFrame(double time, Set<BlockPos> blocks, ChunkView world) {
+        PFrame pFrame;
+        // Async keyframes are inserted from other threads. Holding the lock keeps
+        // one from landing between picking the previous frame and appending,
+        // which would chain this frame to a released index.
+        synchronized (frames) {
+            Optional<Frame> previous = !frames.isEmpty() ? Optional.of(frames.get(frames.size() - 1)) : Optional.empty();
+            pFrame = new PFrame(world, previous, time);
+            pFrame.capture(blocks, context);
+
+            // Every update netted out to nothing, so don't bother adding a frame.
+            // Checked before joining the world state index so the index stays on
+            // the previous frame.
+            if (pFrame.getNumUpdated() == 0) return null;
+
+            pFrame.updateIndex();
+            frames.add(pFrame);
+        }
+
+        updatesSinceKeyframe += pFrame.getNumUpdated();
+        return pFrame;
+    }
+
+    private double lastKeyframeTime;
+    private long updatesSinceKeyframe;
+    private long keyframeVolume;
+    @Nullable
+    private CompletableFuture<IFrame> pendingKeyframe;
+
+    private void resetKeyframePolicy(double time) {
+        lastKeyframeTime = time;
+        updatesSinceKeyframe = 0;
+    }
+
+    /**
+     * Check whether the keyframe policy in the settings calls for a new
+     * intracoded frame.
+     * @param time The current time, in seconds since the beginning of the animation.
+     * @return If an intracoded frame should be captured.
+     */
+    protected boolean shouldCaptureKeyframe(double time) {
+        // Don't queue more than one at a time.
+        if (pendingKeyframe != null && !pendingKeyframe.isDone()) return false;
+
+        double interval = getSettings().getKeyframeInterval();
+        if (interval > 0 && time - lastKeyframeTime >= interval) {
+            return true;
+        }
+
+        double threshold = getSettings().getKeyframeThreshold();
+        if (threshold > 0 && keyframeVolume > 0 && updatesSinceKeyframe >= threshold * keyframeVolume) {
+            return true;
+        }
+
+        return false;
+    }
+
     private Date captureStartTime;
     private Set<BlockPos> updateCache = new HashSet<>();
+    private boolean isCaptureQueued = false;
+    private double lastPFrameTime = Double.NEGATIVE_INFINITY;
+
     private ClientBlockPlaceCallback listener = new ClientBlockPlaceCallback() {
-        private boolean isCaptureQueued = false;
 
         @Override
         public void place(BlockPos t, @Nullable BlockState old, BlockState u, World world) {
             updateCache.add(t);
             if (!isCaptureQueued) {
-                RenderSystem.recordRenderCall(() -> {
-                    capturePFrame((new Date().getTime() - captureStartTime.getTime()) / 1000d, updateCache);
-                    updateCache.clear();
-                    isCaptureQueued = false;
-                });
+                RenderSystem.recordRenderCall(VcapExporter.this::captureQueuedUpdates);
             }
             isCaptureQueued = true;
         }
     };
 
+    /**
+     * Capture the block updates the listener has collected. If the last
+     * predicted frame is still within the coalescing window, try again next
+     * frame so the updates merge with any that follow.
+     */
+    private void captureQueuedUpdates() {
+        double time = (new Date().getTime() - captureStartTime.getTime()) / 1000d;
+        if (time - lastPFrameTime < getSettings().getCoalesceWindow()) {
+            RenderSystem.recordRenderCall(this::captureQueuedUpdates);
+            return;
+        }
+
+        capturePFrame(time, updateCache);
+        updateCache.clear();
+        lastPFrameTime = time;
+        isCaptureQueued = false;
+    }
+
     /**
      * Listen for and record changes to the world.
      * @param startTime Start time of the animation. Current time if null.
@@ -362,7 +599,7 @@ public class VcapExporter {
             captureStartTime = startTime;
         }
 
-        ReplayExportMod.getInstance().onBlockUpdated(listener);
+        ReplayExportMod.getInstance().getBlockUpdateDispatcher().register(world, getSettings().getBounds(), listener);
     }
 
     public void stopListen() {
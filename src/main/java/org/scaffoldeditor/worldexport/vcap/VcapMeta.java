@@ -5,6 +5,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 import org.scaffoldeditor.worldexport.Constants;
 
 /**
@@ -15,6 +17,39 @@ public class VcapMeta {
     public String encoder = "Minecraft World Exporter";
     public final List<String> faceLayers = new ArrayList<>();
 
+    /**
+     * The layout of predicted frames in <code>world.dat</code>.
+     * @see VcapSettings.PFrameFormat
+     */
+    public String pFrameFormat = VcapSettings.PFrameFormat.COMPOUND.getId();
+
+    /**
+     * The layout of intracoded frame sections in <code>world.dat</code>.
+     * @see VcapSettings.SectionFormat
+     */
+    public String sectionFormat = VcapSettings.SectionFormat.INT_ARRAY.getId();
+
+    /**
+     * The encoding of the meshes in the <code>mesh</code> folder.
+     * @see org.scaffoldeditor.worldexport.mesh.MeshEncoder
+     */
+    public String meshEncoding = "obj";
+
+    /**
+     * How the blocks of each section were turned into meshes.
+     * @see VcapSettings.MeshingMode
+     */
+    public String meshingMode = VcapSettings.MeshingMode.PER_BLOCK.getId();
+
+    /**
+     * The global model palette, if used. When present, every
+     * <code>palette</code> tag in <code>world.dat</code> is a list of indices
+     * into this list.
+     * @see ModelPalette
+     */
+    @Nullable
+    public List<String> palette;
+
     /**
      * A mapping of model IDs and the namespaced ids of the blocks they represent.
      * Used to infer the block id of any block within the file.
@@ -1,5 +1,12 @@
 package org.scaffoldeditor.worldexport.vcap;
 
+import java.util.Arrays;
+
+import javax.annotation.Nullable;
+
+import org.scaffoldeditor.worldexport.mesh.MeshEncoder;
+import org.scaffoldeditor.worldexport.mesh.MeshEncoders;
+
 import net.minecraft.util.math.BlockBox;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.ChunkSectionPos;
@@ -34,9 +41,116 @@ public class VcapSettings {
         }
     }
 
+    /**
+     * The layout used to store predicted frames in <code>world.dat</code>.
+     */
+    public enum PFrameFormat {
+        /**
+         * Each updated block is its own compound. Readable by all importers.
+         */
+        COMPOUND("compound"),
+        /**
+         * Updated blocks are packed into parallel int arrays.
+         */
+        PACKED("packed");
+
+        private final String id;
+
+        PFrameFormat(String id) {
+            this.id = id;
+        }
+
+        /**
+         * Get the identifier of this format as written to <code>meta.json</code>.
+         * @return Format identifier.
+         */
+        public String getId() {
+            return id;
+        }
+    }
+
+    /**
+     * The layout used to store the blocks of intracoded frame sections in
+     * <code>world.dat</code>.
+     */
+    public enum SectionFormat {
+        /**
+         * Each block's palette index is a full int. Readable by all importers.
+         */
+        INT_ARRAY("int"),
+        /**
+         * Palette indices are bit-packed into a long array, with just enough
+         * bits per entry for the section's palette.
+         */
+        PACKED("packed");
+
+        private final String id;
+
+        SectionFormat(String id) {
+            this.id = id;
+        }
+
+        /**
+         * Get the identifier of this format as written to <code>meta.json</code>.
+         * @return Format identifier.
+         */
+        public String getId() {
+            return id;
+        }
+    }
+
+    /**
+     * How the blocks of each section are turned into meshes.
+     */
+    public enum MeshingMode {
+        /**
+         * Every block references its own model. Readable by all importers.
+         */
+        PER_BLOCK("block"),
+        /**
+         * The visible faces of full, opaque cubes are merged into one mesh per
+         * section. Other blocks still reference their own models.
+         */
+        GREEDY("greedy");
+
+        private final String id;
+
+        MeshingMode(String id) {
+            this.id = id;
+        }
+
+        /**
+         * Get the identifier of this mode as written to <code>meta.json</code>.
+         * @return Mode identifier.
+         */
+        public String getId() {
+            return id;
+        }
+    }
+
+    /**
+     * The highest supported level of detail. At this level, sections are
+     * downsampled into 8x8x8 cells.
+     */
+    public static final int MAX_LOD_LEVEL = 3;
+
     private FluidMode fluidMode = FluidMode.STATIC;
     private BlockBox bounds = BlockBox.infinite();
     private int fluidChunkSize = 16;
+    private int meshThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private double keyframeInterval = 0;
+    private double keyframeThreshold = 0;
+    private double coalesceWindow = 0;
+    private PFrameFormat pFrameFormat = PFrameFormat.COMPOUND;
+    private SectionFormat sectionFormat = SectionFormat.INT_ARRAY;
+    private MeshEncoder meshEncoder = MeshEncoders.OBJ;
+    private boolean useMeshCache = true;
+    private boolean useGlobalPalette = false;
+    private boolean useSectionRefs = false;
+    private MeshingMode meshingMode = MeshingMode.PER_BLOCK;
+    @Nullable
+    private BlockPos lodCenter;
+    private int[] lodRings = new int[0];
 
     @Deprecated
     public boolean shouldExportFluids() {
@@ -75,6 +189,258 @@ public class VcapSettings {
         return this;
     }
 
+    /**
+     * Get the number of worker threads used to generate and encode meshes when
+     * the vcap is saved.
+     * @return Number of mesh threads. <code>1</code> means meshes are generated
+     *         on the writing thread.
+     */
+    public int getMeshThreads() {
+        return meshThreads;
+    }
+
+    /**
+     * Set the number of worker threads used to generate and encode meshes when
+     * the vcap is saved.
+     * @param meshThreads Number of mesh threads. <code>1</code> or less generates
+     *                    meshes on the writing thread.
+     * @return <code>this</code>
+     */
+    public VcapSettings setMeshThreads(int meshThreads) {
+        this.meshThreads = Math.max(1, meshThreads);
+        return this;
+    }
+
+    /**
+     * Get the maximum time between intracoded frames. When this much time has
+     * passed since the last intracoded frame, a new one is captured so readers
+     * don't have to replay an arbitrarily long chain of predicted frames.
+     * @return Keyframe interval in seconds. <code>0</code> if disabled.
+     */
+    public double getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    /**
+     * Set the maximum time between intracoded frames.
+     * @param keyframeInterval Keyframe interval in seconds. <code>0</code> to disable.
+     * @return <code>this</code>
+     * @see #getKeyframeInterval()
+     */
+    public VcapSettings setKeyframeInterval(double keyframeInterval) {
+        this.keyframeInterval = Math.max(0, keyframeInterval);
+        return this;
+    }
+
+    /**
+     * Get the fraction of the last intracoded frame's blocks that may be updated
+     * by predicted frames before a new intracoded frame is captured.
+     * @return Keyframe threshold. <code>0</code> if disabled.
+     */
+    public double getKeyframeThreshold() {
+        return keyframeThreshold;
+    }
+
+    /**
+     * Set the fraction of the last intracoded frame's blocks that may be updated
+     * by predicted frames before a new intracoded frame is captured.
+     * @param keyframeThreshold Keyframe threshold. <code>0</code> to disable.
+     * @return <code>this</code>
+     * @see #getKeyframeThreshold()
+     */
+    public VcapSettings setKeyframeThreshold(double keyframeThreshold) {
+        this.keyframeThreshold = Math.max(0, keyframeThreshold);
+        return this;
+    }
+
+    /**
+     * Get the minimum time between predicted frames when listening to the
+     * world. Block updates within this window are merged into one frame, so
+     * blocks that flicker back and forth are sampled at a lower rate.
+     * @return Coalescing window in seconds. <code>0</code> if disabled.
+     */
+    public double getCoalesceWindow() {
+        return coalesceWindow;
+    }
+
+    /**
+     * Set the minimum time between predicted frames when listening to the
+     * world.
+     * @param coalesceWindow Coalescing window in seconds. <code>0</code> to disable.
+     * @return <code>this</code>
+     * @see #getCoalesceWindow()
+     */
+    public VcapSettings setCoalesceWindow(double coalesceWindow) {
+        this.coalesceWindow = Math.max(0, coalesceWindow);
+        return this;
+    }
+
+    public PFrameFormat getPFrameFormat() {
+        return pFrameFormat;
+    }
+
+    /**
+     * Set the layout used to store predicted frames.
+     * @param pFrameFormat The layout.
+     * @return <code>this</code>
+     */
+    public VcapSettings setPFrameFormat(PFrameFormat pFrameFormat) {
+        this.pFrameFormat = pFrameFormat;
+        return this;
+    }
+
+    public SectionFormat getSectionFormat() {
+        return sectionFormat;
+    }
+
+    /**
+     * Set the layout used to store the blocks of intracoded frame sections.
+     * Sections are always bit-packed in memory; this only affects the file.
+     * @param sectionFormat The layout.
+     * @return <code>this</code>
+     */
+    public VcapSettings setSectionFormat(SectionFormat sectionFormat) {
+        this.sectionFormat = sectionFormat;
+        return this;
+    }
+
+    public MeshEncoder getMeshEncoder() {
+        return meshEncoder;
+    }
+
+    /**
+     * Set the encoder used to write the vcap's meshes.
+     * @param meshEncoder The mesh encoder.
+     * @return <code>this</code>
+     * @see MeshEncoders
+     */
+    public VcapSettings setMeshEncoder(MeshEncoder meshEncoder) {
+        this.meshEncoder = meshEncoder;
+        return this;
+    }
+
+    /**
+     * Whether block meshes may be loaded from and saved to the shared
+     * {@link org.scaffoldeditor.worldexport.vcap.model.BlockMeshCache}.
+     * @return If the mesh cache is used.
+     */
+    public boolean useMeshCache() {
+        return useMeshCache;
+    }
+
+    public VcapSettings setUseMeshCache(boolean useMeshCache) {
+        this.useMeshCache = useMeshCache;
+        return this;
+    }
+
+    /**
+     * Whether model IDs are written once to <code>meta.json</code>, with the
+     * palettes in <code>world.dat</code> referencing them by index.
+     * @return If the global palette is used.
+     * @see ModelPalette
+     */
+    public boolean useGlobalPalette() {
+        return useGlobalPalette;
+    }
+
+    public VcapSettings setUseGlobalPalette(boolean useGlobalPalette) {
+        this.useGlobalPalette = useGlobalPalette;
+        return this;
+    }
+
+    /**
+     * Whether intracoded frame sections that are identical to a section in an
+     * earlier intracoded frame are written as a reference to it.
+     * @return If section references are used.
+     * @see IFrame.SectionRefs
+     */
+    public boolean useSectionRefs() {
+        return useSectionRefs;
+    }
+
+    public VcapSettings setUseSectionRefs(boolean useSectionRefs) {
+        this.useSectionRefs = useSectionRefs;
+        return this;
+    }
+
+    public MeshingMode getMeshingMode() {
+        return meshingMode;
+    }
+
+    /**
+     * Set how the blocks of each section are turned into meshes.
+     * @param meshingMode The meshing mode.
+     * @return <code>this</code>
+     */
+    public VcapSettings setMeshingMode(MeshingMode meshingMode) {
+        this.meshingMode = meshingMode;
+        return this;
+    }
+
+    /**
+     * Get the position that level of detail rings are centered on.
+     * @return The center, or <code>null</code> if every section is exported at
+     *         full detail.
+     */
+    @Nullable
+    public BlockPos getLodCenter() {
+        return lodCenter;
+    }
+
+    public VcapSettings setLodCenter(@Nullable BlockPos lodCenter) {
+        this.lodCenter = lodCenter;
+        return this;
+    }
+
+    /**
+     * Get the distances at which sections drop to a lower level of detail.
+     * @return Ring radii in blocks, in ascending order.
+     * @see #setLodRings(int...)
+     */
+    public int[] getLodRings() {
+        return lodRings;
+    }
+
+    /**
+     * Set the distances at which sections drop to a lower level of detail.
+     * Sections whose center is further than <code>lodRings[i]</code> blocks
+     * from the LOD center, measured horizontally, are exported at level
+     * <code>i + 1</code>: downsampled into cells of <code>2^(i + 1)</code>
+     * blocks per side.
+     * 
+     * @param lodRings Ring radii in blocks. Sorted before use, and truncated to
+     *                 {@link #MAX_LOD_LEVEL} entries.
+     * @return <code>this</code>
+     */
+    public VcapSettings setLodRings(int... lodRings) {
+        int[] rings = Arrays.copyOf(lodRings, Math.min(lodRings.length, MAX_LOD_LEVEL));
+        Arrays.sort(rings);
+        this.lodRings = rings;
+        return this;
+    }
+
+    /**
+     * Get the level of detail a section should be exported at.
+     * @param sectionX Section X coordinate.
+     * @param sectionY Section Y coordinate.
+     * @param sectionZ Section Z coordinate.
+     * @return The level of detail. <code>0</code> is full detail.
+     */
+    public int getLodLevel(int sectionX, int sectionY, int sectionZ) {
+        BlockPos center = lodCenter;
+        if (center == null || lodRings.length == 0) return 0;
+
+        double dx = sectionX * 16 + 8 - center.getX();
+        double dz = sectionZ * 16 + 8 - center.getZ();
+        double distance = Math.sqrt(dx * dx + dz * dz);
+
+        int level = 0;
+        while (level < lodRings.length && distance > lodRings[level]) {
+            level++;
+        }
+        return level;
+    }
+
     public BlockBox getBounds() {
         return bounds;
     }
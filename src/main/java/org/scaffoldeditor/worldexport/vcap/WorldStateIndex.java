@@ -0,0 +1,212 @@
+package org.scaffoldeditor.worldexport.vcap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.annotation.Nullable;
+
+import org.scaffoldeditor.worldexport.util.PackedIntArray;
+import org.scaffoldeditor.worldexport.vcap.fluid.FluidDomain;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkSectionPos;
+
+/**
+ * <p>
+ * The materialized state of a vcap's world as of a single frame, called the
+ * index's <i>head</i>. An IFrame creates an index from its sections, and each
+ * subsequent PFrame applies its changes and becomes the new head. This lets the
+ * latest frame answer {@link Frame#modelAt} and {@link Frame#fluidAt} in
+ * constant time, regardless of how long the chain of PFrames is.
+ * </p>
+ * <p>
+ * Frames other than the head must fall back to walking the frame chain. Any
+ * access that depends on who the head is must synchronize on the index.
+ * </p>
+ */
+public class WorldStateIndex {
+
+    private static class Section {
+        /**
+         * Palette indices of each block, packed to the size of the palette.
+         * <code>0</code> means the block was never captured.
+         */
+        PackedIntArray blocks = new PackedIntArray(1, 4096);
+        List<String> palette = new ArrayList<>();
+        Object2IntMap<String> paletteIndices = new Object2IntOpenHashMap<>();
+
+        Section() {
+            palette.add(null);
+        }
+
+        int get(int blockIndex) {
+            return blocks.get(blockIndex);
+        }
+
+        void set(int blockIndex, String id) {
+            // Resolve first; adding to the palette may replace the block array.
+            int index = indexOf(id);
+            blocks.set(blockIndex, index);
+        }
+
+        int indexOf(String id) {
+            int index = paletteIndices.getInt(id);
+            if (index > 0) return index;
+
+            // A section can't reference more than 4096 models at once.
+            if (palette.size() > 4096) compact();
+
+            index = palette.size();
+            palette.add(id);
+            paletteIndices.put(id, index);
+            if (PackedIntArray.bitsFor(palette.size()) > blocks.getBits()) {
+                blocks = blocks.resize(PackedIntArray.bitsFor(palette.size()));
+            }
+            return index;
+        }
+
+        /**
+         * Drop palette entries that are no longer referenced by any block.
+         */
+        void compact() {
+            List<String> oldPalette = palette;
+            palette = new ArrayList<>();
+            palette.add(null);
+            paletteIndices = new Object2IntOpenHashMap<>();
+
+            int[] indices = blocks.toIntArray();
+            for (int i = 0; i < indices.length; i++) {
+                if (indices[i] == 0) continue;
+                String id = oldPalette.get(indices[i]);
+                int index = paletteIndices.getInt(id);
+                if (index == 0) {
+                    index = palette.size();
+                    palette.add(id);
+                    paletteIndices.put(id, index);
+                }
+                indices[i] = index;
+            }
+            blocks = PackedIntArray.of(indices, PackedIntArray.bitsFor(palette.size()));
+        }
+    }
+
+    private Long2ObjectMap<Section> sections = new Long2ObjectOpenHashMap<>();
+    private Map<BlockPos, FluidDomain> fluids = new HashMap<>();
+
+    @Nullable
+    private Frame head;
+
+    private static int blockIndex(int x, int y, int z) {
+        return (y * 16 + z) * 16 + x;
+    }
+
+    private static int blockIndex(BlockPos pos) {
+        return blockIndex(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15);
+    }
+
+    /**
+     * Get the frame whose state this index currently represents.
+     * @return The head frame, or <code>null</code> if the index has been invalidated.
+     */
+    @Nullable
+    public synchronized Frame getHead() {
+        return head;
+    }
+
+    /**
+     * Set the frame whose state this index currently represents.
+     * @param head The head frame, or <code>null</code> to invalidate the index.
+     */
+    public synchronized void setHead(@Nullable Frame head) {
+        this.head = head;
+    }
+
+    /**
+     * Invalidate this index and drop its contents. Every frame in the index's
+     * segment still holds a reference to it, so this is how its memory gets
+     * freed once a newer IFrame starts its own index. Those frames fall back
+     * to walking the frame chain.
+     */
+    public synchronized void release() {
+        head = null;
+        sections = new Long2ObjectOpenHashMap<>();
+        fluids = new HashMap<>();
+    }
+
+    /**
+     * Load a section in the vcap's IFrame section format.
+     * @param section Section NBT.
+     */
+    public synchronized void putSection(NbtCompound section) {
+        long key = ChunkSectionPos.asLong(section.getInt("x"), section.getInt("y"), section.getInt("z"));
+        NbtList paletteTag = section.getList("palette", NbtElement.STRING_TYPE);
+        int[] blocks = SectionLayout.getBlocks(section);
+
+        Section data = new Section();
+        int[] localIndices = new int[paletteTag.size()];
+        for (int i = 0; i < localIndices.length; i++) {
+            localIndices[i] = data.indexOf(paletteTag.getString(i));
+        }
+        for (int i = 0; i < blocks.length && i < data.blocks.size(); i++) {
+            data.blocks.set(i, localIndices[blocks[i]]);
+        }
+        sections.put(key, data);
+    }
+
+    /**
+     * Set the model of a single block.
+     * @param pos Block position.
+     * @param id  Vcap model ID.
+     */
+    public synchronized void put(BlockPos pos, String id) {
+        long key = ChunkSectionPos.toLong(pos);
+        Section section = sections.get(key);
+        if (section == null) {
+            section = new Section();
+            sections.put(key, section);
+        }
+        section.set(blockIndex(pos), id);
+    }
+
+    /**
+     * Set the fluid domains at a number of positions.
+     * @param fluids A map of block positions and their fluid domains.
+     */
+    public synchronized void putFluids(Map<BlockPos, FluidDomain> fluids) {
+        this.fluids.putAll(fluids);
+    }
+
+    /**
+     * Get the model of a block.
+     * @param pos Block position.
+     * @return Vcap model ID.
+     * @throws IndexOutOfBoundsException If the block was never captured.
+     */
+    public synchronized String modelAt(BlockPos pos) throws IndexOutOfBoundsException {
+        Section section = sections.get(ChunkSectionPos.toLong(pos));
+        int index = section != null ? section.get(blockIndex(pos)) : 0;
+        if (index == 0) {
+            throw new IndexOutOfBoundsException("Block pos: "+pos+" is not within the Vcap bounds.");
+        }
+        return section.palette.get(index);
+    }
+
+    /**
+     * Get the fluid domain at a position.
+     * @param pos Block position.
+     * @return The fluid domain, if any.
+     */
+    public synchronized Optional<FluidDomain> fluidAt(BlockPos pos) {
+        return Optional.ofNullable(fluids.get(pos));
+    }
+}
@@ -5,19 +5,18 @@ import java.util.HashSet;
 import java.util.Set;
 
 import org.joml.Vector3d;
+import org.scaffoldeditor.worldexport.util.CompactMesh;
 import org.scaffoldeditor.worldexport.util.FloodFill;
 import org.scaffoldeditor.worldexport.util.MeshComparator;
 import org.scaffoldeditor.worldexport.vcap.BlockExporter;
+import org.scaffoldeditor.worldexport.vcap.CompactVertexConsumer;
 import org.scaffoldeditor.worldexport.vcap.ExportContext;
-import org.scaffoldeditor.worldexport.vcap.ObjVertexConsumer;
 import org.scaffoldeditor.worldexport.vcap.model.ModelProvider.ModelInfo;
 import org.scaffoldeditor.worldexport.vcap.model.VcapWorldMaterial;
 import org.scaffoldeditor.worldexport.world_snapshot.ChunkView;
 
 import com.google.common.collect.ImmutableMap;
 
-import de.javagl.obj.Obj;
-import de.javagl.obj.Objs;
 import net.minecraft.block.BlockState;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.fluid.Fluid;
@@ -132,12 +131,12 @@ public class FluidDomain {
 
         BlockState rootState = world.getBlockState(rootPos);
 
-        Obj mesh = Objs.create();
+        CompactMesh mesh = new CompactMesh();
         VcapWorldMaterial material = new VcapWorldMaterial(true, true,
                 rootState.getLuminance() >= BlockExporter.EMISSIVE_THRESHOLD);
         mesh.setActiveMaterialGroupName(material.getName());
 
-        ObjVertexConsumer consumer = new ObjVertexConsumer(mesh);
+        CompactVertexConsumer consumer = new CompactVertexConsumer(mesh);
 
         for (BlockPos pos : positions) {
             Vector3d offset = new Vector3d(-(pos.getX() & 15), -(pos.getY() & 15), -(pos.getZ() & 15));
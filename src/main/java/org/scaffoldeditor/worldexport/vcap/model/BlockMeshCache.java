@@ -0,0 +1,390 @@
+package org.scaffoldeditor.worldexport.vcap.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.scaffoldeditor.worldexport.ReplayExportMod;
+import org.scaffoldeditor.worldexport.mesh.MeshEncoders;
+import org.scaffoldeditor.worldexport.vcap.BlockModelEntry;
+import org.scaffoldeditor.worldexport.vcap.model.ModelProvider.ModelInfo;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import net.fabricmc.loader.api.FabricLoader;
+import net.fabricmc.loader.api.ModContainer;
+import net.fabricmc.loader.api.metadata.ModMetadata;
+import net.minecraft.SharedConstants;
+import net.minecraft.block.Block;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.texture.Sprite;
+import net.minecraft.resource.Resource;
+import net.minecraft.resource.ResourceManager;
+import net.minecraft.resource.ResourcePack;
+import net.minecraft.screen.PlayerScreenHandler;
+import net.minecraft.util.Identifier;
+
+/**
+ * <p>
+ * Caches generated block meshes across exports. Entries are keyed by
+ * {@link BlockModelEntry#getKey()} and are only valid for the set of resource
+ * packs they were generated with, identified by a <i>resource fingerprint</i>.
+ * </p>
+ * <p>
+ * The cache has two tiers: an in-memory LRU that lasts for the game session,
+ * and an optional on-disk store that persists between sessions. When the
+ * resource fingerprint changes, the memory tier is cleared and disk entries
+ * from other fingerprints are deleted.
+ * </p>
+ */
+public class BlockMeshCache {
+    private static final Logger LOGGER = LogManager.getLogger();
+
+    /**
+     * Bump this whenever mesh generation or the disk entry format changes so old
+     * entries are discarded.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    public static final int DEFAULT_MEMORY_SIZE = 8192;
+
+    private static final byte MATERIAL_WORLD = 0;
+    private static final byte MATERIAL_SPRITE = 1;
+
+    private static final BlockMeshCache INSTANCE = new BlockMeshCache(DEFAULT_MEMORY_SIZE);
+
+    /**
+     * Get the global block mesh cache.
+     * @return The cache.
+     */
+    public static BlockMeshCache getInstance() {
+        return INSTANCE;
+    }
+
+    private final Cache<Integer, ModelInfo> memory;
+
+    @Nullable
+    private volatile String fingerprint;
+    @Nullable
+    private volatile Path diskRoot;
+
+    public BlockMeshCache(long memorySize) {
+        memory = CacheBuilder.newBuilder().maximumSize(memorySize).build();
+    }
+
+    /**
+     * Get the root folder of the disk tier.
+     * @return The folder, or <code>null</code> if the disk tier is disabled.
+     */
+    @Nullable
+    public Path getDiskRoot() {
+        return diskRoot;
+    }
+
+    /**
+     * Set the root folder of the disk tier.
+     * @param diskRoot The folder, or <code>null</code> to disable the disk tier.
+     */
+    public void setDiskRoot(@Nullable Path diskRoot) {
+        this.diskRoot = diskRoot;
+        if (diskRoot != null && fingerprint != null) {
+            purgeDisk(diskRoot, fingerprint);
+        }
+    }
+
+    /**
+     * Get the fingerprint of the resource packs that cached meshes are valid for.
+     * @return The fingerprint, or <code>null</code> if resources haven't been
+     *         loaded yet.
+     */
+    @Nullable
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Called when resources are reloaded. Recomputes the resource fingerprint,
+     * and if it changed, invalidates cached meshes.
+     * @param manager The resource manager.
+     */
+    public void onResourcesReloaded(ResourceManager manager) {
+        String newFingerprint = computeFingerprint(manager);
+        if (newFingerprint.equals(fingerprint)) return;
+
+        memory.invalidateAll();
+        fingerprint = newFingerprint;
+
+        Path root = diskRoot;
+        if (root != null) {
+            purgeDisk(root, newFingerprint);
+        }
+    }
+
+    /**
+     * Clear the memory tier.
+     */
+    public void clearMemory() {
+        memory.invalidateAll();
+    }
+
+    /**
+     * Get the mesh of a block model entry, generating it if it isn't cached.
+     * Safe to call from multiple threads at once.
+     *
+     * @param entry     The model entry.
+     * @param generator Generates the mesh on a cache miss.
+     * @return The mesh.
+     */
+    public ModelInfo get(BlockModelEntry entry, Supplier<ModelInfo> generator) {
+        String currentFingerprint = fingerprint;
+        if (currentFingerprint == null) {
+            return generator.get();
+        }
+
+        int key = entry.getKey();
+        ModelInfo info = memory.getIfPresent(key);
+        if (info != null) return info;
+
+        Path file = getFile(currentFingerprint, key);
+        if (file != null) {
+            info = readFromDisk(file);
+        }
+
+        if (info == null) {
+            info = generator.get();
+            if (file != null) {
+                writeToDisk(file, info);
+            }
+        }
+
+        // Don't repopulate the cache with a mesh from an outdated fingerprint.
+        if (currentFingerprint.equals(fingerprint)) {
+            memory.put(key, info);
+        }
+        return info;
+    }
+
+    @Nullable
+    private Path getFile(String fingerprint, int key) {
+        Path root = diskRoot;
+        if (root == null) return null;
+        return root.resolve(fingerprint).resolve(Integer.toHexString(key) + ".bin");
+    }
+
+    /* FINGERPRINT */
+
+    /**
+     * Compute a fingerprint of everything that affects block meshes.
+     * @param manager The resource manager.
+     * @return The fingerprint, as a hex string.
+     */
+    public static String computeFingerprint(ResourceManager manager) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putInt(FORMAT_VERSION);
+        hasher.putUnencodedChars(SharedConstants.getGameVersion().getId());
+
+        ReplayExportMod mod = ReplayExportMod.getInstance();
+        if (mod != null) {
+            hasher.putUnencodedChars(mod.getModVersion().getFriendlyString());
+        }
+
+        // Raw state IDs change when mods add blocks.
+        hasher.putInt(Block.STATE_IDS.size());
+
+        // Other mods may change models in code, without touching resources.
+        FabricLoader.getInstance().getAllMods().stream()
+                .map(ModContainer::getMetadata)
+                .sorted(Comparator.comparing(ModMetadata::getId))
+                .forEachOrdered(meta -> {
+                    hasher.putUnencodedChars(meta.getId());
+                    hasher.putByte((byte) 0);
+                    hasher.putUnencodedChars(meta.getVersion().getFriendlyString());
+                    hasher.putByte((byte) 0);
+                });
+
+        manager.streamResourcePacks().map(ResourcePack::getName).forEachOrdered(name -> {
+            hasher.putUnencodedChars(name);
+            hasher.putByte((byte) 0);
+        });
+
+        // Packs can be edited in place without changing their names, so hash
+        // the contents of everything that goes into a block model.
+        hashResources(hasher, manager, "blockstates");
+        hashResources(hasher, manager, "models");
+
+        return hasher.hash().toString();
+    }
+
+    /**
+     * Hash the IDs and contents of the JSON resources in a folder.
+     */
+    private static void hashResources(Hasher hasher, ResourceManager manager, String folder) {
+        Map<Identifier, Resource> resources = new TreeMap<>(
+                manager.findResources(folder, id -> id.getPath().endsWith(".json")));
+        for (Map.Entry<Identifier, Resource> entry : resources.entrySet()) {
+            hasher.putUnencodedChars(entry.getKey().toString());
+            hasher.putByte((byte) 0);
+            try (InputStream in = entry.getValue().getInputStream()) {
+                hasher.putBytes(in.readAllBytes());
+            } catch (IOException e) {
+                LOGGER.warn("Unable to read " + entry.getKey() + " for the block mesh cache fingerprint.", e);
+                hasher.putByte((byte) -1);
+            }
+        }
+    }
+
+    /* DISK */
+
+    /**
+     * Delete all disk entries that don't belong to the given fingerprint.
+     */
+    private static void purgeDisk(Path root, String fingerprint) {
+        if (!Files.isDirectory(root)) return;
+        try (Stream<Path> folders = Files.list(root)) {
+            folders.filter(folder -> !folder.getFileName().toString().equals(fingerprint))
+                    .forEach(BlockMeshCache::deleteRecursively);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to purge block mesh cache.", e);
+        }
+    }
+
+    private static void deleteRecursively(Path path) {
+        try (Stream<Path> files = Files.walk(path)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> {
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    LOGGER.warn("Unable to delete cached mesh: " + file, e);
+                }
+            });
+        } catch (IOException e) {
+            LOGGER.warn("Unable to delete cached meshes: " + path, e);
+        }
+    }
+
+    @Nullable
+    private static ModelInfo readFromDisk(Path file) {
+        try (InputStream in = Files.newInputStream(file)) {
+            return read(new DataInputStream(in));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read cached mesh: " + file, e);
+            return null;
+        }
+    }
+
+    private static void writeToDisk(Path file, ModelInfo info) {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            if (!write(info, new DataOutputStream(buffer))) return;
+
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                buffer.writeTo(out);
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to write cached mesh: " + file, e);
+        }
+    }
+
+    /**
+     * Write a mesh entry.
+     * @return <code>false</code> if the entry has materials that can't be
+     *         stored on disk.
+     */
+    private static boolean write(ModelInfo info, DataOutputStream out) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(info.numLayers());
+
+        out.writeInt(info.materials().size());
+        for (Map.Entry<String, MaterialProvider> entry : info.materials().entrySet()) {
+            out.writeUTF(entry.getKey());
+            if (entry.getValue() instanceof VcapWorldMaterial mat) {
+                out.writeByte(MATERIAL_WORLD);
+                out.writeBoolean(mat.transparent());
+                out.writeBoolean(mat.tinted());
+                out.writeBoolean(mat.emissive());
+            } else if (entry.getValue() instanceof SpriteMaterialProvider mat) {
+                out.writeByte(MATERIAL_SPRITE);
+                out.writeBoolean(mat.transparent());
+                out.writeBoolean(mat.tinted());
+                out.writeBoolean(mat.emissive());
+                out.writeUTF(mat.sprite().getContents().getId().toString());
+            } else {
+                return false;
+            }
+        }
+
+        byte[] mesh = MeshEncoders.BINARY.encode(info.mesh());
+        out.writeInt(mesh.length);
+        out.write(mesh);
+        out.flush();
+        return true;
+    }
+
+    @Nullable
+    private static ModelInfo read(DataInputStream in) throws IOException {
+        if (in.readInt() != FORMAT_VERSION) return null;
+        int numLayers = in.readInt();
+
+        int numMaterials = in.readInt();
+        Map<String, MaterialProvider> materials = new HashMap<>(numMaterials);
+        for (int i = 0; i < numMaterials; i++) {
+            String name = in.readUTF();
+            byte type = in.readByte();
+            boolean transparent = in.readBoolean();
+            boolean tinted = in.readBoolean();
+            boolean emissive = in.readBoolean();
+
+            if (type == MATERIAL_WORLD) {
+                materials.put(name, new VcapWorldMaterial(transparent, tinted, emissive));
+            } else if (type == MATERIAL_SPRITE) {
+                Sprite sprite = getSprite(new Identifier(in.readUTF()));
+                if (sprite == null) return null;
+                materials.put(name, new SpriteMaterialProvider(sprite, transparent, tinted, emissive));
+            } else {
+                throw new IOException("Unknown material type: " + type);
+            }
+        }
+
+        byte[] mesh = new byte[in.readInt()];
+        in.readFully(mesh);
+        return new ModelInfo(MeshEncoders.BINARY.decode(mesh), numLayers, materials);
+    }
+
+    @Nullable
+    private static Sprite getSprite(Identifier id) {
+        Sprite sprite = MinecraftClient.getInstance().getBakedModelManager()
+                .getAtlas(PlayerScreenHandler.BLOCK_ATLAS_TEXTURE).getSprite(id);
+        // The atlas returns the missing sprite if the ID isn't found.
+        return sprite.getContents().getId().equals(id) ? sprite : null;
+    }
+}
@@ -2,6 +2,8 @@ package org.scaffoldeditor.worldexport.vcap.model;
 
 import java.util.Optional;
 
+import javax.annotation.Nullable;
+
 import org.scaffoldeditor.worldexport.vcap.MeshWriter;
 import org.scaffoldeditor.worldexport.vcap.BlockModelEntry;
 
@@ -14,19 +16,39 @@ import net.minecraft.util.math.random.Random;
 public class BlockModelProvider implements ModelProvider {
 
     private final BlockModelEntry entry;
-    Random random = Random.create();
 
-    public BlockModelProvider(BlockModelEntry entry) {
+    @Nullable
+    private final BlockMeshCache cache;
+
+    /**
+     * Create a block model provider.
+     * @param entry The model entry.
+     * @param cache A cache to check before generating the mesh. May be
+     *              <code>null</code>.
+     */
+    public BlockModelProvider(BlockModelEntry entry, @Nullable BlockMeshCache cache) {
         this.entry = entry;
+        this.cache = cache;
+    }
+
+    public BlockModelProvider(BlockModelEntry entry) {
+        this(entry, null);
     }
 
     public final BlockModelEntry getEntry() {
         return entry;
     }
 
+    /**
+     * Generate this model's mesh, or retrieve it from the cache. Safe to call
+     * from multiple threads at once, as each call uses its own random.
+     */
     @Override
     public ModelInfo writeMesh() {
-        return MeshWriter.writeBlockMesh(entry, random);
+        if (cache != null) {
+            return cache.get(entry, () -> MeshWriter.writeBlockMesh(entry, Random.create()));
+        }
+        return MeshWriter.writeBlockMesh(entry, Random.create());
     }
     
     @Override
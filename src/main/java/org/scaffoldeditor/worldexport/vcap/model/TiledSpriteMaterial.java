@@ -0,0 +1,57 @@
+package org.scaffoldeditor.worldexport.vcap.model;
+
+import java.util.function.BiConsumer;
+
+import org.scaffoldeditor.worldexport.mat.Material;
+import org.scaffoldeditor.worldexport.mat.MaterialUtils;
+import org.scaffoldeditor.worldexport.mat.ReplayTexture;
+import org.scaffoldeditor.worldexport.mat.ReplayTexture.NativeImageReplayTexture;
+import org.scaffoldeditor.worldexport.mixins.SpriteAccessor;
+
+import net.minecraft.client.texture.NativeImage;
+import net.minecraft.client.texture.Sprite;
+
+/**
+ * A material that uses a single, non-animated sprite as its own texture
+ * rather than the world atlas, so UVs outside of <code>0-1</code> tile the
+ * sprite. Used by merged section meshes.
+ */
+public record TiledSpriteMaterial(Sprite sprite, boolean emissive) implements MaterialProvider {
+
+    @Override
+    public Material writeMaterial(BiConsumer<String, ReplayTexture> textureConsumer) {
+        String texName = getTexName();
+        Material material = new Material();
+
+        material.setColor(texName);
+        material.setRoughness(1);
+
+        if (emissive) {
+            material.setEmission(texName);
+            material.setEmissionStrength(2);
+        }
+
+        NativeImage image = ((SpriteAccessor) sprite.getContents()).getImages()[0];
+        textureConsumer.accept(texName, new NativeImageReplayTexture(image));
+
+        return material;
+    }
+
+    /**
+     * Get the name of this material's texture.
+     * @return Texture name.
+     */
+    public String getTexName() {
+        return MaterialUtils.getTexName(sprite.getContents().getId());
+    }
+
+    /**
+     * Get the name this material will save with.
+     * @return Material name.
+     */
+    public String getName() {
+        StringBuilder builder = new StringBuilder(getTexName()).append("_tiled");
+        if (emissive) builder.append("_emit");
+        return builder.toString();
+    }
+}
@@ -0,0 +1,113 @@
+package org.scaffoldeditor.worldexport.world_snapshot;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * An append-only log of block updates, stored as packed block positions, raw
+ * state IDs and frame indices in chunked primitive arrays. Appending an entry
+ * is a handful of array writes, so it's cheap enough to do on the render
+ * thread for every update.
+ * </p>
+ * <p>
+ * The log supports one writer and any number of readers. Entries below
+ * {@link #size()} are fully written and never change, so readers may read
+ * them from another thread without locking.
+ * </p>
+ */
+public class BlockUpdateLog {
+
+    /**
+     * Log2 of the number of entries in each chunk.
+     */
+    public static final int CHUNK_SHIFT = 12;
+    public static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile long[][] positions = new long[1][CHUNK_SIZE];
+    private volatile int[][] states = new int[1][CHUNK_SIZE];
+    private volatile int[][] frames = new int[1][CHUNK_SIZE];
+
+    private volatile int size;
+
+    /**
+     * Append an update to the log. Must only be called from one thread.
+     *
+     * @param pos     The block position, as returned by
+     *                {@link net.minecraft.util.math.BlockPos#asLong()}.
+     * @param stateId The raw ID of the new block state.
+     * @param frame   The index of the frame the update happened in.
+     */
+    public void add(long pos, int stateId, int frame) {
+        int index = size;
+        int chunk = index >>> CHUNK_SHIFT;
+        if (chunk == positions.length) grow();
+
+        int offset = index & CHUNK_MASK;
+        positions[chunk][offset] = pos;
+        states[chunk][offset] = stateId;
+        frames[chunk][offset] = frame;
+
+        // Publishes the entry to readers.
+        size = index + 1;
+    }
+
+    private void grow() {
+        int numChunks = positions.length;
+        long[][] newPositions = Arrays.copyOf(positions, numChunks * 2);
+        int[][] newStates = Arrays.copyOf(states, numChunks * 2);
+        int[][] newFrames = Arrays.copyOf(frames, numChunks * 2);
+        for (int i = numChunks; i < newPositions.length; i++) {
+            newPositions[i] = new long[CHUNK_SIZE];
+            newStates[i] = new int[CHUNK_SIZE];
+            newFrames[i] = new int[CHUNK_SIZE];
+        }
+        positions = newPositions;
+        states = newStates;
+        frames = newFrames;
+    }
+
+    /**
+     * Get the number of entries that have been fully written.
+     * @return Number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the packed block position of an entry.
+     * @param index Entry index.
+     * @return The packed position.
+     */
+    public long getPos(int index) {
+        checkIndex(index);
+        return positions[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * Get the raw block state ID of an entry.
+     * @param index Entry index.
+     * @return The state ID.
+     */
+    public int getStateId(int index) {
+        checkIndex(index);
+        return states[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    /**
+     * Get the frame index of an entry.
+     * @param index Entry index.
+     * @return The frame index.
+     */
+    public int getFrame(int index) {
+        checkIndex(index);
+        return frames[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+    }
+}
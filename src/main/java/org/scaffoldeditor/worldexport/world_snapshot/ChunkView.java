@@ -1,15 +1,25 @@
 package org.scaffoldeditor.worldexport.world_snapshot;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import net.minecraft.block.Block;
 import net.minecraft.block.BlockState;
+import net.minecraft.block.Blocks;
 import net.minecraft.block.entity.BlockEntity;
 import net.minecraft.fluid.FluidState;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.math.Direction;
 import net.minecraft.util.math.Vec3i;
 import net.minecraft.world.BlockRenderView;
 import net.minecraft.world.WorldAccess;
 import net.minecraft.world.biome.ColorResolver;
 import net.minecraft.world.chunk.Chunk;
+import net.minecraft.world.chunk.ChunkSection;
+import net.minecraft.world.chunk.PalettedContainer;
 import net.minecraft.world.chunk.light.LightingProvider;
 
 /**
@@ -26,6 +36,66 @@ public interface ChunkView extends BlockRenderView {
         return isSectionLoaded(pos.getX(), pos.getY(), pos.getZ());
     }
 
+    /**
+     * <p>
+     * Get a view of the blocks within a chunk section. Implementations with
+     * direct access to chunk data should override this to read from the
+     * section's block container.
+     * </p>
+     * <p>
+     * The default implementation samples each block individually through
+     * {@link #getBlockState}.
+     * </p>
+     * 
+     * @param x Section X coordinate.
+     * @param y Section Y coordinate.
+     * @param z Section Z coordinate.
+     * @return The section view. Not guaranteed to be thread-safe.
+     */
+    default SectionView getSection(int x, int y, int z) {
+        return SectionView.fallback(this, x, y, z);
+    }
+
+    /**
+     * <p>
+     * Copy the blocks of a chunk section so that later changes to the world
+     * don't affect them. Should be called on the thread that owns the world.
+     * </p>
+     * <p>
+     * The default implementation copies each block individually from
+     * {@link #getSection}.
+     * </p>
+     * 
+     * @param x Section X coordinate.
+     * @param y Section Y coordinate.
+     * @param z Section Z coordinate.
+     * @return The copied block container.
+     */
+    default PalettedContainer<BlockState> copySection(int x, int y, int z) {
+        PalettedContainer<BlockState> copy = new PalettedContainer<>(Block.STATE_IDS, Blocks.AIR.getDefaultState(),
+                PalettedContainer.PaletteProvider.BLOCK_STATE);
+        SectionView section = getSection(x, y, z);
+        for (int localY = 0; localY < 16; localY++) {
+            for (int localZ = 0; localZ < 16; localZ++) {
+                for (int localX = 0; localX < 16; localX++) {
+                    copy.swapUnsafe(localX, localY, localZ, section.getBlockState(localX, localY, localZ));
+                }
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Whether this view can be captured from directly, without taking a
+     * {@link WorldSnapshot} of it first. True for views that other threads
+     * can't modify while they're being read.
+     * 
+     * @return If the view is stable.
+     */
+    default boolean isStable() {
+        return false;
+    }
+
     /**
      * Because this is a modded interface, some implementations may wrap another
      * implementation. This method retrieves the base implementation for equality
@@ -43,8 +113,32 @@ public interface ChunkView extends BlockRenderView {
     public static class Wrapper implements ChunkView {
         public final WorldAccess base;
 
+        /**
+         * Chunks we've already looked up, or <code>null</code> if chunks aren't
+         * cached. Entries are dropped once their chunk unloads, but a chunk that
+         * unloads and reloads between lookups may still be served stale, so
+         * long-lived wrappers shouldn't cache.
+         */
+        @Nullable
+        private final Map<Long, Chunk> chunkCache;
+
+        /**
+         * Wrap a world for a single capture, caching chunk lookups.
+         * @param base The world to wrap.
+         */
         public Wrapper(WorldAccess base) {
+            this(base, true);
+        }
+
+        /**
+         * Wrap a world.
+         * @param base        The world to wrap.
+         * @param cacheChunks Whether to cache chunk lookups. Should only be
+         *                    <code>true</code> if the wrapper is short-lived.
+         */
+        public Wrapper(WorldAccess base, boolean cacheChunks) {
             this.base = base;
+            this.chunkCache = cacheChunks ? new ConcurrentHashMap<>() : null;
         }
 
         @Override
@@ -94,10 +188,62 @@ public interface ChunkView extends BlockRenderView {
         
         @Override
         public boolean isSectionLoaded(int x, int y, int z) {
-            if (!isChunkLoaded(x, z)) return false;
+            return getChunkSection(x, y, z) != null;
+        }
+
+        @Override
+        public SectionView getSection(int x, int y, int z) {
+            ChunkSection section = getChunkSection(x, y, z);
+            if (section == null) {
+                return ChunkView.super.getSection(x, y, z);
+            }
+            return SectionView.of(section.getBlockStateContainer());
+        }
+
+        @Override
+        public PalettedContainer<BlockState> copySection(int x, int y, int z) {
+            ChunkSection section = getChunkSection(x, y, z);
+            if (section == null) {
+                return ChunkView.super.copySection(x, y, z);
+            }
+            return section.getBlockStateContainer().copy();
+        }
+
+        /**
+         * Get a chunk, using the cached handle if we've seen it before.
+         * @param x Chunk X.
+         * @param z Chunk Z.
+         * @return The chunk, or <code>null</code> if it isn't loaded.
+         */
+        @Nullable
+        protected Chunk getCachedChunk(int x, int z) {
+            if (chunkCache == null) {
+                return isChunkLoaded(x, z) ? base.getChunk(x, z) : null;
+            }
+
+            long key = ChunkPos.toLong(x, z);
+            if (!isChunkLoaded(x, z)) {
+                chunkCache.remove(key);
+                return null;
+            }
+
+            Chunk chunk = chunkCache.get(key);
+            if (chunk != null) return chunk;
+
+            chunk = base.getChunk(x, z);
+            chunkCache.put(key, chunk);
+            return chunk;
+        }
+
+        @Nullable
+        private ChunkSection getChunkSection(int x, int y, int z) {
+            Chunk chunk = getCachedChunk(x, z);
+            if (chunk == null) return null;
 
-            Chunk chunk = base.getChunk(x, z);
-            return chunk.getSection(chunk.sectionCoordToIndex(y)) != null;
+            int index = chunk.sectionCoordToIndex(y);
+            ChunkSection[] sections = chunk.getSectionArray();
+            if (index < 0 || index >= sections.length) return null;
+            return sections[index];
         }
 
         @Override
@@ -0,0 +1,136 @@
+package org.scaffoldeditor.worldexport.world_snapshot;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.block.Block;
+import net.minecraft.block.BlockState;
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.fluid.FluidState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkSectionPos;
+import net.minecraft.util.math.Direction;
+import net.minecraft.world.biome.ColorResolver;
+import net.minecraft.world.chunk.PalettedContainer;
+import net.minecraft.world.chunk.light.LightingProvider;
+
+/**
+ * <p>
+ * A view of a world snapshot with the entries of a {@link BlockUpdateLog}
+ * applied on top of it. Replaying the log frame by frame reconstructs the
+ * world as it was at each frame, without having to read the live world.
+ * </p>
+ * <p>
+ * Sections are copied out of the snapshot the first time one of their blocks
+ * is replayed. This view is not thread-safe; it should only be used by the
+ * thread that replays the log.
+ * </p>
+ */
+public class LoggedWorldView implements ChunkView {
+    private final WorldSnapshot snapshot;
+    private final Long2ObjectMap<PalettedContainer<BlockState>> sections = new Long2ObjectOpenHashMap<>();
+
+    /**
+     * Create a logged world view.
+     * @param snapshot A snapshot of the world from before the first logged update.
+     */
+    public LoggedWorldView(WorldSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    public WorldSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Apply a log entry to this view.
+     * @param pos     The packed block position.
+     * @param stateId The raw ID of the new block state.
+     * @return The unpacked block position.
+     */
+    public BlockPos apply(long pos, int stateId) {
+        BlockPos blockPos = BlockPos.fromLong(pos);
+        BlockState state = Block.getStateFromRawId(stateId);
+
+        long key = ChunkSectionPos.toLong(blockPos);
+        PalettedContainer<BlockState> section = sections.get(key);
+        if (section == null) {
+            section = snapshot.copySection(ChunkSectionPos.unpackX(key), ChunkSectionPos.unpackY(key),
+                    ChunkSectionPos.unpackZ(key));
+            sections.put(key, section);
+        }
+        section.swapUnsafe(blockPos.getX() & 15, blockPos.getY() & 15, blockPos.getZ() & 15, state);
+        return blockPos;
+    }
+
+    @Override
+    public BlockState getBlockState(BlockPos pos) {
+        PalettedContainer<BlockState> section = sections.get(ChunkSectionPos.toLong(pos));
+        if (section != null) {
+            return section.get(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15);
+        }
+        return snapshot.getBlockState(pos);
+    }
+
+    @Override
+    public SectionView getSection(int x, int y, int z) {
+        PalettedContainer<BlockState> section = sections.get(ChunkSectionPos.asLong(x, y, z));
+        if (section != null) {
+            return SectionView.of(section);
+        }
+        return snapshot.getSection(x, y, z);
+    }
+
+    @Override
+    public FluidState getFluidState(BlockPos pos) {
+        return getBlockState(pos).getFluidState();
+    }
+
+    @Override
+    public BlockEntity getBlockEntity(BlockPos pos) {
+        return null;
+    }
+
+    @Override
+    public int getHeight() {
+        return snapshot.getHeight();
+    }
+
+    @Override
+    public int getBottomY() {
+        return snapshot.getBottomY();
+    }
+
+    @Override
+    public float getBrightness(Direction direction, boolean shaded) {
+        return snapshot.getBrightness(direction, shaded);
+    }
+
+    @Override
+    public LightingProvider getLightingProvider() {
+        return snapshot.getLightingProvider();
+    }
+
+    @Override
+    public int getColor(BlockPos pos, ColorResolver colorResolver) {
+        return snapshot.getColor(pos, colorResolver);
+    }
+
+    /**
+     * Only the thread replaying the log modifies this view, so captures made
+     * on that thread don't need to snapshot it.
+     */
+    @Override
+    public boolean isStable() {
+        return true;
+    }
+
+    @Override
+    public boolean isChunkLoaded(int x, int z) {
+        return snapshot.isChunkLoaded(x, z);
+    }
+
+    @Override
+    public boolean isSectionLoaded(int x, int y, int z) {
+        return snapshot.isSectionLoaded(x, y, z);
+    }
+}
@@ -0,0 +1,72 @@
+package org.scaffoldeditor.worldexport.world_snapshot;
+
+import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.BlockView;
+import net.minecraft.world.chunk.PalettedContainer;
+
+/**
+ * A read-only view of the blocks within a single 16x16x16 chunk section.
+ * Coordinates are local to the section (<code>0 - 15</code>).
+ */
+public interface SectionView {
+
+    /**
+     * Get the block state at a position within this section.
+     *
+     * @param x Local X coordinate.
+     * @param y Local Y coordinate.
+     * @param z Local Z coordinate.
+     * @return The block state.
+     */
+    BlockState getBlockState(int x, int y, int z);
+
+    /**
+     * Create a section view that reads directly from a chunk section's block
+     * container.
+     *
+     * @param container The block container.
+     * @return The section view.
+     */
+    public static SectionView of(PalettedContainer<BlockState> container) {
+        return container::get;
+    }
+
+    /**
+     * Create a section view that samples each block individually from a block
+     * view. Used as a fallback for worlds that can't provide direct section
+     * access.
+     *
+     * @param world    The world to sample.
+     * @param sectionX Section X coordinate.
+     * @param sectionY Section Y coordinate.
+     * @param sectionZ Section Z coordinate.
+     * @return The section view. Not thread-safe.
+     */
+    public static SectionView fallback(BlockView world, int sectionX, int sectionY, int sectionZ) {
+        return new Fallback(world, sectionX, sectionY, sectionZ);
+    }
+
+    /**
+     * A section view that samples each block individually.
+     */
+    static class Fallback implements SectionView {
+        private final BlockView world;
+        private final int minX;
+        private final int minY;
+        private final int minZ;
+        private final BlockPos.Mutable mutable = new BlockPos.Mutable();
+
+        Fallback(BlockView world, int sectionX, int sectionY, int sectionZ) {
+            this.world = world;
+            this.minX = sectionX * 16;
+            this.minY = sectionY * 16;
+            this.minZ = sectionZ * 16;
+        }
+
+        @Override
+        public BlockState getBlockState(int x, int y, int z) {
+            return world.getBlockState(mutable.set(minX + x, minY + y, minZ + z));
+        }
+    }
+}
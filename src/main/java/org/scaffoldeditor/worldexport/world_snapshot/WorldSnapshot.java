@@ -15,18 +15,30 @@ import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.math.ChunkSectionPos;
 import net.minecraft.util.math.Direction;
 import net.minecraft.world.biome.ColorResolver;
+import net.minecraft.world.chunk.PalettedContainer;
 import net.minecraft.world.chunk.light.LightingProvider;
 
 /**
- * Contains a "snapshot" of a world at a given time, which can be subsequently 
+ * <p>
+ * Contains a "snapshot" of a world at a given time, which can be subsequently
+ * read off-thread while the world keeps changing.
+ * </p>
+ * <p>
+ * Snapshots are copy-on-write: sections are read live from the underlying
+ * world until one of their blocks is updated, at which point the section's
+ * block container is copied (with the update rolled back) and all further
+ * reads of that section go to the copy.
+ * </p>
  */
 public class WorldSnapshot implements ChunkView {
     private final ChunkView world;
-    
+
     /**
-     * A backup of all the blockstates that have been overwritten since ths snapshot.
+     * Copies of every section that has been modified since the snapshot, as they
+     * were when it was taken. Copies are never written to after they're added,
+     * so they can be read without locking.
      */
-    protected final Map<BlockPos, BlockState> overwrittenStates = new ConcurrentHashMap<>();
+    protected final Map<Long, PalettedContainer<BlockState>> copiedSections = new ConcurrentHashMap<>();
     protected final Set<ChunkPos> bannedChunks = Collections.newSetFromMap(new ConcurrentHashMap<>());
     protected final Set<ChunkSectionPos> bannedSections = Collections.newSetFromMap(new ConcurrentHashMap<>());
 
@@ -44,15 +56,34 @@ public class WorldSnapshot implements ChunkView {
         return world;
     }
 
+    /**
+     * Called on the client thread after a block in the underlying world has
+     * been updated.
+     * 
+     * @param pos      The block position.
+     * @param oldState The state before the update.
+     * @param state    The new state.
+     */
     public void onBlockUpdated(BlockPos pos, @Nullable BlockState oldState, BlockState state) {
-        pos = new BlockPos(pos); // In case this was mutable.
         if (state.equals(oldState)) return;
         ChunkPos chunkPos = new ChunkPos(pos);
         if (!world.isChunkLoaded(chunkPos.x, chunkPos.z)) bannedChunks.add(chunkPos);
 
         ChunkSectionPos secPos = ChunkSectionPos.from(pos);
-        if (!world.isSectionLoaded(secPos)) bannedSections.add(secPos);
-        overwrittenStates.put(pos, oldState);
+        if (!world.isSectionLoaded(secPos)) {
+            bannedSections.add(secPos);
+            return;
+        }
+
+        long key = secPos.asLong();
+        if (copiedSections.containsKey(key)) return;
+
+        PalettedContainer<BlockState> copy = world.copySection(secPos.getX(), secPos.getY(), secPos.getZ());
+        // The world has already applied the update, so roll it back in the copy.
+        if (oldState != null) {
+            copy.set(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15, oldState);
+        }
+        copiedSections.put(key, copy);
     }
 
     @Override
@@ -75,7 +106,23 @@ public class WorldSnapshot implements ChunkView {
         if (!isValid) {
             throw new IllegalStateException("This snapshot has been invalidated.");
         }
-        return overwrittenStates.getOrDefault(pos, world.getBlockState(pos));
+        PalettedContainer<BlockState> copy = copiedSections.get(ChunkSectionPos.toLong(pos));
+        if (copy != null) {
+            return copy.get(pos.getX() & 15, pos.getY() & 15, pos.getZ() & 15);
+        }
+        return world.getBlockState(pos);
+    }
+
+    @Override
+    public SectionView getSection(int x, int y, int z) {
+        if (!isValid) {
+            throw new IllegalStateException("This snapshot has been invalidated.");
+        }
+        PalettedContainer<BlockState> copy = copiedSections.get(ChunkSectionPos.asLong(x, y, z));
+        if (copy != null) {
+            return SectionView.of(copy);
+        }
+        return world.getSection(x, y, z);
     }
 
     @Override
@@ -109,6 +156,11 @@ public class WorldSnapshot implements ChunkView {
         return world.getColor(var1, var2);
     }
 
+    @Override
+    public boolean isStable() {
+        return true;
+    }
+
     @Override
     public boolean isChunkLoaded(int x, int z) {
         if (bannedChunks.contains(new ChunkPos(x, z))) return false;
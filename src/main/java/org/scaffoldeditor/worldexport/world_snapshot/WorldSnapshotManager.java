@@ -1,24 +1,51 @@
 package org.scaffoldeditor.worldexport.world_snapshot;
 
-import java.util.Collections;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.Nullable;
 
+import org.scaffoldeditor.worldexport.BlockUpdateDispatcher;
 import org.scaffoldeditor.worldexport.ClientBlockPlaceCallback;
 import org.scaffoldeditor.worldexport.ReplayExportMod;
 
 import net.minecraft.block.BlockState;
+import net.minecraft.util.math.BlockBox;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.world.World;
 import net.minecraft.world.WorldAccess;
 
-public final class WorldSnapshotManager implements ClientBlockPlaceCallback {
-    private final Set<WorldSnapshot> snapshots = Collections.newSetFromMap(new WeakHashMap<>());
+public final class WorldSnapshotManager {
+    private final BlockUpdateDispatcher dispatcher;
+    private final Set<SnapshotListener> listeners = ConcurrentHashMap.newKeySet();
+    private final ReferenceQueue<WorldSnapshot> collected = new ReferenceQueue<>();
 
-    public WorldSnapshotManager() {
-        ClientBlockPlaceCallback.EVENT.register(this);
+    /**
+     * Forwards block updates to a snapshot. Only holds the snapshot weakly.
+     * Listeners whose snapshot has been collected are removed the next time a
+     * snapshot is taken, so the dispatch path never has to unregister.
+     */
+    private static final class SnapshotListener extends WeakReference<WorldSnapshot>
+            implements ClientBlockPlaceCallback {
+
+        SnapshotListener(WorldSnapshot snapshot, ReferenceQueue<WorldSnapshot> queue) {
+            super(snapshot, queue);
+        }
+
+        @Override
+        public void place(BlockPos pos, @Nullable BlockState oldState, BlockState state, World world) {
+            WorldSnapshot snapshot = get();
+            if (snapshot != null) {
+                snapshot.onBlockUpdated(pos, oldState, state);
+            }
+        }
+    }
+
+    public WorldSnapshotManager(BlockUpdateDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
     }
 
     /**
@@ -33,24 +60,43 @@ public final class WorldSnapshotManager implements ClientBlockPlaceCallback {
 
     /**
      * Take a "snapshot" of a world in time. This snapshot does <i>not</i>
-     * copy the block data. Instead, it sets up a thread-safe view of it that
-     * accounts for any potential updates. This way, a world can be captured and
-     * iterated through off-thread.
+     * copy the block data up front. Instead, it sets up a thread-safe view of it
+     * that copies each section the first time it's updated. This way, a world
+     * can be captured and iterated through off-thread.
      * 
      * @param world The world to capture.
      * @return The snapshot.
      */
-    public synchronized WorldSnapshot snapshot(ChunkView world) {
+    public WorldSnapshot snapshot(ChunkView world) {
+        return snapshot(world, null);
+    }
+
+    /**
+     * Take a "snapshot" of a region of a world in time. Only updates within the
+     * region and the sections bordering it are tracked, so reads outside of it
+     * aren't guaranteed to be consistent.
+     * 
+     * @param world  The world to capture.
+     * @param bounds The region to capture, in chunk section coordinates.
+     *               <code>null</code> to capture the whole world.
+     * @return The snapshot.
+     * @see #snapshot(ChunkView)
+     */
+    public WorldSnapshot snapshot(ChunkView world, @Nullable BlockBox bounds) {
+        expungeCollected();
         WorldSnapshot snapshot = new WorldSnapshot(world);
-        snapshots.add(snapshot);
+        SnapshotListener listener = new SnapshotListener(snapshot, collected);
+        listeners.add(listener);
+        // Face culling reads one block into neighboring sections.
+        dispatcher.register(world.getBase(), bounds != null ? pad(bounds) : null, listener);
         return snapshot;
     }
 
     /**
      * Take a "snapshot" of a world in time. This snapshot does <i>not</i>
-     * copy the block data. Instead, it sets up a thread-safe view of it that
-     * accounts for any potential updates. This way, a world can be captured and
-     * iterated through off-thread.
+     * copy the block data up front. Instead, it sets up a thread-safe view of it
+     * that copies each section the first time it's updated. This way, a world
+     * can be captured and iterated through off-thread.
      * 
      * @param world The world to capture.
      * @return The snapshot.
@@ -59,18 +105,58 @@ public final class WorldSnapshotManager implements ClientBlockPlaceCallback {
         return snapshot(new ChunkView.Wrapper(world));
     }
 
-    @Override
-    public synchronized void place(BlockPos pos, @Nullable BlockState oldState, BlockState state, World world) {
-        snapshots.forEach(snapshot -> {
-            if (world.equals(snapshot.getWorld().getBase())) snapshot.onBlockUpdated(pos, oldState, state);
-        });
+    /**
+     * Stop forwarding block updates to a snapshot. Call this once a capture
+     * is done with its snapshot; reads from it afterwards aren't guaranteed to
+     * be consistent.
+     * 
+     * @param snapshot The snapshot to release.
+     */
+    public void release(WorldSnapshot snapshot) {
+        for (SnapshotListener listener : listeners) {
+            if (listener.get() == snapshot) {
+                listener.clear();
+                remove(listener);
+            }
+        }
+    }
+
+    private void expungeCollected() {
+        Reference<? extends WorldSnapshot> ref;
+        while ((ref = collected.poll()) != null) {
+            remove((SnapshotListener) ref);
+        }
+    }
+
+    private void remove(SnapshotListener listener) {
+        if (listeners.remove(listener)) {
+            dispatcher.unregister(listener);
+        }
+    }
+
+    /**
+     * Grow a box by one in every direction without overflowing.
+     * @param box The box to grow.
+     * @return The grown box.
+     */
+    public static BlockBox pad(BlockBox box) {
+        return new BlockBox(
+                Math.max(box.getMinX(), Integer.MIN_VALUE + 1) - 1,
+                Math.max(box.getMinY(), Integer.MIN_VALUE + 1) - 1,
+                Math.max(box.getMinZ(), Integer.MIN_VALUE + 1) - 1,
+                Math.min(box.getMaxX(), Integer.MAX_VALUE - 1) + 1,
+                Math.min(box.getMaxY(), Integer.MAX_VALUE - 1) + 1,
+                Math.min(box.getMaxZ(), Integer.MAX_VALUE - 1) + 1);
     }
 
     /**
      * Invalidate and remove all snapshots.
      */
-    public synchronized void clear() {
-        snapshots.forEach(snapshot -> snapshot.invalidate());
-        snapshots.clear();
+    public void clear() {
+        for (SnapshotListener listener : listeners) {
+            WorldSnapshot snapshot = listener.get();
+            if (snapshot != null) snapshot.invalidate();
+            remove(listener);
+        }
     }
 }
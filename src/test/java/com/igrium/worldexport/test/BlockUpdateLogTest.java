@@ -0,0 +1,34 @@
+package com.igrium.worldexport.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+import org.scaffoldeditor.worldexport.world_snapshot.BlockUpdateLog;
+
+public class BlockUpdateLogTest {
+
+    @Test
+    void testEmpty() {
+        BlockUpdateLog log = new BlockUpdateLog();
+        assertEquals(0, log.size());
+        assertThrows(IndexOutOfBoundsException.class, () -> log.getPos(0));
+    }
+
+    @Test
+    void testAcrossChunks() {
+        BlockUpdateLog log = new BlockUpdateLog();
+        int count = BlockUpdateLog.CHUNK_SIZE * 3 + 7;
+        for (int i = 0; i < count; i++) {
+            log.add(i * 31L - 5, i ^ 0x55, i / 10);
+        }
+
+        assertEquals(count, log.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i * 31L - 5, log.getPos(i));
+            assertEquals(i ^ 0x55, log.getStateId(i));
+            assertEquals(i / 10, log.getFrame(i));
+        }
+        assertThrows(IndexOutOfBoundsException.class, () -> log.getFrame(count));
+    }
+}
@@ -1,6 +1,8 @@
 package com.igrium.worldexport.test;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
@@ -76,6 +78,29 @@ public class MeshComparitorTest {
         assertFalse(new MeshComparator().meshEquals(cube1, notCube, .05f, 0));
     }
 
+    @Test
+    void testFingerprint() throws IOException {
+        Obj cube1 = read(TestMeshes.CUBE1);
+        Obj cube2 = read(TestMeshes.CUBE2);
+        Obj notCube = read(TestMeshes.NOT_CUBE);
+
+        assertEquals(MeshComparator.fingerprint(cube1, .001f), MeshComparator.fingerprint(cube2, .001f),
+                "Congruent meshes should have the same fingerprint regardless of vertex order.");
+        assertNotEquals(MeshComparator.fingerprint(cube1, .001f), MeshComparator.fingerprint(notCube, .001f));
+    }
+
+    @Test
+    void testFingerprintHash() throws IOException {
+        Obj cube1 = read(TestMeshes.CUBE1);
+        Obj cube2 = read(TestMeshes.CUBE2);
+        Obj cubeSimilar = read(TestMeshes.CUBE_SIMILAR);
+
+        MeshComparator comparator = new MeshComparator();
+        assertEquals(comparator.getFingerprint(cube1).getHash(), comparator.getFingerprint(cube2).getHash(),
+                "Vertex order shouldn't affect the hash.");
+        assertNotEquals(comparator.getFingerprint(cube1).getHash(), comparator.getFingerprint(cubeSimilar).getHash());
+    }
+
     private Obj read(String obj) {
         try (StringReader reader = new StringReader(obj)) {
             return ObjReader.read(reader);
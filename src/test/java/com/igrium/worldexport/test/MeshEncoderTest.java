@@ -0,0 +1,58 @@
+package com.igrium.worldexport.test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.jupiter.api.Test;
+import org.scaffoldeditor.worldexport.mesh.MeshEncoder;
+import org.scaffoldeditor.worldexport.mesh.MeshEncoders;
+import org.scaffoldeditor.worldexport.mesh.ObjMeshEncoder;
+import org.scaffoldeditor.worldexport.util.MeshComparator;
+
+import de.javagl.obj.Obj;
+import de.javagl.obj.ObjReader;
+import de.javagl.obj.Objs;
+
+public class MeshEncoderTest {
+
+    @Test
+    void testBinaryRoundTrip() throws IOException {
+        assertRoundTrip(MeshEncoders.BINARY);
+    }
+
+    @Test
+    void testObjRoundTrip() throws IOException {
+        assertRoundTrip(MeshEncoders.OBJ);
+    }
+
+    @Test
+    void testObjPrecision() throws IOException {
+        Obj obj = Objs.create();
+        obj.addVertex(0.1234567f, -2.5f, -0.0001f);
+        obj.addVertex(1f, 0.05f, 100.25f);
+
+        StringWriter writer = new StringWriter();
+        new ObjMeshEncoder(3).encode(obj, writer);
+        assertEquals("v 0.123 -2.5 0\nv 1 0.05 100.25\n", writer.toString());
+    }
+
+    private static void assertRoundTrip(MeshEncoder encoder) throws IOException {
+        Obj cube = ObjReader.read(new StringReader(TestMeshes.CUBE1));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.encode(cube, out);
+        Obj decoded = encoder.decode(new ByteArrayInputStream(out.toByteArray()));
+
+        assertEquals(cube.getNumFaces(), decoded.getNumFaces());
+        assertEquals(cube.getNumGroups(), decoded.getNumGroups());
+        assertEquals(cube.getNumMaterialGroups(), decoded.getNumMaterialGroups());
+        assertTrue(new MeshComparator().meshEquals(cube, decoded, .0001f, MeshComparator.NO_SORT),
+                "Decoded mesh should match the original.");
+    }
+}
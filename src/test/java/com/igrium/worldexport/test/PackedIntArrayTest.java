@@ -0,0 +1,74 @@
+package com.igrium.worldexport.test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.scaffoldeditor.worldexport.util.PackedIntArray;
+
+public class PackedIntArrayTest {
+
+    @Test
+    void testBitsFor() {
+        assertEquals(1, PackedIntArray.bitsFor(1));
+        assertEquals(1, PackedIntArray.bitsFor(2));
+        assertEquals(2, PackedIntArray.bitsFor(3));
+        assertEquals(3, PackedIntArray.bitsFor(5));
+        assertEquals(4, PackedIntArray.bitsFor(16));
+        assertEquals(5, PackedIntArray.bitsFor(17));
+        assertEquals(12, PackedIntArray.bitsFor(4096));
+    }
+
+    @Test
+    void testDataLength() {
+        // Entries don't span longs, so 5 bits fits 12 per long.
+        assertEquals(342, PackedIntArray.getDataLength(5, 4096));
+        assertEquals(64, PackedIntArray.getDataLength(1, 4096));
+        assertEquals(2048, PackedIntArray.getDataLength(32, 4096));
+    }
+
+    @Test
+    void testRoundTrip() {
+        Random random = new Random(42);
+        for (int bits = 1; bits <= PackedIntArray.MAX_BITS; bits++) {
+            int[] values = new int[4096];
+            long bound = 1L << bits;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = (int) (random.nextLong() & (bound - 1));
+            }
+            PackedIntArray array = PackedIntArray.of(values, bits);
+            assertArrayEquals(values, array.toIntArray(), "bits: " + bits);
+            assertArrayEquals(values, new PackedIntArray(bits, values.length, array.getData()).toIntArray());
+        }
+    }
+
+    @Test
+    void testSetDoesNotDisturbNeighbors() {
+        PackedIntArray array = new PackedIntArray(3, 100);
+        for (int i = 0; i < 100; i++) {
+            array.set(i, 7);
+        }
+        array.set(50, 2);
+        assertEquals(7, array.get(49));
+        assertEquals(2, array.get(50));
+        assertEquals(7, array.get(51));
+    }
+
+    @Test
+    void testResize() {
+        int[] values = { 0, 1, 2, 3, 1, 0 };
+        PackedIntArray array = PackedIntArray.of(values, 2).resize(7);
+        assertEquals(7, array.getBits());
+        assertArrayEquals(values, array.toIntArray());
+    }
+
+    @Test
+    void testOverflow() {
+        PackedIntArray array = new PackedIntArray(2, 10);
+        assertThrows(IllegalArgumentException.class, () -> array.set(0, 4));
+        assertThrows(IllegalArgumentException.class, () -> new PackedIntArray(2, 10, new long[2]));
+    }
+}